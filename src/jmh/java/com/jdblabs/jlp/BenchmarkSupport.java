@@ -0,0 +1,65 @@
+/**
+ * # BenchmarkSupport
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared set-up code for the benchmarks.
+ * @org jlp.jdb-labs.com/bench/BenchmarkSupport
+ */
+class BenchmarkSupport {
+
+    /**
+     * Create a Processor for the given files and run both parse phases over
+     * them, leaving it ready to emit.
+     */
+    static Processor parsedProcessor(File rootDir, List<File> files) {
+        Processor processor = new Processor();
+        processor.inputRoot = new File(rootDir, "src");
+        processor.outputRoot = new File(rootDir, "out");
+
+        for (File file : files) {
+            TargetDoc doc = new TargetDoc();
+            doc.sourceDocId = file.getName();
+            doc.sourceFile = file;
+            doc.sourceType = (String) Processor.sourceTypeForFile(file);
+            processor.docs.put(doc.sourceDocId, doc); }
+
+        for (Map.Entry<String, TargetDoc> entry : processor.docs.entrySet()) {
+            TargetDoc doc = entry.getValue();
+            try {
+                processor.parseDoc(doc, new String(
+                    Files.readAllBytes(doc.sourceFile.toPath()), "UTF-8")); }
+            catch (IOException ioe) { throw new RuntimeException(ioe); }}
+
+        return processor; }
+
+    /// The CSS given to the Processor only needs to respond to `text`.
+    static URL defaultCss() {
+        return Processor.class.getResource("/css/jlp.css"); }
+
+    static void deleteDir(File dir) throws IOException {
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes a)
+            throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE; }
+
+            public FileVisitResult postVisitDirectory(Path d, IOException e)
+            throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE; }}); }
+}
@@ -0,0 +1,174 @@
+/**
+ * # CorpusGenerator
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic JLP input for the benchmarks. The output is
+ * deterministic for a given seed so that benchmark runs are comparable.
+ *
+ * Each generated source file is a sequence of blocks. A block is a doc
+ * comment (using the delimiters the [`Processor`] configures for the source
+ * type) followed by some lines of code. The doc comments contain Markdown,
+ * `@org` directives defining link anchors, and `jlp://` links to anchors in
+ * other files of the corpus.
+ *
+ * It can also be run on its own to write a corpus to disk:
+ *
+ *     java com.jdblabs.jlp.CorpusGenerator <dir> <file-count> <blocks-per-file>
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * @org jlp.jdb-labs.com/bench/CorpusGenerator
+ */
+public class CorpusGenerator {
+
+    /// The source types the corpus is made of, with their file extensions.
+    public static final String[][] SOURCE_TYPES = {
+        { "java", "java" }, { "groovy", "groovy" }, { "c", "c" },
+        { "javascript", "js" }, { "erlang", "erl" }, { "foxpro", "prg" },
+        { "xml", "xml" }, { "sql", "sql" } };
+
+    private static final String[] WORDS = {
+        "parse", "block", "document", "anchor", "link", "emit", "source",
+        "generator", "the", "a", "of", "and", "to", "with", "value", "code" };
+
+    private final Random random;
+
+    /// The number of files in the corpus, used when generating links to
+    /// anchors in other files.
+    private int fileCount = 1;
+    private int blocksPerFile = 1;
+
+    public CorpusGenerator(long seed) { this.random = new Random(seed); }
+
+    /**
+     * #### source
+     * Generate the contents of one source file of the given type. `fileIdx`
+     * determines the anchor ids defined in the file.
+     */
+    public String source(String sourceType, int fileIdx, int blocks) {
+        List<?> args = Processor.parserArgumentsForSourceType(sourceType);
+        StringBuilder sb = new StringBuilder();
+
+        for (int b = 0; b < blocks; b++) {
+            if (args.size() == 4 && b % 2 == 0) {
+                multiLineDoc(sb, (String) args.get(0), (String) args.get(1),
+                    fileIdx, b); }
+            else {
+                Object sdoc = args.get(args.size() - 1);
+                if (sdoc instanceof List) {
+                    sdoc = ((List<?>) sdoc).get(b % ((List<?>) sdoc).size()); }
+                singleLineDoc(sb, (String) sdoc, fileIdx, b); }
+
+            int codeLines = 3 + random.nextInt(15);
+            for (int l = 0; l < codeLines; l++) {
+                sb.append("    value_").append(l).append(" = ")
+                  .append(word()).append("(").append(word()).append(", ")
+                  .append(random.nextInt(1000)).append(") + 1;\n"); }}
+
+        return sb.toString(); }
+
+    /**
+     * #### markdown
+     * Generate the Markdown for one doc block (without comment delimiters).
+     */
+    public String markdown(int fileIdx, int blockIdx) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : markdownLines(fileIdx, blockIdx)) {
+            sb.append(line).append('\n'); }
+        return sb.toString(); }
+
+    /**
+     * #### writeCorpus
+     * Write a corpus of `files` source files of mixed types under `root`,
+     * spread over a few levels of directories. Returns the files written.
+     */
+    public List<File> writeCorpus(File root, int files, int blocksPerFile)
+    throws IOException {
+        this.fileCount = files;
+        this.blocksPerFile = blocksPerFile;
+
+        List<File> written = new ArrayList<File>();
+        for (int i = 0; i < files; i++) {
+            String[] type = SOURCE_TYPES[i % SOURCE_TYPES.length];
+            File dir = new File(root, "module" + (i % 7) + "/pkg" + (i % 3));
+            dir.mkdirs();
+
+            File file = new File(dir, "File" + i + "." + type[1]);
+            Files.write(file.toPath(),
+                source(type[0], i, blocksPerFile)
+                    .getBytes(StandardCharsets.UTF_8));
+            written.add(file); }
+
+        return written; }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: CorpusGenerator <dir> <file-count> " +
+                "<blocks-per-file>");
+            System.exit(1); }
+
+        List<File> files = new CorpusGenerator(1L).writeCorpus(
+            new File(args[0]), Integer.parseInt(args[1]),
+            Integer.parseInt(args[2]));
+
+        System.out.println("Wrote " + files.size() + " files to " + args[0]); }
+
+    private void multiLineDoc(StringBuilder sb, String start, String end,
+        int fileIdx, int blockIdx) {
+
+        sb.append(start).append('\n');
+        for (String line : markdownLines(fileIdx, blockIdx)) {
+            sb.append(" * ").append(line).append('\n'); }
+        sb.append(' ').append(end).append('\n'); }
+
+    private void singleLineDoc(StringBuilder sb, String start, int fileIdx,
+        int blockIdx) {
+
+        for (String line : markdownLines(fileIdx, blockIdx)) {
+            sb.append(start).append(' ').append(line).append('\n'); }}
+
+    private List<String> markdownLines(int fileIdx, int blockIdx) {
+        List<String> lines = new ArrayList<String>();
+
+        if (blockIdx == 0) {
+            lines.add("# File " + fileIdx);
+            lines.add("@author Benchmark Author (bench@example.com)"); }
+        else { lines.add("### Block " + blockIdx); }
+
+        lines.add("@org bench/f" + fileIdx + "/b" + blockIdx);
+
+        int sentences = 1 + random.nextInt(4);
+        for (int s = 0; s < sentences; s++) {
+            lines.add(sentence() + " See [" + word() + "](" + link() + ")" +
+                " and *" + word() + "* `" + word() + "()`."); }
+
+        if (random.nextInt(3) == 0) {
+            lines.add("");
+            lines.add("* " + sentence());
+            lines.add("* " + sentence()); }
+
+        return lines; }
+
+    private String link() {
+        return "jlp://bench/f" + random.nextInt(fileCount) + "/b" +
+            random.nextInt(blocksPerFile); }
+
+    private String sentence() {
+        StringBuilder sb = new StringBuilder(word());
+        int words = 4 + random.nextInt(10);
+        for (int w = 0; w < words; w++) { sb.append(' ').append(word()); }
+        return sb.toString(); }
+
+    private String word() { return WORDS[random.nextInt(WORDS.length)]; }
+}
@@ -0,0 +1,91 @@
+/**
+ * # GeneratorBenchmark
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the emit phase of the [`LiterateMarkdownGenerator`]: emitting a
+ * whole document, and rendering one block of Markdown with
+ * `processMarkdown` (which includes resolving its `jlp://` links).
+ *
+ * With `cached=false` the generator's [`MarkdownRenderer`] does not cache
+ * its output, so every block is rendered by PegDown every time.
+ *
+ * [`LiterateMarkdownGenerator`]: jlp://jlp.jdb-labs.com/LiterateMarkdownGenerator
+ * [`MarkdownRenderer`]: jlp://jlp.jdb-labs.com/MarkdownRenderer
+ * @org jlp.jdb-labs.com/bench/GeneratorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    @Param({ "100" })
+    public int blocks;
+
+    @Param({ "true", "false" })
+    public boolean cached;
+
+    private File corpusDir;
+    private Processor processor;
+    private LiterateMarkdownGenerator generator;
+    private TargetDoc doc;
+    private String markdown;
+
+    /// Set up a processor that has parsed a small corpus, so that the links
+    /// in the document being emitted resolve.
+    @Setup
+    public void setup() throws IOException {
+        corpusDir = Files.createTempDirectory("jlp-bench").toFile();
+        List<File> files = new CorpusGenerator(1L).writeCorpus(
+            new File(corpusDir, "src"), 16, blocks);
+
+        processor = BenchmarkSupport.parsedProcessor(corpusDir, files);
+        doc = processor.docs.get("File0.java");
+        generator = (LiterateMarkdownGenerator)
+            processor.getGenerator(doc.sourceType);
+        if (!cached) { generator.markdownRenderer = new MarkdownRenderer(1, 0); }
+
+        markdown = new CorpusGenerator(2L).markdown(0, 1); }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteDir(corpusDir); }
+
+    @Benchmark
+    public void emit(Blackhole bh) {
+        bh.consume(generator.emit(doc)); }
+
+    @Benchmark
+    public String processMarkdown() {
+        generator.currentDoc = doc;
+        try { return generator.processMarkdown(markdown); }
+        finally { generator.currentDoc = null; } }
+
+    /// Emit into a writer that discards its output, to measure the emit
+    /// phase without the cost of building the result.
+    @Benchmark
+    public void emitStreaming() {
+        generator.emit(doc, NULL_WRITER); }
+
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] cbuf, int off, int len) {}
+        public void write(String str, int off, int len) {}
+        public Writer append(CharSequence csq) { return this; }
+        public void flush() {}
+        public void close() {} };
+}
@@ -0,0 +1,73 @@
+/**
+ * # LinkBenchmark
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks link resolution: [`Processor.resolveLink`] for each kind of
+ * link, and [`Processor.getRelativeFilepath`].
+ *
+ * [`Processor.resolveLink`]: jlp://jlp.jdb-labs.com/Processor/resolveLink
+ * [`Processor.getRelativeFilepath`]: jlp://jlp.jdb-labs.com/Processor/getRelativeFilepath
+ * @org jlp.jdb-labs.com/bench/LinkBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkBenchmark {
+
+    private File corpusDir;
+    private Processor processor;
+    private TargetDoc fromDoc;
+    private TargetDoc toDoc;
+
+    @Setup
+    public void setup() throws IOException {
+        corpusDir = Files.createTempDirectory("jlp-bench").toFile();
+        List<File> files = new CorpusGenerator(1L).writeCorpus(
+            new File(corpusDir, "src"), 32, 4);
+
+        processor = BenchmarkSupport.parsedProcessor(corpusDir, files);
+        fromDoc = processor.docs.get("File0.java");
+        toDoc = processor.docs.get("File9.groovy"); }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteDir(corpusDir); }
+
+    /// A link to an anchor in another document.
+    @Benchmark
+    public String resolveJlpLink() {
+        return processor.resolveLink("jlp://bench/f9/b2", fromDoc); }
+
+    /// A link to an anchor in the same document.
+    @Benchmark
+    public String resolveLocalJlpLink() {
+        return processor.resolveLink("jlp://bench/f0/b2", fromDoc); }
+
+    /// An absolute link, resolved against the output root.
+    @Benchmark
+    public String resolveAbsoluteLink() {
+        return processor.resolveLink("/.css/jlp.css", fromDoc); }
+
+    @Benchmark
+    public String resolveExternalLink() {
+        return processor.resolveLink("http://jdb-labs.com/", fromDoc); }
+
+    @Benchmark
+    public String getRelativeFilepath() {
+        return Processor.getRelativeFilepath(
+            fromDoc.sourceFile.getParentFile(), toDoc.sourceFile); }
+}
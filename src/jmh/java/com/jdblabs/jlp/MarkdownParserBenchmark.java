@@ -0,0 +1,44 @@
+/**
+ * # MarkdownParserBenchmark
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import com.jdblabs.jlp.ast.SourceFile;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the [`MarkdownParser`] used for plain Markdown source files.
+ *
+ * [`MarkdownParser`]: jlp://jlp.jdb-labs.com/MarkdownParser
+ * @org jlp.jdb-labs.com/bench/MarkdownParserBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkdownParserBenchmark {
+
+    /// The number of doc blocks' worth of Markdown in the input.
+    @Param({ "200" })
+    public int blocks;
+
+    private JLPParser parser;
+    private String markdown;
+
+    @Setup
+    public void setup() {
+        parser = new MarkdownParser();
+
+        CorpusGenerator generator = new CorpusGenerator(1L);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < blocks; i++) { sb.append(generator.markdown(0, i)); }
+        markdown = sb.toString(); }
+
+    @Benchmark
+    public SourceFile parse() { return parser.parse(markdown); }
+}
@@ -0,0 +1,61 @@
+/**
+ * # ParserBenchmark
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import com.jdblabs.jlp.ast.SourceFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.parboiled.Parboiled;
+
+/**
+ * Benchmarks the JLP grammar implementations for each distinct parser
+ * configuration in [`Processor.getParser`].
+ *
+ * [`Processor.getParser`]: jlp://jlp.jdb-labs.com/Processor/getParser
+ * @org jlp.jdb-labs.com/bench/ParserBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "java", "erlang", "foxpro", "xml", "sql" })
+    public String sourceType;
+
+    @Param({ "peg", "scanner" })
+    public String impl;
+
+    /// The number of blocks in the generated input.
+    @Param({ "200" })
+    public int blocks;
+
+    private JLPParser parser;
+    private String input;
+
+    @Setup
+    public void setup() {
+        List<?> args = Processor.parserArgumentsForSourceType(sourceType);
+        Object[] argArray = args.toArray();
+
+        if (impl.equals("scanner")) {
+            if (argArray.length == 4) {
+                parser = new JLPScanner((String) argArray[0],
+                    (String) argArray[1], (String) argArray[2],
+                    (String) argArray[3]); }
+            else if (argArray[0] instanceof List) {
+                parser = new JLPScanner((List<String>) argArray[0]); }
+            else { parser = new JLPScanner((String) argArray[0]); }}
+        else { parser = Parboiled.createParser(JLPPegParser.class, argArray); }
+
+        input = new CorpusGenerator(1L).source(sourceType, 0, blocks); }
+
+    @Benchmark
+    public SourceFile parse() { return parser.parse(input); }
+}
@@ -0,0 +1,63 @@
+/**
+ * # ProcessBenchmark
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * An end-to-end benchmark of [`Processor.process`] over a generated corpus.
+ * The corpus size can be set with JMH's `-p` option, for example
+ * `-p files=5000`.
+ *
+ * [`Processor.process`]: jlp://jlp.jdb-labs.com/Processor/process
+ * @org jlp.jdb-labs.com/bench/ProcessBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcessBenchmark {
+
+    @Param({ "200" })
+    public int files;
+
+    @Param({ "20" })
+    public int blocksPerFile;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private File corpusDir;
+    private List<File> inputFiles;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpusDir = Files.createTempDirectory("jlp-bench").toFile();
+        inputFiles = new CorpusGenerator(1L).writeCorpus(
+            new File(corpusDir, "src"), files, blocksPerFile); }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteDir(corpusDir); }
+
+    @Benchmark
+    public void process() {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("includeSource", true);
+        options.put("threads", threads);
+
+        Processor.process(options, new File(corpusDir, "out"),
+            BenchmarkSupport.defaultCss(), inputFiles); }
+}
@@ -0,0 +1,88 @@
+/**
+ * # AnchorTable
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
+/**
+ * An AnchorTable holds the link anchors defined by the documents of one
+ * shard of a sharded build. See
+ * [`Processor.shardCount`](jlp://jlp.jdb-labs.com/Processor/sharding).
+ *
+ * A sharded build runs in two stages. In the first each shard parses its own
+ * documents and exports the anchors they define to an anchor table. In the
+ * second each shard parses its own documents again, imports the anchor
+ * tables of all of the shards, and emits its documents. The `jlp://` links
+ * to documents in other shards are resolved using the imported anchors, so
+ * no shard ever has to parse another shard's documents.
+ *
+ * The table is stored as JSON. Each anchor is a list rather than a map to
+ * keep the file small:
+ *
+ *     [id, type, sourceDocId, page, sourcePath]
+ *
+ * where `sourcePath` is the path of the document relative to the input
+ * root, which is also the path of its output relative to the output root.
+ *
+ * @org jlp.jdb-labs.com/AnchorTable
+ */
+public class AnchorTable {
+
+    /// The format of the anchor table file. Increment this when the structure
+    /// changes.
+    public static final int FORMAT = 2
+
+    public int format = FORMAT
+    public String jlpVersion = JLPMain.VERSION
+
+    /// A hash of the paths of all of the input files, relative to the input
+    /// root. Document ids and paths are only meaningful to a build of the
+    /// same inputs. The absolute path of the input root is not compared, as
+    /// the shards of a build may each check the tree out somewhere else.
+    public String inputs
+
+    /// The shard that exported the table (counting from 0), and the number
+    /// of shards in the build.
+    public int shardIndex
+    public int shardCount
+
+    /// The anchors, each as `[id, type, sourceDocId, page, sourcePath]`.
+    public List<List> anchors = []
+
+    /**
+     * #### load
+     * @api Load an anchor table from the given file.
+     */
+    public static AnchorTable load(File file) {
+        def data = new JsonSlurper().parse(file, "UTF-8")
+
+        if (data.format != FORMAT) {
+            throw new IllegalArgumentException("'${file}' is not an anchor " +
+                "table this version of JLP can read.") }
+
+        return new AnchorTable(
+            format: data.format,
+            jlpVersion: data.jlpVersion,
+            inputs: data.inputs,
+            shardIndex: data.shardIndex,
+            shardCount: data.shardCount,
+            anchors: data.anchors) }
+
+    /**
+     * #### save
+     * @api Write this anchor table to the given file.
+     */
+    public void save(File file) {
+        if (file.parentFile) { file.parentFile.mkdirs() }
+        file.setText(JsonOutput.toJson([
+            format: format,
+            jlpVersion: jlpVersion,
+            inputs: inputs,
+            shardIndex: shardIndex,
+            shardCount: shardCount,
+            anchors: anchors]), "UTF-8") }
+}
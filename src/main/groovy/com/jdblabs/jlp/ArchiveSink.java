@@ -0,0 +1,387 @@
+/**
+ * # ArchiveSink
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import groovy.lang.Closure;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An ArchiveSink streams the documentation into a single archive file
+ * instead of writing thousands of small files. On network file systems
+ * creating the files can take longer than generating them; an archive is
+ * one large sequential write.
+ *
+ * The format is chosen by the name of the archive:
+ *
+ * `.zip`
+ *   ~ a zip file, with each entry deflated.
+ * `.tar`
+ *   ~ a POSIX (ustar) tar file.
+ * `.tar.gz`, `.tgz`
+ *   ~ a tar file, compressed with gzip.
+ *
+ * Only one thread writes to the archive. The threads of the emit stage
+ * render each file into memory and hand it to the writer thread through a
+ * bounded queue, so that a slow disk holds up the emitting threads rather
+ * than letting the pending files pile up in memory. Copied source files are
+ * read by the writer thread itself, straight into the archive. Nothing is
+ * written anywhere but the archive.
+ *
+ * The archive is written to a temporary file beside it, which is moved into
+ * place once the archive is finished. If the run fails the sink is aborted
+ * instead: the temporary file is deleted, and any archive from a previous
+ * run is left as it was rather than replaced by one with files missing.
+ *
+ * A sink can not tell what a previous run wrote, so `readText` and `exists`
+ * always say there is nothing there. Incremental builds need an output
+ * directory.
+ *
+ * @org jlp.jdb-labs.com/ArchiveSink
+ */
+public class ArchiveSink extends OutputSink {
+
+    /// The number of rendered files that may wait for the writer thread.
+    public static final int QUEUE_SIZE = 64;
+
+    public final File archiveFile;
+
+    /// Where the archive is written until it is finished.
+    private final File tempFile;
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveSink.class);
+
+    /// A file to be written to the archive: either its contents or the
+    /// file to copy them from.
+    private static class Entry {
+        final String path;
+        final byte[] bytes;
+        final File source;
+
+        Entry(String path, byte[] bytes, File source) {
+            this.path = path; this.bytes = bytes; this.source = source; } }
+
+    /// Put on the queue by `close` to stop the writer thread.
+    private static final Entry END = new Entry(null, null, null);
+
+    private final BlockingQueue<Entry> queue =
+        new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+    private final Thread writerThread;
+    private final EntryWriter entryWriter;
+
+    /// The first failure of the writer thread. Once it has failed it only
+    /// drains the queue, and the next call to the sink throws.
+    private volatile Throwable failure;
+    private volatile boolean aborted;
+    private boolean closed;
+
+    /**
+     * #### constructor
+     * @api Create the archive and start the writer thread. Throws an
+     * `IllegalArgumentException` if the format of the archive can not be
+     * told from its name.
+     */
+    public ArchiveSink(File archiveFile) throws IOException {
+        this.archiveFile = archiveFile;
+        String name = archiveFile.getName().toLowerCase();
+
+        if (!name.endsWith(".zip") && !name.endsWith(".tar") &&
+            !name.endsWith(".tar.gz") && !name.endsWith(".tgz")) {
+            throw new IllegalArgumentException("'" + archiveFile + "' is " +
+                "not a .zip, .tar, .tar.gz or .tgz file."); }
+
+        File parent = archiveFile.getAbsoluteFile().getParentFile();
+        if (parent != null) { parent.mkdirs(); }
+
+        tempFile = File.createTempFile(archiveFile.getName(), ".tmp",
+            archiveFile.getAbsoluteFile().getParentFile());
+        OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(tempFile), 1 << 20);
+
+        if (name.endsWith(".zip")) { entryWriter = new ZipEntryWriter(out); }
+        else if (name.endsWith(".tar")) { entryWriter = new TarEntryWriter(out); }
+        else {
+            entryWriter = new TarEntryWriter(
+                new GZIPOutputStream(out, 1 << 16)); }
+
+        writerThread = new Thread(new Runnable() {
+            public void run() { writeEntries(); } }, "jlp-archive-writer");
+        writerThread.setDaemon(true);
+        writerThread.start(); }
+
+    public void write(String path, Closure c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        Writer writer = new OutputStreamWriter(bytes, CHARSET);
+        try {
+            c.call(writer);
+            writer.close(); }
+        catch (IOException ioe) { throw new RuntimeException(ioe); }
+
+        enqueue(new Entry(path, bytes.toByteArray(), null)); }
+
+    public void write(String path, InputStream input) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = input.read(buf)) > 0) { bytes.write(buf, 0, n); }
+            enqueue(new Entry(path, bytes.toByteArray(), null)); }
+        catch (IOException ioe) { throw new RuntimeException(ioe); } }
+
+    public void write(String path, byte[] content) {
+        enqueue(new Entry(path, content, null)); }
+
+    public void copy(String path, File source) {
+        enqueue(new Entry(path, null, source)); }
+
+    /**
+     * #### close
+     * Wait for the writer thread to write out everything queued, finish the
+     * archive and move it into place. Throws if anything could not be
+     * written, in which case the archive is not replaced.
+     */
+    public synchronized void close() {
+        if (closed) { return; }
+        closed = true;
+
+        stopWriter();
+        if (failure != null) { tempFile.delete(); }
+        checkFailure();
+
+        try {
+            Files.move(tempFile.toPath(), archiveFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE); }
+        catch (IOException ioe) {
+            tempFile.delete();
+            throw new RuntimeException("Unable to write '" + archiveFile +
+                "'.", ioe); } }
+
+    /**
+     * #### abort
+     * Stop the writer thread without finishing the archive, and delete it.
+     * Whatever was queued is dropped.
+     */
+    public synchronized void abort() {
+        if (closed) { return; }
+        closed = true;
+        aborted = true;
+
+        /// The writer thread drains the queue without writing, so there is
+        /// room for the end marker.
+        try { stopWriter(); }
+        finally {
+            if (!tempFile.delete() && tempFile.exists()) {
+                log.warn("Unable to delete '{}'.", tempFile); } } }
+
+    /// Queue the end marker and wait for the writer thread to stop.
+    private void stopWriter() {
+        try {
+            queue.put(END);
+            writerThread.join(); }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while finishing '" +
+                archiveFile + "'.", ie); } }
+
+    /// Queue an entry for the writer thread, waiting while the queue is full.
+    private void enqueue(Entry entry) {
+        try {
+            while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure(); } }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie); }
+
+        checkFailure(); }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Unable to write '" + archiveFile +
+                "'.", failure); } }
+
+    /// The writer thread. Files are written in the order they are queued.
+    /// A path is only written once: the first file queued for it wins.
+    private void writeEntries() {
+        Set<String> written = new HashSet<String>();
+        try {
+            Entry entry;
+            while ((entry = queue.take()) != END) {
+                if (failure != null || aborted) { continue; }
+                if (!written.add(entry.path)) {
+                    log.warn("'{}' was written more than once. Only the " +
+                        "first is in the archive.", entry.path);
+                    continue; }
+
+                try {
+                    byte[] bytes = entry.bytes != null ? entry.bytes :
+                        Files.readAllBytes(entry.source.toPath());
+                    entryWriter.write(entry.path, bytes); }
+                catch (Throwable t) { failure = t; } }
+
+            if (failure == null && !aborted) { entryWriter.finish(); } }
+        catch (Throwable t) { if (failure == null) { failure = t; } }
+        finally {
+            try { entryWriter.close(); }
+            catch (IOException ioe) { if (failure == null) { failure = ioe; } } } }
+
+    /**
+     * ### EntryWriter
+     * Writes the entries of one archive format.
+     * @org jlp.jdb-labs.com/ArchiveSink/EntryWriter
+     */
+    private static abstract class EntryWriter {
+        abstract void write(String path, byte[] bytes) throws IOException;
+        abstract void finish() throws IOException;
+        abstract void close() throws IOException; }
+
+    private static class ZipEntryWriter extends EntryWriter {
+        private final ZipOutputStream out;
+
+        ZipEntryWriter(OutputStream out) {
+            this.out = new ZipOutputStream(out, StandardCharsets.UTF_8); }
+
+        void write(String path, byte[] bytes) throws IOException {
+            out.putNextEntry(new ZipEntry(path));
+            out.write(bytes);
+            out.closeEntry(); }
+
+        void finish() throws IOException { out.finish(); }
+        void close() throws IOException { out.close(); } }
+
+    /**
+     * ### TarEntryWriter
+     * Writes a POSIX (ustar) tar file. A path too long for the ustar header
+     * is given in a PAX extended header instead.
+     * @org jlp.jdb-labs.com/ArchiveSink/TarEntryWriter
+     */
+    private static class TarEntryWriter extends EntryWriter {
+        private static final int BLOCK = 512;
+        private static final int RECORD = 20 * BLOCK;
+
+        private final OutputStream out;
+        private final long mtime = System.currentTimeMillis() / 1000;
+        private long written = 0;
+
+        TarEntryWriter(OutputStream out) { this.out = out; }
+
+        void write(String path, byte[] bytes) throws IOException {
+            byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            byte[] prefix = new byte[0];
+
+            /// A long path is split into a prefix (its directories) and a
+            /// name if it can be, and put in a PAX header if not.
+            if (name.length > 100) {
+                int split = splitPoint(name);
+                if (split < 0) {
+                    writePaxPath(path);
+                    name = tail(name, 100); }
+                else {
+                    prefix = Arrays.copyOfRange(name, 0, split);
+                    name = Arrays.copyOfRange(name, split + 1,
+                        name.length); } }
+
+            writeBlock(header(name, prefix, bytes.length, (byte) '0'));
+            writeData(bytes); }
+
+        void finish() throws IOException {
+            /// Two empty blocks end the archive, which is padded to a whole
+            /// record.
+            writeBlock(new byte[BLOCK]);
+            writeBlock(new byte[BLOCK]);
+            while (written % RECORD != 0) { writeBlock(new byte[BLOCK]); }
+            out.flush(); }
+
+        void close() throws IOException { out.close(); }
+
+        /// Find the `/` that splits the path into a prefix of at most 155
+        /// bytes and a name of at most 100, or -1 if there is none.
+        private static int splitPoint(byte[] path) {
+            for (int i = Math.min(155, path.length - 1); i > 0; i--) {
+                if (path[i] == '/' && path.length - i - 1 <= 100) { return i; } }
+            return -1; }
+
+        private static byte[] tail(byte[] bytes, int length) {
+            return Arrays.copyOfRange(bytes,
+                bytes.length - length, bytes.length); }
+
+        /// A PAX record is `<length> path=<path>\n`, where the length counts
+        /// the whole record, including itself.
+        private void writePaxPath(String path) throws IOException {
+            int rest = (" path=" + path + "\n")
+                .getBytes(StandardCharsets.UTF_8).length;
+            int length = rest + 1;
+            while (length != rest + Integer.toString(length).length()) {
+                length = rest + Integer.toString(length).length(); }
+
+            byte[] record = (length + " path=" + path + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+            writeBlock(header("PaxHeader".getBytes(StandardCharsets.UTF_8),
+                new byte[0], record.length, (byte) 'x'));
+            writeData(record); }
+
+        private byte[] header(byte[] name, byte[] prefix, long size,
+        byte type) {
+            byte[] h = new byte[BLOCK];
+            System.arraycopy(name, 0, h, 0, name.length);
+            octal(h, 100, 8, 0644);
+            octal(h, 108, 8, 0);
+            octal(h, 116, 8, 0);
+            octal(h, 124, 12, size);
+            octal(h, 136, 12, mtime);
+            h[156] = type;
+            byte[] magic = ("ustar" + '\0' + "00").getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(magic, 0, h, 257, magic.length);
+            System.arraycopy(prefix, 0, h, 345, prefix.length);
+
+            /// The checksum is computed with its own field set to spaces.
+            for (int i = 148; i < 156; i++) { h[i] = ' '; }
+            long sum = 0;
+            for (byte b : h) { sum += b & 0xff; }
+            octal(h, 148, 7, sum);
+            return h; }
+
+        /// Write `value` as a zero-padded octal number, ending with a NUL,
+        /// into the `length` bytes at `offset`.
+        private static void octal(byte[] h, int offset, int length, long value) {
+            String s = Long.toOctalString(value);
+            while (s.length() < length - 1) { s = "0" + s; }
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(b, 0, h, offset, length - 1);
+            h[offset + length - 1] = 0; }
+
+        private void writeData(byte[] bytes) throws IOException {
+            out.write(bytes);
+            written += bytes.length;
+            int pad = (int) (BLOCK - written % BLOCK) % BLOCK;
+            out.write(new byte[pad]);
+            written += pad; }
+
+        private void writeBlock(byte[] block) throws IOException {
+            out.write(block);
+            written += block.length; } }
+}
@@ -0,0 +1,142 @@
+/**
+ * # BuildManifest
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * The BuildManifest records what was generated by a processing run so that
+ * the next run can skip the documents that have not changed. It is stored as
+ * JSON in the output directory. For each document we remember:
+ *
+ * * the path to the source file, relative to the input root,
+ * * the source type,
+ * * a hash of the source file's contents,
+ * * the pages the documentation was split over,
+ * * the link anchors defined by the document (and their pages), and
+ * * the `jlp://` links used by the document and what they resolved to.
+ *
+ * The last item is what allows us to tell when a document that has not
+ * itself changed needs to be emitted again: if any of the links it uses now
+ * resolve to a different location the document is out of date.
+ *
+ * @org jlp.jdb-labs.com/BuildManifest
+ */
+public class BuildManifest {
+
+    /// The name of the manifest file in the output directory.
+    public static final String FILENAME = ".jlp-manifest.json"
+
+    /// The format of the manifest file. Increment this when the structure
+    /// changes so that old manifests are ignored rather than misread.
+    public static final int FORMAT = 1
+
+    public int format = FORMAT
+    public String jlpVersion = JLPMain.VERSION
+
+    /// The canonical path of the input root. Output paths and document ids
+    /// are both relative to this.
+    public String inputRoot
+
+    public boolean includeSource
+    public String highlight
+    public int pageLines
+    public boolean precompress
+
+    /// A hash of the page template (see
+    /// [`PageTemplate`](jlp://jlp.jdb-labs.com/PageTemplate)).
+    public String template
+
+    /// A map of document id to the entry for that document. Each entry is
+    /// itself a map with the keys `sourcePath`, `sourceType`, `contentHash`,
+    /// `pages` (the index of the first block of each page), `anchors` (a list
+    /// of `[id: ..., type: ..., page: ...]` maps) and `links` (a map of
+    /// `jlp://` link to resolved href).
+    public Map<String, Map> docs = [:]
+
+    private static Logger log = LoggerFactory.getLogger(BuildManifest)
+
+    /**
+     * #### load
+     * @api Load the manifest from the given output directory. Returns `null`
+     * if there is no manifest or it cannot be read.
+     */
+    public static BuildManifest load(File outputRoot) {
+        File manifestFile = new File(outputRoot, FILENAME)
+        if (!manifestFile.exists()) { return null }
+
+        try {
+            def data = new JsonSlurper().parse(manifestFile, "UTF-8")
+            if (data.format != FORMAT) { return null }
+
+            return new BuildManifest(
+                format: data.format,
+                jlpVersion: data.jlpVersion,
+                inputRoot: data.inputRoot,
+                includeSource: data.includeSource,
+                highlight: data.highlight,
+                pageLines: data.pageLines ?: 0,
+                precompress: data.precompress ?: false,
+                template: data.template,
+                docs: data.docs) }
+
+        catch (Exception e) {
+            log.warn("Unable to read the build manifest '{}': {}",
+                manifestFile, e.message)
+            return null } }
+
+    /**
+     * #### save
+     * @api Write this manifest to the given output directory.
+     */
+    public void save(File outputRoot) {
+        File manifestFile = new File(outputRoot, FILENAME)
+        manifestFile.setText(JsonOutput.toJson([
+            format: format,
+            jlpVersion: jlpVersion,
+            inputRoot: inputRoot,
+            includeSource: includeSource,
+            highlight: highlight,
+            pageLines: pageLines,
+            precompress: precompress,
+            template: template,
+            docs: docs]), "UTF-8") }
+
+    /**
+     * #### isCompatible
+     * A previous manifest can only be used if it was written by the same
+     * version of JLP, for the same input root and with the same options.
+     * Otherwise every output may differ and we need a full rebuild.
+     */
+    public boolean isCompatible(BuildManifest other) {
+        return other != null &&
+            other.jlpVersion == jlpVersion &&
+            other.inputRoot == inputRoot &&
+            other.includeSource == includeSource &&
+            other.highlight == highlight &&
+            other.pageLines == pageLines &&
+            other.precompress == precompress &&
+            other.template == template }
+
+    /**
+     * #### hash
+     * Compute the content hash used to detect changed source files.
+     */
+    public static String hash(byte[] content) {
+        MessageDigest md = MessageDigest.getInstance("SHA-1")
+        return md.digest(content).encodeHex().toString() }
+
+    /// This version hashes the remaining contents of the given buffer.
+    public static String hash(ByteBuffer content) {
+        MessageDigest md = MessageDigest.getInstance("SHA-1")
+        md.update(content)
+        return md.digest().encodeHex().toString() }
+}
@@ -0,0 +1,325 @@
+/**
+ * # BuildMetrics
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import groovy.json.JsonOutput
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * BuildMetrics records where a processing run spends its time. It is only
+ * created when profiling is turned on (`--profile` or `--metrics-out`). When
+ * it is off the [`Processor`] and the generators only pay for a `null`
+ * check per document and per Markdown block.
+ *
+ * For each document we record the bytes read, the time spent reading,
+ * parsing, in the generator parse phase, emitting and writing, and the
+ * number of blocks, directives and link anchors it has. The emit time
+ * includes the time spent rendering Markdown, resolving links and
+ * highlighting code, which are also recorded on their own.
+ *
+ * For the run as a whole we record the time spent in each phase of the
+ * [`Processor`] (`assets` is writing the CSS and extracting the syntax
+ * highlighter files) and creating parsers, as well as the garbage
+ * collections during the run and the peak heap usage. For short runs the
+ * time it takes the JVM to get going matters as much as anything, so we
+ * also record how long after the JVM started the run started, and how long
+ * after it the first document was written.
+ *
+ * The report is written as JSON (see `toMap` for its layout), and a summary
+ * table of the slowest documents can be printed.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * @org jlp.jdb-labs.com/BuildMetrics
+ */
+public class BuildMetrics {
+
+    /// The format of the JSON report. Increment this when the structure
+    /// changes.
+    public static final int FORMAT = 1
+
+    /// The number of documents listed as the slowest in the report.
+    public int slowest = 10
+
+    /// The metrics for each document, by document id. Each document is only
+    /// ever worked on by one thread at a time.
+    public Map<String, DocMetrics> docs =
+        new ConcurrentHashMap<String, DocMetrics>()
+
+    /// The time spent in each phase of the run, in nanoseconds, in the order
+    /// the phases ran. Phases are only timed by the thread running the
+    /// processor.
+    public Map<String, Long> phases = [:]
+
+    /// Time spent creating parsers, across all threads.
+    public AtomicLong parserCreationTime = new AtomicLong()
+
+    public long wallTime
+
+    /// The time from the start of the JVM to the start of the run, and to
+    /// the first document being written (or 0 if none was), in
+    /// milliseconds.
+    public long startupTime
+    public AtomicLong firstOutputTime = new AtomicLong()
+
+    public long gcCount
+    public long gcTime
+    public long peakHeap
+
+    protected long startTime
+    protected long startGcCount
+    protected long startGcTime
+
+    /**
+     * #### start
+     * Mark the start of the run. The peak usage of the heap memory pools is
+     * reset so that we only see the peak of this run.
+     */
+    public void start() {
+        startTime = System.nanoTime()
+        startupTime = ManagementFactory.runtimeMXBean.uptime
+        startGcCount = totalGcCount()
+        startGcTime = totalGcTime()
+        heapPools().each { it.resetPeakUsage() } }
+
+    /**
+     * #### finish
+     * Mark the end of the run.
+     */
+    public void finish() {
+        wallTime = System.nanoTime() - startTime
+        gcCount = totalGcCount() - startGcCount
+        gcTime = totalGcTime() - startGcTime
+
+        /// This is the sum of the peaks of each pool, which may not have been
+        /// reached at the same moment. It is an upper bound on the real peak.
+        peakHeap = heapPools().sum { it.peakUsage?.used ?: 0 } ?: 0 }
+
+    /**
+     * #### phase
+     * Run the given closure, adding the time it took to the named phase.
+     */
+    public def phase(String name, Closure c) {
+        long start = System.nanoTime()
+        try { return c() }
+        finally { phases[name] = (phases[name] ?: 0) + System.nanoTime() - start } }
+
+    /// Note that a document has been written. Only the first one counts.
+    public void outputWritten() {
+        if (firstOutputTime.get() == 0) {
+            firstOutputTime.compareAndSet(0,
+                ManagementFactory.runtimeMXBean.uptime) } }
+
+    /// Get (or create) the metrics for a document.
+    public DocMetrics forDoc(TargetDoc doc) {
+        DocMetrics m = docs[doc.sourceDocId]
+        if (m == null) {
+            m = new DocMetrics(id: doc.sourceDocId, sourceType: doc.sourceType)
+            docs[doc.sourceDocId] = m }
+        return m }
+
+    /**
+     * #### getSlowestDocs
+     * The documents that took the longest, slowest first.
+     */
+    public List<DocMetrics> getSlowestDocs() {
+        return docs.values().sort { -it.totalTime }.take(slowest) }
+
+    /**
+     * #### toMap
+     * The report as a map, ready to be written as JSON. All times are in
+     * milliseconds.
+     *
+     *     format, jlpVersion
+     *     totals: wallTime, docs, docsParsed, docsDegraded, bytesRead,
+     *             parserCreationTime,
+     *             startupTime, firstOutputTime, gcCount, gcTime,
+     *             peakHeap (bytes)
+     *     phases: <phase>: time, ...
+     *     docs:   [ id, sourcePath, sourceType, unchanged, duplicateOf,
+     *               degraded, bytesRead, readTime, parseTime, generatorParseTime,
+     *               emitTime, markdownTime, linkTime, highlightTime, writeTime,
+     *               totalTime, blocks, directives, anchors ], ...
+     *     slowest: [ id, ... ]
+     */
+    public Map toMap() {
+        def docList = docs.values().sort { it.id }
+
+        return [
+            format: FORMAT,
+            jlpVersion: JLPMain.VERSION,
+            totals: [
+                wallTime: ms(wallTime),
+                docs: docList.size(),
+                docsParsed: docList.count { !it.unchanged && !it.duplicateOf },
+                docsDegraded: docList.count { it.degraded },
+                bytesRead: docList.sum { it.bytesRead } ?: 0,
+                parserCreationTime: ms(parserCreationTime.get()),
+                startupTime: startupTime,
+                firstOutputTime: firstOutputTime.get(),
+                gcCount: gcCount,
+                gcTime: gcTime,
+                peakHeap: peakHeap ],
+            phases: phases.collectEntries { name, time -> [name, ms(time)] },
+            docs: docList.collect { it.toMap() },
+            slowest: slowestDocs.collect { it.id } ] }
+
+    /**
+     * #### write
+     * @api Write the report as JSON to the given file.
+     */
+    public void write(File file) {
+        if (file.parentFile) { file.parentFile.mkdirs() }
+        file.setText(JsonOutput.prettyPrint(JsonOutput.toJson(toMap())),
+            "UTF-8") }
+
+    /**
+     * #### summary
+     * @api A plain-text summary of the run: the phase times and a table of
+     * the slowest documents.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder()
+
+        sb.append(String.format("Total %.1f ms, %d document(s), %d GC(s) " +
+            "(%d ms), peak heap %d MiB%n", ms(wallTime), docs.size(), gcCount,
+            gcTime, peakHeap.intdiv(1024 * 1024)))
+        sb.append(String.format("Run started %d ms after the JVM, first " +
+            "output after %d ms%n", startupTime, firstOutputTime.get()))
+
+        phases.each { name, time ->
+            sb.append(String.format("  %-12s %10.1f ms%n", name, ms(time))) }
+        sb.append(String.format("  %-12s %10.1f ms%n", "(parsers)",
+            ms(parserCreationTime.get())))
+
+        def degradedDocs = docs.values().findAll { it.degraded }.sort { it.id }
+        if (degradedDocs) {
+            sb.append(String.format("%nTreated as code rather than parsed:%n"))
+            degradedDocs.each { m ->
+                sb.append(String.format("  %s: %s%n", m.id, m.degraded)) } }
+
+        sb.append(String.format("%nSlowest documents (ms):%n"))
+        sb.append(String.format("%10s %10s %8s %8s %8s %8s %8s %8s  %s%n",
+            "total", "bytes", "parse", "gen", "emit", "md", "links", "write",
+            "document"))
+
+        slowestDocs.each { m ->
+            sb.append(String.format(
+                "%10.1f %10d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f  %s%n",
+                ms(m.totalTime), m.bytesRead, ms(m.parseTime),
+                ms(m.generatorParseTime), ms(m.emitTime), ms(m.markdownTime),
+                ms(m.linkTime), ms(m.writeTime), m.id)) }
+
+        return sb.toString() }
+
+    protected static double ms(long nanos) {
+        return Math.round(nanos / 1000.0d) / 1000.0d }
+
+    protected static long totalGcCount() {
+        ManagementFactory.garbageCollectorMXBeans.sum {
+            Math.max(it.collectionCount, 0) } ?: 0 }
+
+    protected static long totalGcTime() {
+        ManagementFactory.garbageCollectorMXBeans.sum {
+            Math.max(it.collectionTime, 0) } ?: 0 }
+
+    protected static List<MemoryPoolMXBean> heapPools() {
+        ManagementFactory.memoryPoolMXBeans.findAll {
+            it.type == MemoryType.HEAP && it.valid } }
+
+    /**
+     * ### DocMetrics
+     * The metrics for one document. Times are in nanoseconds.
+     * @org jlp.jdb-labs.com/BuildMetrics/DocMetrics
+     */
+    public static class DocMetrics {
+        public String id
+        public String sourcePath
+        public String sourceType
+
+        /// Set if the document was unchanged since the last incremental run
+        /// and was not parsed.
+        public boolean unchanged
+
+        /// Why the document was treated as code rather than parsed, if it
+        /// was.
+        public String degraded
+
+        /// Set to the id of the document this one is a copy of, if it was
+        /// not parsed for that reason.
+        public String duplicateOf
+
+        public long bytesRead
+        public long readTime
+        public long parseTime
+        public long generatorParseTime
+
+        /// The emit time includes the Markdown, link and highlighting time
+        /// but not the time spent writing the output.
+        public long emitTime
+        public long markdownTime
+        public long linkTime
+        public long highlightTime
+        public long writeTime
+
+        public int blocks
+        public int directives
+        public int anchors
+
+        public long getTotalTime() {
+            return readTime + parseTime + generatorParseTime + emitTime +
+                writeTime }
+
+        public Map toMap() {
+            return [
+                id: id, sourcePath: sourcePath, sourceType: sourceType,
+                unchanged: unchanged, duplicateOf: duplicateOf,
+                degraded: degraded, bytesRead: bytesRead,
+                readTime: ms(readTime), parseTime: ms(parseTime),
+                generatorParseTime: ms(generatorParseTime),
+                emitTime: ms(emitTime), markdownTime: ms(markdownTime),
+                linkTime: ms(linkTime), highlightTime: ms(highlightTime),
+                writeTime: ms(writeTime),
+                totalTime: ms(totalTime), blocks: blocks,
+                directives: directives, anchors: anchors ] } }
+
+    /**
+     * ### TimedWriter
+     * A writer that keeps track of the time spent writing to the writer it
+     * wraps. The [`Processor`](jlp://jlp.jdb-labs.com/Processor) uses it to
+     * separate the time spent writing a document from the time spent
+     * generating it.
+     * @org jlp.jdb-labs.com/BuildMetrics/TimedWriter
+     */
+    public static class TimedWriter extends Writer {
+        protected final Writer out
+        public long nanos
+
+        public TimedWriter(Writer out) { this.out = out }
+
+        public void write(char[] buf, int off, int len) {
+            long start = System.nanoTime()
+            out.write(buf, off, len)
+            nanos += System.nanoTime() - start }
+
+        public void write(String str, int off, int len) {
+            long start = System.nanoTime()
+            out.write(str, off, len)
+            nanos += System.nanoTime() - start }
+
+        public void flush() {
+            long start = System.nanoTime()
+            out.flush()
+            nanos += System.nanoTime() - start }
+
+        public void close() {
+            long start = System.nanoTime()
+            out.close()
+            nanos += System.nanoTime() - start } }
+}
@@ -0,0 +1,47 @@
+/**
+ * # CallbackSink
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.util.function.BiConsumer
+
+/**
+ * A CallbackSink hands each file of the documentation to a callback, with
+ * its path and its contents, instead of writing it anywhere. See
+ * [`OutputSink`](jlp://jlp.jdb-labs.com/OutputSink) and
+ * [`Processor.build`](jlp://jlp.jdb-labs.com/Processor/build).
+ *
+ * The processor emits documents on all of its worker threads, so the
+ * callback may be called from several threads at once.
+ *
+ * @org jlp.jdb-labs.com/CallbackSink
+ */
+public class CallbackSink extends OutputSink {
+
+    public final BiConsumer<String, byte[]> callback
+
+    public CallbackSink(BiConsumer<String, byte[]> callback) {
+        this.callback = callback }
+
+    public void write(String path, Closure c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192)
+        new OutputStreamWriter(bytes, CHARSET).withWriter(c)
+        callback.accept(path, bytes.toByteArray()) }
+
+    /// The input must be left open, so we read it ourselves rather than
+    /// with `getBytes`, which closes it.
+    public void write(String path, InputStream input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192)
+        byte[] buf = new byte[8192]
+        int n
+        while ((n = input.read(buf)) > 0) { bytes.write(buf, 0, n) }
+        callback.accept(path, bytes.toByteArray()) }
+
+    public void write(String path, byte[] content) {
+        callback.accept(path, content) }
+
+    public void copy(String path, File source) {
+        callback.accept(path, source.bytes) }
+}
@@ -0,0 +1,640 @@
+/**
+ * # CodeHighlighter
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CodeHighlighter highlights code when the documentation is generated, so
+ * that the pages do not need to run [SyntaxHighlighter] when they are
+ * viewed. It writes the same markup SyntaxHighlighter creates in the
+ * browser (in "light" mode, with no gutter or toolbar), so the pages look
+ * the same and use the same `.sh` stylesheets.
+ *
+ * There is one highlighter for each source type that has a SyntaxHighlighter
+ * brush (see [`Processor.shBrushForSourceType`]). Each one follows the rules
+ * of its brush: which comments, strings, numbers and keywords it recognizes
+ * and the CSS classes it gives them. But where the brushes run a list of
+ * regular expressions over the whole block, each of which may look at every
+ * character more than once, the highlighter makes a single pass over the
+ * code. Its cost is linear in the size of the code.
+ *
+ * Highlighters hold no state between calls and are safe to share between
+ * threads.
+ *
+ * [SyntaxHighlighter]: http://alexgorbatchev.com/SyntaxHighlighter/
+ * [`Processor.shBrushForSourceType`]: jlp://jlp.jdb-labs.com/Processor/shBrushForSourceType
+ * @org jlp.jdb-labs.com/CodeHighlighter
+ */
+public class CodeHighlighter {
+
+    /// The number of spaces a tab is replaced with (SyntaxHighlighter's
+    /// default `tab-size`).
+    public static final int TAB_SIZE = 4;
+
+    private static final Map<String, CodeHighlighter> highlighters =
+        new ConcurrentHashMap<String, CodeHighlighter>();
+
+    /// The brush name, used as the first CSS class of every token. This is
+    /// the source type, as that is what we give SyntaxHighlighter.
+    protected final String brush;
+
+    /// What this language has. These are set by `forSourceType`.
+    protected String[] lineComments = {};
+    protected String blockStart;
+    protected String blockEnd;
+    protected boolean docComments;
+    protected boolean multiLineStrings;
+    protected boolean tripleQuotedStrings;
+    protected boolean numbers;
+    protected boolean annotations;
+    protected boolean hashPreprocessor;
+    protected boolean erlang;
+    protected boolean xml;
+    protected boolean ignoreCase;
+
+    /// The CSS class for each keyword.
+    protected final Map<String, String> keywords = new HashMap<String, String>();
+
+    protected CodeHighlighter(String brush) { this.brush = brush; }
+
+    /**
+     * #### forSourceType
+     * @api Get the highlighter for the given source type, or `null` if there
+     * is no SyntaxHighlighter brush for it.
+     */
+    public static CodeHighlighter forSourceType(String sourceType) {
+        if (sourceType == null) { return null; }
+
+        CodeHighlighter h = highlighters.get(sourceType);
+        if (h == null && Processor.shBrushForSourceType(sourceType) != null) {
+            h = create(sourceType);
+            highlighters.put(sourceType, h); }
+
+        return h; }
+
+    /// The rules for each language are taken from its brush in
+    /// `/syntax-highlighter.jar`.
+    protected static CodeHighlighter create(String sourceType) {
+        CodeHighlighter h = new CodeHighlighter(sourceType);
+
+        switch (sourceType) {
+            case "java":
+                h.cLike();
+                h.docComments = true;
+                h.numbers = true;
+                h.annotations = true;
+                h.keywords("keyword", "abstract assert boolean break byte case " +
+                    "catch char class const continue default do double else " +
+                    "enum extends false final finally float for goto if " +
+                    "implements import instanceof int interface long native " +
+                    "new null package private protected public return short " +
+                    "static strictfp super switch synchronized this throw " +
+                    "throws true transient try void volatile while");
+                break;
+
+            case "groovy":
+                h.cLike();
+                h.tripleQuotedStrings = true;
+                h.numbers = true;
+                h.keywords("keyword", "as assert break case catch class " +
+                    "continue def default do else extends finally if in " +
+                    "implements import instanceof interface new package " +
+                    "property return switch throw throws try while public " +
+                    "protected private static");
+                h.keywords("color1", "void boolean byte char short int long " +
+                    "float double");
+                h.keywords("constants", "null");
+                h.keywords("functions", "allProperties count get size collect " +
+                    "each eachProperty eachPropertyName eachWithIndex find " +
+                    "findAll findIndexOf grep inject max min reverseEach sort " +
+                    "asImmutable asSynchronized flatten intersect join pop " +
+                    "reverse subMap toList padRight padLeft contains " +
+                    "eachMatch toCharacter toLong toUrl tokenize eachFile " +
+                    "eachFileRecurse eachB yte eachLine readBytes readLine " +
+                    "getText splitEachLine withReader append encodeBase64 " +
+                    "decodeBase64 filterLine transformChar transformLine " +
+                    "withOutputStream withPrintWriter withStream withStreams " +
+                    "withWriter withWriterAppend write writeLine dump inspect " +
+                    "invokeMethod print println step times upto use " +
+                    "waitForOrKill");
+                break;
+
+            case "c": case "cpp":
+                h.cLike();
+                h.hashPreprocessor = true;
+                h.keywords("color1 bold", "ATOM BOOL BOOLEAN BYTE CHAR " +
+                    "COLORREF DWORD DWORDLONG DWORD_PTR DWORD32 DWORD64 FLOAT " +
+                    "HANDLE HRESULT INT INT_PTR INT32 INT64 LONG LONGLONG " +
+                    "LONG_PTR LONG32 LONG64 LPARAM LPBOOL LPBYTE LPCSTR " +
+                    "LPCTSTR LPCVOID LPCWSTR LPDWORD LPHANDLE LPINT LPLONG " +
+                    "LPSTR LPTSTR LPVOID LPWORD LPWSTR LRESULT PVOID SHORT " +
+                    "SIZE_T SSIZE_T TCHAR UCHAR UINT UINT_PTR UINT32 UINT64 " +
+                    "ULONG ULONGLONG ULONG_PTR ULONG32 ULONG64 USHORT VOID " +
+                    "WCHAR WORD WPARAM char bool short int __int32 __int64 " +
+                    "__int8 __int16 long float double __wchar_t clock_t " +
+                    "_complex div_t ldiv_t FILE fpos_t intptr_t jmp_buf " +
+                    "mbstate_t ptrdiff_t sig_atomic_t size_t time_t tm " +
+                    "uintptr_t va_list wchar_t wctrans_t wctype_t wint_t " +
+                    "signed");
+                h.keywords("functions bold", "assert isalnum isalpha iscntrl " +
+                    "isdigit isgraph islower isprint ispunct isspace isupper " +
+                    "isxdigit tolower toupper errno localeconv setlocale acos " +
+                    "asin atan atan2 ceil cos cosh exp fabs floor fmod frexp " +
+                    "ldexp log log10 modf pow sin sinh sqrt tan tanh longjmp " +
+                    "setjmp raise signal va_arg va_end va_start clearerr " +
+                    "fclose feof ferror fflush fgetc fgetpos fgets fopen " +
+                    "fprintf fputc fputs fread freopen fscanf fseek fsetpos " +
+                    "ftell fwrite getc getchar gets perror printf putc " +
+                    "putchar puts remove rename rewind scanf setbuf setvbuf " +
+                    "sprintf sscanf tmpfile tmpnam ungetc vfprintf vprintf " +
+                    "vsprintf abort abs atexit atof atoi atol bsearch calloc " +
+                    "div exit free getenv labs ldiv malloc mblen mbstowcs " +
+                    "mbtowc qsort rand realloc srand strtod strtol strtoul " +
+                    "system wcstombs wctomb memchr memcmp memcpy memmove " +
+                    "memset strcat strchr strcmp strcoll strcpy strcspn " +
+                    "strerror strlen strncat strncmp strncpy strpbrk strrchr " +
+                    "strspn strstr strtok strxfrm asctime clock ctime " +
+                    "difftime gmtime localtime mktime strftime time");
+                h.keywords("keyword bold", "break case catch class const " +
+                    "__finally __exception __try const_cast continue private " +
+                    "public protected __declspec default delete deprecated " +
+                    "dllexport dllimport do dynamic_cast else enum explicit " +
+                    "extern if for friend goto inline mutable naked namespace " +
+                    "new noinline noreturn nothrow register reinterpret_cast " +
+                    "return selectany sizeof static static_cast struct switch " +
+                    "template this thread throw true false try typedef typeid " +
+                    "typename union using uuid virtual void volatile whcar_t " +
+                    "while");
+                break;
+
+            case "javascript":
+                h.cLike();
+                h.multiLineStrings = true;
+                h.hashPreprocessor = true;
+                h.keywords("keyword", "break case catch continue default " +
+                    "delete do else false for function if in instanceof new " +
+                    "null return super switch this throw true try typeof var " +
+                    "while with");
+                break;
+
+            case "erlang":
+                h.lineComments = new String[] { "%" };
+                h.erlang = true;
+                h.keywords("keyword", "after and andalso band begin bnot bor " +
+                    "bsl bsr bxor case catch cond div end fun if let not of " +
+                    "or orelse query receive rem try when xor module export " +
+                    "import define");
+                break;
+
+            case "sql":
+                h.lineComments = new String[] { "--" };
+                h.multiLineStrings = true;
+                h.ignoreCase = true;
+                h.keywords("color2", "abs avg case cast coalesce convert count " +
+                    "current_timestamp current_user day isnull left lower " +
+                    "month nullif replace right session_user space substring " +
+                    "sum system_user upper user year");
+                h.keywords("color1", "all and any between cross in join like " +
+                    "not null or outer some");
+                h.keywords("keyword", "absolute action add after alter as asc " +
+                    "at authorization begin bigint binary bit by cascade char " +
+                    "character check checkpoint close collate column commit " +
+                    "committed connect connection constraint contains " +
+                    "continue create cube current current_date current_time " +
+                    "cursor database date deallocate dec decimal declare " +
+                    "default delete desc distinct double drop dynamic else " +
+                    "end escape except exec execute false fetch first float " +
+                    "for force foreign forward free from full function global " +
+                    "goto grant group grouping having hour ignore index inner " +
+                    "insensitive insert instead int integer intersect into is " +
+                    "isolation key last level load local max min minute " +
+                    "modify move name national nchar next no numeric of off " +
+                    "on only open option order out output partial password " +
+                    "precision prepare primary prior privileges procedure " +
+                    "public read real references relative repeatable restrict " +
+                    "return returns revoke rollback rollup rows rule schema " +
+                    "scroll second section select sequence serializable set " +
+                    "size smallint static statistics table temp temporary " +
+                    "then time timestamp to top transaction translation " +
+                    "trigger true truncate uncommitted union unique update " +
+                    "values varchar varying view when where with work");
+                break;
+
+            case "html": case "xml":
+                h.xml = true;
+                break; }
+
+        return h; }
+
+    private void cLike() {
+        lineComments = new String[] { "//" };
+        blockStart = "/*";
+        blockEnd = "*/"; }
+
+    /// Add keywords, given as a space-separated list, with their CSS class.
+    /// Keywords listed earlier win.
+    private void keywords(String css, String words) {
+        for (String word : words.split(" ")) {
+            if (ignoreCase) { word = word.toLowerCase(Locale.ROOT); }
+            if (!keywords.containsKey(word)) { keywords.put(word, css); } } }
+
+    /**
+     * #### highlight
+     * @api Write the highlighted HTML for the given code to `out`.
+     */
+    public void highlight(CharSequence source, Appendable out)
+    throws IOException {
+        String code = prepare(source);
+
+        out.append("<div class=\"syntaxhighlighter nogutter  ").append(brush)
+            .append("\"><table border=\"0\" cellpadding=\"0\" cellspacing=\"0\">")
+            .append("<tbody><tr><td class=\"code\"><div class=\"container\">");
+
+        Lines lines = new Lines(code, out);
+        if (xml) { scanXml(code, lines); }
+        else { scan(code, lines); }
+        lines.finish();
+
+        out.append("</div></td></tr></tbody></table></div>"); }
+
+    /**
+     * #### prepare
+     * Prepare the code the way SyntaxHighlighter does: blank lines at the
+     * start and end are removed, carriage returns become spaces and tabs are
+     * replaced with spaces.
+     */
+    protected static String prepare(CharSequence source) {
+        int start = 0, end = source.length();
+
+        /// Leading spaces followed by one or more newlines.
+        int i = start;
+        while (i < end && source.charAt(i) == ' ') { i++; }
+        if (i < end && source.charAt(i) == '\n') {
+            while (i < end && source.charAt(i) == '\n') { i++; }
+            start = i; }
+
+        /// Trailing newlines followed by spaces.
+        while (end > start && source.charAt(end - 1) == ' ') { end--; }
+        while (end > start && source.charAt(end - 1) == '\n') { end--; }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        for (i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '\r') { sb.append(' '); }
+            else if (c == '\t') {
+                for (int t = 0; t < TAB_SIZE; t++) { sb.append(' '); } }
+            else { sb.append(c); } }
+
+        return sb.toString(); }
+
+    /**
+     * #### scan
+     * The single pass over the code for everything but XML. At each position
+     * we look for the start of a token. Text that is not part of a token is
+     * written as `plain`.
+     */
+    protected void scan(String code, Lines lines) throws IOException {
+        int n = code.length();
+        int i = 0, plain = 0;
+
+        while (i < n) {
+            char c = code.charAt(i);
+            int end = -1;
+            String css = null;
+
+            if (blockStart != null && code.startsWith(blockStart, i)) {
+                int close = code.indexOf(blockEnd, i + blockStart.length());
+                end = close < 0 ? n : close + blockEnd.length();
+                css = docComments && code.startsWith("/**", i) &&
+                    !code.startsWith("/**/", i) ? "preprocessor" : "comments"; }
+
+            else if (isLineComment(code, i)) {
+                end = endOfLine(code, i);
+                css = "comments"; }
+
+            else if (tripleQuotedStrings && (code.startsWith("\"\"\"", i) ||
+                     code.startsWith("'''", i))) {
+                int close = code.indexOf(code.substring(i, i + 3), i + 3);
+                end = close < 0 ? n : close + 3;
+                css = "string"; }
+
+            else if (c == '"' || c == '\'') {
+                end = endOfString(code, i, c);
+                if (end > 0) { css = "string"; } }
+
+            else if (hashPreprocessor && c == '#' && atLineStart(code, i)) {
+                end = endOfLine(code, i);
+                css = "preprocessor"; }
+
+            else if (annotations && c == '@' && i + 1 < n &&
+                     isWordStart(code.charAt(i + 1))) {
+                end = endOfWord(code, i + 1);
+                css = code.regionMatches(i + 1, "interface", 0, 9) &&
+                    end - i == 10 ? "color2" : "color1"; }
+
+            else if (erlang && c == '?' && i + 1 < n &&
+                     isWordChar(code.charAt(i + 1))) {
+                end = endOfWord(code, i + 1);
+                css = "preprocessor"; }
+
+            else if (isWordStart(c) && !precededByWord(code, i)) {
+                end = endOfWord(code, i);
+                css = erlang ? erlangWord(code, i, end) :
+                    keywords.get(ignoreCase ?
+                        code.substring(i, end).toLowerCase(Locale.ROOT) :
+                        code.substring(i, end));
+
+                /// Erlang function calls (`module:function`) include the
+                /// rest of the call.
+                if ("functions".equals(css)) {
+                    end = endOfWord(code, end + 1); } }
+
+            else if (numbers && Character.isDigit(c) && !precededByWord(code, i)) {
+                end = endOfNumber(code, i);
+                if (end > 0) { css = "value"; } }
+
+            if (css == null) {
+                /// Skip over the rest of a word that is not a keyword so we
+                /// do not look at each of its characters again.
+                i = end > i ? end : i + 1;
+                continue; }
+
+            lines.add(plain, i, "plain");
+            lines.add(i, end, css);
+            i = plain = end; }
+
+        lines.add(plain, n, "plain"); }
+
+    /**
+     * #### scanXml
+     * The single pass for XML and HTML: comments, CDATA sections and tags.
+     * In a tag the name is a keyword, attribute names are `color1` and their
+     * values `string`.
+     */
+    protected void scanXml(String code, Lines lines) throws IOException {
+        int n = code.length();
+        int i = 0, plain = 0;
+
+        while (i < n) {
+            if (code.charAt(i) != '<') { i++; continue; }
+
+            if (code.startsWith("<!--", i)) {
+                int close = code.indexOf("-->", i + 4);
+                int end = close < 0 ? n : close + 3;
+                lines.add(plain, i, "plain");
+                lines.add(i, end, "comments");
+                i = plain = end;
+                continue; }
+
+            if (code.startsWith("<![", i)) {
+                int close = code.indexOf("]]>", i + 3);
+                int end = close < 0 ? n : close + 3;
+                lines.add(plain, i, "plain");
+                lines.add(i, end, "color2");
+                i = plain = end;
+                continue; }
+
+            /// A tag: `<`, then any of ` /?`, then the name.
+            int j = i + 1;
+            while (j < n && " /?".indexOf(code.charAt(j)) >= 0) { j++; }
+            int nameEnd = j;
+            while (nameEnd < n && isXmlNameChar(code.charAt(nameEnd))) { nameEnd++; }
+            int close = code.indexOf('>', nameEnd);
+            if (nameEnd == j || close < 0) { i++; continue; }
+
+            lines.add(plain, j, "plain");
+            lines.add(j, nameEnd, "keyword");
+            plain = nameEnd;
+
+            /// Attributes: `name = value`, up to the end of the tag.
+            int k = nameEnd;
+            while (k < close) {
+                if (!isXmlNameChar(code.charAt(k))) { k++; continue; }
+
+                int attrEnd = k;
+                while (attrEnd < close && isXmlNameChar(code.charAt(attrEnd))) {
+                    attrEnd++; }
+
+                int eq = attrEnd;
+                while (eq < close && code.charAt(eq) == ' ') { eq++; }
+                if (eq >= close || code.charAt(eq) != '=') { k = attrEnd; continue; }
+
+                int v = eq + 1;
+                while (v < close && code.charAt(v) == ' ') { v++; }
+
+                int valueEnd = -1;
+                if (v < close && (code.charAt(v) == '"' || code.charAt(v) == '\'')) {
+                    int q = code.indexOf(code.charAt(v), v + 1);
+                    if (q > 0) {
+                        valueEnd = q + 1;
+                        /// A quoted value may contain a `>`.
+                        if (q >= close) { close = code.indexOf('>', valueEnd);
+                            if (close < 0) { close = n; } } } }
+                else if (v < close && isWordChar(code.charAt(v))) {
+                    valueEnd = endOfWord(code, v); }
+
+                if (valueEnd < 0) { k = attrEnd; continue; }
+
+                lines.add(plain, k, "plain");
+                lines.add(k, attrEnd, "color1");
+                lines.add(attrEnd, v, "plain");
+                lines.add(v, valueEnd, "string");
+                k = plain = valueEnd; }
+
+            i = Math.min(close + 1, n); }
+
+        lines.add(plain, n, "plain"); }
+
+    /// In Erlang, words starting with a capital are constants (variables,
+    /// really), and `module:function` is a function call.
+    private String erlangWord(String code, int start, int end) {
+        if (end < code.length() - 1 && code.charAt(end) == ':' &&
+            isLowerWordChar(code.charAt(end + 1)) &&
+            isLowerWord(code, start, end)) { return "functions"; }
+
+        if (Character.isUpperCase(code.charAt(start)) && end - start > 1) {
+            return "constants"; }
+
+        return keywords.get(code.substring(start, end)); }
+
+    private boolean isLineComment(String code, int i) {
+        for (String lc : lineComments) {
+            if (code.startsWith(lc, i)) {
+                /// SyntaxHighlighter requires at least one character after
+                /// an Erlang `%`.
+                return !erlang || (i + 1 < code.length() &&
+                    code.charAt(i + 1) != '\n'); } }
+        return false; }
+
+    private int endOfString(String code, int start, char quote) {
+        int n = code.length();
+        for (int i = start + 1; i < n; i++) {
+            char c = code.charAt(i);
+            if (c == '\\') { i++; continue; }
+            if (c == quote) { return i + 1; }
+            if (c == '\n' && !multiLineStrings) { break; } }
+
+        /// Not terminated: just the quote itself is plain text.
+        return -1; }
+
+    private int endOfNumber(String code, int start) {
+        int n = code.length();
+        int i = start;
+
+        if (code.charAt(i) == '0' && i + 1 < n &&
+            (code.charAt(i + 1) == 'x' || code.charAt(i + 1) == 'X')) {
+            i += 2;
+            while (i < n && Character.digit(code.charAt(i), 16) >= 0) { i++; } }
+
+        else {
+            while (i < n && Character.isDigit(code.charAt(i))) { i++; }
+            if (i + 1 < n && code.charAt(i) == '.' &&
+                Character.isDigit(code.charAt(i + 1))) {
+                i++;
+                while (i < n && Character.isDigit(code.charAt(i))) { i++; } } }
+
+        /// Numbers must end at a word boundary.
+        return i < n && isWordChar(code.charAt(i)) ? -1 : i; }
+
+    private static int endOfLine(String code, int i) {
+        int nl = code.indexOf('\n', i);
+        return nl < 0 ? code.length() : nl; }
+
+    private static int endOfWord(String code, int i) {
+        while (i < code.length() && isWordChar(code.charAt(i))) { i++; }
+        return i; }
+
+    private static boolean atLineStart(String code, int i) {
+        for (int j = i - 1; j >= 0; j--) {
+            char c = code.charAt(j);
+            if (c == '\n') { return true; }
+            if (c != ' ') { return false; } }
+        return true; }
+
+    private static boolean precededByWord(String code, int i) {
+        return i > 0 && isWordChar(code.charAt(i - 1)); }
+
+    private static boolean isWordStart(char c) {
+        return Character.isLetter(c) || c == '_'; }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_'; }
+
+    private static boolean isLowerWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_'; }
+
+    private static boolean isLowerWord(String code, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isLowerWordChar(code.charAt(i))) { return false; } }
+        return true; }
+
+    private static boolean isXmlNameChar(char c) {
+        return isWordChar(c) || c == ':' || c == '-' || c == '.'; }
+
+    /**
+     * ### Lines
+     * Writes tokens out as SyntaxHighlighter lines. Each line is a `div`,
+     * and each piece of a token on the line a `code` element with the
+     * brush and the token's CSS class. Leading spaces are written separately
+     * and trailing spaces are dropped.
+     * @org jlp.jdb-labs.com/CodeHighlighter/Lines
+     */
+    protected class Lines {
+        private final String code;
+        private final Appendable out;
+
+        private int index = 0;
+        private boolean empty = true;
+        private int indent = 0;
+        private int pendingSpaces = 0;
+
+        protected Lines(String code, Appendable out) {
+            this.code = code;
+            this.out = out; }
+
+        /// Add the text between `start` and `end` as a token with the given
+        /// CSS class.
+        public void add(int start, int end, String css) throws IOException {
+            int i = start;
+            while (i < end) {
+                int nl = code.indexOf('\n', i);
+                int segmentEnd = nl < 0 || nl >= end ? end : nl;
+                segment(i, segmentEnd, css);
+                if (segmentEnd == end) { break; }
+                endLine();
+                i = nl + 1; } }
+
+        private void segment(int start, int end, String css) throws IOException {
+            if (empty) {
+                while (start < end && code.charAt(start) == ' ') {
+                    indent++;
+                    start++; } }
+
+            int trimmed = end;
+            while (trimmed > start && code.charAt(trimmed - 1) == ' ') { trimmed--; }
+            if (trimmed == start) {
+                if (!empty) { pendingSpaces += end - start; }
+                return; }
+
+            if (empty) {
+                startLine();
+                empty = false; }
+
+            for (; pendingSpaces > 0; pendingSpaces--) { out.append(' '); }
+
+            out.append("<code class=\"").append(brush).append(' ')
+                .append(css).append("\">");
+            escape(start, trimmed);
+            out.append("</code>");
+
+            pendingSpaces = end - trimmed; }
+
+        private void startLine() throws IOException {
+            int number = index + 1;
+            out.append("<div class=\"line number").append(String.valueOf(number))
+                .append(" index").append(String.valueOf(index))
+                .append(number % 2 == 0 ? " alt1\">" : " alt2\">");
+
+            if (indent > 0) {
+                out.append("<code class=\"").append(brush).append(" spaces\">");
+                for (int i = 0; i < indent; i++) { out.append("&nbsp;"); }
+                out.append("</code>"); } }
+
+        private void endLine() throws IOException {
+            if (empty) {
+                startLine();
+                out.append("&nbsp;"); }
+
+            out.append("</div>");
+            index++;
+            empty = true;
+            indent = 0;
+            pendingSpaces = 0; }
+
+        /// End the last line.
+        public void finish() throws IOException { endLine(); }
+
+        private void escape(int start, int end) throws IOException {
+            int run = start;
+            for (int i = start; i < end; i++) {
+                String entity;
+                switch (code.charAt(i)) {
+                    case '&': entity = "&amp;"; break;
+                    case '<': entity = "&lt;"; break;
+                    case '>': entity = "&gt;"; break;
+                    case '"': entity = "&quot;"; break;
+                    default: continue; }
+
+                out.append(code, run, i).append(entity);
+                run = i + 1; }
+
+            out.append(code, run, end); } }
+}
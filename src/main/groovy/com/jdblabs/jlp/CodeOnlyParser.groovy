@@ -0,0 +1,39 @@
+/**
+ * # CodeOnlyParser
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import com.jdblabs.jlp.ast.*
+
+/**
+ * `CodeOnlyParser` treats the whole input as code, with no documentation.
+ * It is the degraded path the [`Processor`] takes for inputs that are too
+ * large for the JLP grammar to be parsed in reasonable time (a minified
+ * script on one very long line, for example), or whose parse ran over its
+ * time budget. It only looks at the input once, to copy it.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor/parse-budget
+ * @org jlp.jdb-labs.com/CodeOnlyParser
+ */
+public class CodeOnlyParser implements JLPParser {
+
+    public SourceFile parse(CharSequence input) {
+
+        /*** Our AST structure will look like this:
+           *
+           *     SourceFile
+           *       Block
+           *         DocBlock
+           *         CodeBlock
+           *           <file-contents>
+           */
+        def sourceFile = new SourceFile(source: input.toString())
+        def docBlock = new DocBlock(1)
+        def codeBlock = new CodeBlock(1, sourceFile.source, 0)
+
+        codeBlock.end = sourceFile.source.length()
+        sourceFile.blocks << new Block(codeBlock, docBlock, 1)
+
+        return sourceFile }}
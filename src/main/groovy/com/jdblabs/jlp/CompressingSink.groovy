@@ -0,0 +1,99 @@
+/**
+ * # CompressingSink
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+
+/**
+ * A CompressingSink wraps another [`OutputSink`], writing a compressed copy
+ * of each compressible file next to it in the same sink (see
+ * [`Precompressor`]). Each file is written first and its compressed copy
+ * once it has been compressed, which is done on the precompressor's pool.
+ *
+ * Without a precompressor, the sink removes any compressed copies of the
+ * files written instead, so that a copy left by an earlier run never gets
+ * served in place of a newer page.
+ *
+ * [`OutputSink`]: jlp://jlp.jdb-labs.com/OutputSink
+ * [`Precompressor`]: jlp://jlp.jdb-labs.com/Precompressor
+ * @org jlp.jdb-labs.com/CompressingSink
+ */
+public class CompressingSink extends OutputSink {
+
+    public final OutputSink sink
+    public final Precompressor compressor
+
+    public CompressingSink(OutputSink sink, Precompressor compressor) {
+        this.sink = sink
+        this.compressor = compressor }
+
+    /// The file is rendered into memory, so that we have its bytes to
+    /// compress.
+    public void write(String path, Closure c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192)
+        new OutputStreamWriter(bytes, CHARSET).withWriter(c)
+        write(path, bytes.toByteArray()) }
+
+    /// The input must be left open, so we read it ourselves rather than
+    /// with `getBytes`, which closes it.
+    public void write(String path, InputStream input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192)
+        byte[] buf = new byte[8192]
+        int n
+        while ((n = input.read(buf)) > 0) { bytes.write(buf, 0, n) }
+
+        byte[] content = bytes.toByteArray()
+        sink.write(path, new ByteArrayInputStream(content))
+        compress(path, content) }
+
+    public void write(String path, byte[] content) {
+        sink.write(path, content)
+        compress(path, content) }
+
+    /// Sources of a type that is never compressed are copied as they are.
+    public void copy(String path, File source) {
+        if (Precompressor.isCompressibleType(path)) { write(path, source.bytes) }
+        else { sink.copy(path, source) } }
+
+    /// A file is only up to date if it has a compressed copy when it should,
+    /// and none when it should not.
+    public String readText(String path) {
+        String text = sink.readText(path)
+        if (text == null || !Precompressor.isCompressibleType(path)) {
+            return text }
+
+        boolean compressed = compressor &&
+            Precompressor.isCompressible(path,
+                text.getBytes(CHARSET).length)
+        return sink.exists(path + Precompressor.SUFFIX) == compressed ?
+            text : null }
+
+    public boolean exists(String path) { sink.exists(path) }
+
+    public boolean delete(String path) {
+        sink.delete(path + Precompressor.SUFFIX)
+        return sink.delete(path) }
+
+    public void close() {
+        try { compressor?.close() }
+        finally { sink.close() } }
+
+    public void abort() {
+        try { compressor?.close() }
+        finally { sink.abort() } }
+
+    /// A file that is not compressed (because it is too small, now) may
+    /// still have a compressed copy from an earlier run.
+    protected void compress(String path, byte[] content) {
+        if (!Precompressor.isCompressibleType(path)) { return }
+
+        if (!compressor || content.length < Precompressor.MIN_SIZE) {
+            sink.delete(path + Precompressor.SUFFIX)
+            return }
+
+        compressor.submit(content, { byte[] compressed ->
+            sink.write(path + Precompressor.SUFFIX, compressed)
+        } as Precompressor.Output) }
+}
@@ -0,0 +1,65 @@
+/**
+ * # DirectorySink
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+/**
+ * A DirectorySink writes each file of the documentation to its own file
+ * under the output directory, creating directories as they are needed. See
+ * [`OutputSink`](jlp://jlp.jdb-labs.com/OutputSink).
+ *
+ * @org jlp.jdb-labs.com/DirectorySink
+ */
+public class DirectorySink extends OutputSink {
+
+    public final File root
+
+    public DirectorySink(File root) { this.root = root }
+
+    public void write(String path, Closure c) {
+        File file = fileFor(path)
+        if (!file.parentFile.exists()) { file.parentFile.mkdirs() }
+        file.withWriter(CHARSET.name(), c) }
+
+    /// Several processes may be writing to the same output directory (the
+    /// shards of a sharded build, for example), so the file is written to a
+    /// temporary file first and then moved into place.
+    public void write(String path, InputStream input) {
+        File file = fileFor(path)
+        file.parentFile.mkdirs()
+
+        Path temp = Files.createTempFile(
+            file.parentFile.toPath(), file.name, ".tmp")
+        Files.copy(input, temp, StandardCopyOption.REPLACE_EXISTING)
+        Files.move(temp, file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE) }
+
+    public void write(String path, byte[] content) {
+        File file = fileFor(path)
+        if (!file.parentFile.exists()) { file.parentFile.mkdirs() }
+        file.bytes = content }
+
+    public void copy(String path, File source) {
+        File file = fileFor(path)
+        if (!file.parentFile.exists()) { file.parentFile.mkdirs() }
+        Files.copy(source.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING) }
+
+    public String readText(String path) {
+        File file = fileFor(path)
+        return file.exists() ? file.getText(CHARSET.name()) : null }
+
+    public boolean exists(String path) { fileFor(path).exists() }
+
+    public boolean delete(String path) { fileFor(path).delete() }
+
+    /// @api The file for a path in this sink.
+    public File fileFor(String path) { new File(root, path) }
+}
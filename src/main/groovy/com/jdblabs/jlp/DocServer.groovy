@@ -0,0 +1,401 @@
+/**
+ * # DocServer
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.jar.JarEntry
+import java.util.jar.JarInputStream
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4 as escape
+
+/**
+ * The DocServer implements `jlp --serve`. Instead of writing out the
+ * documentation for the whole tree, it serves it over HTTP and only renders
+ * the pages that are asked for.
+ *
+ * When the server starts every input file is parsed once, so that all of
+ * the documents and their link anchors are known, but nothing is emitted
+ * (see [`Processor.parseOnly`]). When a page is requested its source file
+ * is parsed again and emitted, and the pages are kept in a [`PageCache`].
+ *
+ * Cached pages are used for as long as their source file is unchanged. The
+ * modification time and length of the file are checked on each request;
+ * if either has changed the file is read again, and only rendered again if
+ * its contents have changed too.
+ *
+ * A page also depends on the documents it links to. Before a cached page is
+ * served, the source files of the documents defining the anchors it links
+ * to are checked the same way, and parsed again if they have changed. When
+ * the link anchors a file defines change, the cached pages with links to
+ * any of those anchors are dropped. (A page with a broken link is only
+ * rendered again once the document that now defines the anchor has been
+ * parsed again, by a request for it or for a page linking to it.)
+ *
+ * The CSS and the syntax highlighter files are served from memory, and the
+ * sources (if `includeSource` is set) straight from the input files. Files
+ * added to the inputs while the server is running are not served until it
+ * is restarted.
+ *
+ * [`Processor.parseOnly`]: jlp://jlp.jdb-labs.com/Processor
+ * [`PageCache`]: jlp://jlp.jdb-labs.com/PageCache
+ * @org jlp.jdb-labs.com/DocServer
+ */
+public class DocServer {
+
+    /// The input files, and the CSS and options used to create the
+    /// [`Processor`](jlp://jlp.jdb-labs.com/Processor/create).
+    public List<File> inputFiles
+    public def css
+    public Map processorOptions = [:]
+
+    /// The address and port to listen on. By default only the local host
+    /// can connect: this is for browsing the documentation while working on
+    /// the sources, not for publishing it.
+    public String host = 'localhost'
+    public int port = 8080
+
+    /// The most the cached pages may take up, in bytes.
+    public long cacheSize = 64 * 1024 * 1024
+
+    public static final String HTML_TYPE = 'text/html; charset=UTF-8'
+
+    protected Processor processor
+    protected PageCache cache
+    protected HttpServer server
+    protected ExecutorService executor
+
+    /// The documents by their path relative to the input root, which is
+    /// also the path of their output without the page suffix.
+    protected Map<String, TargetDoc> docsByPath = [:]
+
+    /// The syntax highlighter files, by their path under `.sh/`.
+    protected Map<String, byte[]> shFiles = [:]
+
+    /// The state of each source file when it was last parsed, by document
+    /// id. The link anchors we know are the ones defined by these versions
+    /// of the files.
+    protected Map<String, SourceState> parsed =
+        new ConcurrentHashMap<String, SourceState>()
+
+    /// The modification time and length of a source file, and the hash of
+    /// its contents (see [`BuildManifest`](jlp://jlp.jdb-labs.com/BuildManifest)).
+    /// The hash is `null` until the file has been read since the server
+    /// started.
+    protected static class SourceState {
+        long lastModified
+        long length
+        String contentHash }
+
+    private Logger log = LoggerFactory.getLogger(getClass())
+
+    /**
+     * #### start
+     * @api Parse the inputs and start serving the documentation. This method
+     * returns once the server is listening; the server runs until `stop` is
+     * called.
+     */
+    public void start() {
+        long start = System.currentTimeMillis()
+
+        processor = Processor.create(processorOptions + [parseOnly: true,
+            incremental: false, outputArchive: null, precompress: false],
+            null, css, inputFiles)
+        processor.process(inputFiles)
+
+        processor.docs.each { docId, doc ->
+            docsByPath[doc.relativePath] = doc
+            parsed[docId] = new SourceState(
+                lastModified: doc.sourceFile.lastModified(),
+                length: doc.sourceFile.length()) }
+        loadSyntaxHighlighter()
+        cache = new PageCache(cacheSize)
+
+        executor = Executors.newFixedThreadPool(Math.max(processor.threads, 1))
+        server = HttpServer.create(new InetSocketAddress(host, port), 0)
+        server.createContext('/', { HttpExchange exchange ->
+            handle(exchange) } as HttpHandler)
+        server.executor = executor
+        server.start()
+
+        log.info("Parsed {} document(s) in {} ms. Serving them at " +
+            "http://{}:{}/ (Ctrl-C to stop).", docsByPath.size(),
+            System.currentTimeMillis() - start, host, port) }
+
+    /**
+     * #### stop
+     * @api Stop serving.
+     */
+    public void stop() {
+        server?.stop(0)
+        executor?.shutdown() }
+
+    /**
+     * #### handle
+     * Answer one request. Only `GET` and `HEAD` are supported.
+     */
+    protected void handle(HttpExchange exchange) {
+        try {
+            if (!['GET', 'HEAD'].contains(exchange.requestMethod)) {
+                send(exchange, 405, 'text/plain', 'Method not allowed.')
+                return }
+
+            List response = respond(exchange.requestURI.path.substring(1))
+            if (response == null) { send(exchange, 404, 'text/plain', 'Not found.') }
+            else { send(exchange, 200, response[0], response[1]) } }
+
+        catch (Exception e) {
+            log.error("Unable to serve '${exchange.requestURI}'.", e)
+            try { send(exchange, 500, 'text/plain', e.message ?: e.toString()) }
+            catch (IOException ioe) { /* the response was already started */ } }
+
+        finally { exchange.close() } }
+
+    /**
+     * #### respond
+     * Find the content at a path relative to the root of the documentation:
+     * a page of a document, an asset, or a source file. Returns the content
+     * type and the content, or `null` if there is nothing at that path.
+     */
+    protected List respond(String path) {
+        if (path == '') { return [HTML_TYPE, index()] }
+
+        if (path == '.css/jlp.css') {
+            return ['text/css; charset=UTF-8',
+                css.text.getBytes(StandardCharsets.UTF_8)] }
+
+        if (path.startsWith('.sh/')) {
+            byte[] content = shFiles[path.substring(4)]
+            return content == null ? null : [contentType(path), content] }
+
+        /// The first page of a document is `Foo.java.html` and the pages
+        /// after it `Foo.java.2.html`, `Foo.java.3.html`, and so on (see
+        /// [`Processor.pageSuffix`](jlp://jlp.jdb-labs.com/Processor/pageSuffix)).
+        if (path.endsWith('.html')) {
+            String docPath = path.substring(0, path.length() - 5)
+            TargetDoc doc = docsByPath[docPath]
+            int page = 0
+
+            def pageMatch = docPath =~ /^(.+)\.(\d+)$/
+            if (!doc && pageMatch.matches() &&
+                pageMatch.group(2).toInteger() > 1) {
+                doc = docsByPath[pageMatch.group(1)]
+                page = pageMatch.group(2).toInteger() - 1 }
+
+            byte[] content = doc ? render(doc, page) : null
+            if (content != null) { return [HTML_TYPE, content] } }
+
+        if (processor.includeSource && docsByPath[path]?.sourceFile?.exists()) {
+            return ['text/plain', docsByPath[path].sourceFile.bytes] }
+
+        return null }
+
+    /**
+     * #### render
+     * Get a page of a document, from the cache if its source file and the
+     * documents it links to are unchanged. Otherwise the file is parsed
+     * again and all of its pages are emitted and cached. Returns `null` if
+     * the document has no such page.
+     */
+    protected byte[] render(TargetDoc doc, int page) {
+        /// Bring the anchors of the documents the cached pages link to up to
+        /// date first, which drops the pages if any of those anchors have
+        /// changed. This is done before locking the document, as the
+        /// documents it links to may link back to it.
+        cache.get(doc.sourceDocId)?.dependsOn?.each { String depId ->
+            TargetDoc dep = processor.docs[depId]
+            if (dep && dep != doc) { refresh(dep, false) } }
+
+        synchronized (doc) {
+            if (!refresh(doc, true)) {
+                cache.remove(doc.sourceDocId)
+                return null }
+
+            PageCache.Entry entry = cache.get(doc.sourceDocId)
+            if (entry && entry.contentHash == parsed[doc.sourceDocId].contentHash) {
+                doc.sourceAST = null
+                return page < entry.pages.size() ? entry.pages[page] : null }
+
+            /// The file has not been parsed since the server started (or the
+            /// AST was dropped since), so parse it now.
+            if (doc.sourceAST == null) {
+                SourceReader reader = processor.readers.get()
+                reader.load(doc.sourceFile)
+                parsed[doc.sourceDocId].contentHash =
+                    BuildManifest.hash(reader.bytes)
+                parse(doc, reader) }
+
+            log.trace("Rendering '{}'.", doc.sourceDocId)
+            entry = new PageCache.Entry(
+                contentHash: parsed[doc.sourceDocId].contentHash)
+
+            def generator = processor.getGenerator(doc.sourceType)
+            for (int p = 0; p < doc.pageCount; p++) {
+                StringBuilder out = new StringBuilder()
+                generator.emit(doc, p, out)
+                out.append(System.lineSeparator())
+                entry.pages << out.toString().getBytes(StandardCharsets.UTF_8) }
+
+            /// Note the anchors the pages link to, and the documents that
+            /// define them.
+            entry.linkIds = doc.linkTargets.keySet()
+                .findAll { it.startsWith('jlp://') }
+                .collect { it.substring(6) } as Set
+            entry.dependsOn = entry.linkIds
+                .collect { processor.linkAnchors[it]?.sourceDocId }
+                .findAll { it != null } as Set
+
+            doc.sourceAST = null
+            cache.put(doc.sourceDocId, entry)
+
+            return page < entry.pages.size() ? entry.pages[page] : null } }
+
+    /**
+     * #### refresh
+     * Check whether the source file of a document has changed since it was
+     * last parsed, parsing it again if it has so that its link anchors are
+     * current. The AST is kept if `keepAST` is set, for emitting. Returns
+     * `false` if the file no longer exists.
+     */
+    protected boolean refresh(TargetDoc doc, boolean keepAST) {
+        synchronized (doc) {
+            File file = doc.sourceFile
+            long lastModified = file.lastModified()
+            long length = file.length()
+            if (!file.exists()) { return false }
+
+            SourceState state = parsed[doc.sourceDocId]
+            if (state.lastModified == lastModified && state.length == length) {
+                return true }
+
+            /// The file has been touched. It only needs parsing again if its
+            /// contents have changed.
+            SourceReader reader = processor.readers.get()
+            reader.load(file)
+            String contentHash = BuildManifest.hash(reader.bytes)
+
+            state.lastModified = lastModified
+            state.length = length
+            if (state.contentHash == contentHash) { return true }
+
+            state.contentHash = contentHash
+            parse(doc, reader)
+            if (!keepAST) { doc.sourceAST = null }
+            return true } }
+
+    /**
+     * #### parse
+     * Parse a document again, replacing the link anchors it defined before.
+     */
+    protected void parse(TargetDoc doc, SourceReader reader) {
+        List<LinkAnchor> oldAnchors = anchorsOf(doc)
+        doc.linkTargets = [:]
+
+        if (!processor.parseDoc(doc, reader.text)) {
+            throw new IllegalStateException(
+                "Unable to parse '${doc.relativePath}'.") }
+
+        checkAnchors(doc, oldAnchors) }
+
+    /**
+     * #### checkAnchors
+     * After a document has been parsed again, remove the link anchors it no
+     * longer defines. Each parse creates new anchors, so those are the ones
+     * still left over from before. If any of the anchors it defines have
+     * changed, links to them from other documents may have changed as well,
+     * so the cached pages linking to those anchors and every memoized link
+     * are dropped.
+     */
+    protected void checkAnchors(TargetDoc doc, List<LinkAnchor> oldAnchors) {
+        oldAnchors.each { anchor ->
+            processor.linkAnchors.remove(anchor.id, anchor) }
+
+        def describe = { List<LinkAnchor> anchors ->
+            anchors.collect { "${it.type} ${it.page} ${it.id}" as String } as Set }
+
+        Set<String> before = describe(oldAnchors)
+        Set<String> after = describe(anchorsOf(doc))
+        if (before == after) { return }
+
+        log.trace("The link anchors of '{}' have changed.", doc.sourceDocId)
+        Set<String> changed = ((before - after) + (after - before))
+            .collect { it.split(' ', 3)[2] } as Set
+        cache.removeLinkingTo(changed)
+        processor.linkHrefs.clear() }
+
+    protected List<LinkAnchor> anchorsOf(TargetDoc doc) {
+        return processor.linkAnchors.values().findAll {
+            it.sourceDocId == doc.sourceDocId } as List }
+
+    /**
+     * #### index
+     * A page listing every document, served at the root. A build has no
+     * such page, but here there is nowhere else to start from.
+     */
+    protected byte[] index() {
+        StringBuilder out = new StringBuilder()
+        out.append('<!DOCTYPE html>\n<html>\n<head>\n' +
+            '<meta http-equiv="content-type" content="text/html; charset=UTF-8">\n' +
+            '<title>JLP Documentation</title>\n' +
+            '<link rel="stylesheet" media="all" href=".css/jlp.css"/>\n' +
+            '</head>\n<body>\n<ul>\n')
+
+        docsByPath.keySet().sort().each { String path ->
+            out.append('<li><a href="').append(escape(path))
+                .append('.html">').append(escape(path)).append('</a></li>\n') }
+
+        out.append('</ul>\n</body>\n</html>\n')
+        return out.toString().getBytes(StandardCharsets.UTF_8) }
+
+    /**
+     * #### loadSyntaxHighlighter
+     * Read the syntax highlighter files bundled in `/syntax-highlighter.jar`
+     * into memory, the same files a build extracts into `.sh`.
+     */
+    protected void loadSyntaxHighlighter() {
+        new JarInputStream(new ByteArrayInputStream(
+            Processor.syntaxHighlighterJar())).withStream { jis ->
+            JarEntry entry
+            byte[] buf = new byte[8192]
+            while ((entry = jis.nextJarEntry) != null) {
+                if (!entry.name.startsWith("sh/") || entry.isDirectory()) {
+                    continue }
+
+                /// `getBytes` would close the jar stream, so we read the
+                /// entry ourselves.
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+                int n
+                while ((n = jis.read(buf)) > 0) { bytes.write(buf, 0, n) }
+                shFiles[entry.name.substring(3)] = bytes.toByteArray() }}}
+
+    protected static final Map<String, String> CONTENT_TYPES = [
+        css: 'text/css', js: 'application/javascript', html: HTML_TYPE,
+        png: 'image/png', gif: 'image/gif', jpg: 'image/jpeg',
+        svg: 'image/svg+xml', swf: 'application/x-shockwave-flash' ]
+
+    protected static String contentType(String path) {
+        String ext = path.substring(path.lastIndexOf('.') + 1).toLowerCase()
+        return CONTENT_TYPES[ext] ?: 'application/octet-stream' }
+
+    protected void send(HttpExchange exchange, int status, String type,
+    def content) {
+        byte[] bytes = content instanceof byte[] ? content :
+            content.toString().getBytes(StandardCharsets.UTF_8)
+        boolean head = exchange.requestMethod == 'HEAD'
+
+        exchange.responseHeaders.set('Content-Type', type)
+        exchange.responseHeaders.set('Cache-Control', 'no-cache')
+        exchange.sendResponseHeaders(status,
+            head || bytes.length == 0 ? -1 : bytes.length)
+        if (!head) { exchange.responseBody.write(bytes) } }
+}
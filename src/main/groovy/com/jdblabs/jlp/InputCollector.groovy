@@ -0,0 +1,379 @@
+/**
+ * # InputCollector
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.nio.file.DirectoryStream
+import java.nio.file.FileVisitOption
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import java.util.function.Supplier
+import java.util.regex.Pattern
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * The InputCollector expands the paths given on the command line into the
+ * list of input files. Directories are walked with `Files.walkFileTree`.
+ * Each subdirectory of an input directory is walked as a separate task, so
+ * large trees are walked in parallel when `threads` is greater than 1. The
+ * files are returned in the same order as a sequential walk would find
+ * them.
+ *
+ * Only files that JLP can document are collected. The source type of each
+ * file is looked up once, by extension (see
+ * [`Processor.sourceTypeForFile`]), and binary and unknown files are
+ * dropped. Hidden files are skipped, as are the directories in
+ * `excludeDirs` (the output directory, for example) and the version
+ * control directories in `DEFAULT_EXCLUDES`.
+ *
+ * #### Filtering
+ * Files can be filtered with `includes` and `excludes` patterns and with
+ * ignore files (`.gitignore` and `.jlpignore`) found in the input
+ * directories. All of these use the syntax of a line in a `.gitignore`
+ * file (see [`IgnoreRules`]). Patterns given in `includes` and `excludes`
+ * are relative to the input directory being walked.
+ *
+ * * If there are any `includes` a file must match at least one of them.
+ * * A file or directory matched by the ignore files or by `excludes` is
+ *   skipped. The rules of an ignore file apply to the directory it is in
+ *   and everything beneath it. Later rules override earlier ones, rules
+ *   from deeper ignore files override those from above, and `excludes`
+ *   override all of them.
+ * * Ignored directories are pruned: we never look inside them.
+ *
+ * Files named directly as input paths are always collected if JLP can
+ * document them.
+ *
+ * [`Processor.sourceTypeForFile`]: jlp://jlp.jdb-labs.com/Processor/sourceTypeForFile
+ * [`IgnoreRules`]: jlp://jlp.jdb-labs.com/InputCollector/IgnoreRules
+ * @org jlp.jdb-labs.com/InputCollector
+ */
+public class InputCollector {
+
+    /// The names of the ignore files read from each directory.
+    public static final List<String> IGNORE_FILES = ['.gitignore', '.jlpignore']
+
+    /// Patterns that are always excluded.
+    public static final List<String> DEFAULT_EXCLUDES = ['.git/', '.hg/', '.svn/']
+
+    public List<String> includes = []
+    public List<String> excludes = []
+
+    /// Setting to control whether ignore files are read.
+    public boolean useIgnoreFiles = true
+
+    /// Directories that are never walked, such as the output directory.
+    public List<File> excludeDirs = []
+
+    /// The number of threads used to walk the input directories.
+    public int threads = 1
+
+    /// The directories walked by the last call to `collect`. The
+    /// [`Watcher`](jlp://jlp.jdb-labs.com/Watcher) watches these.
+    public List<Path> directories = []
+
+    private static Logger log = LoggerFactory.getLogger(InputCollector)
+
+    /**
+     * #### collect
+     * @api Expand the input paths into the list of input files.
+     */
+    public List<File> collect(List<File> inputPaths) {
+        List<File> inputFiles = []
+        directories = Collections.synchronizedList([])
+
+        ExecutorService pool = threads > 1 ? new ForkJoinPool(threads) : null
+
+        try {
+            inputPaths.each { file ->
+                if (file.isDirectory()) {
+                    inputFiles.addAll(collectDir(file.toPath(), pool)) }
+
+                /// Not a directory, just add the file.
+                else if (file.exists() && isSource(file.toPath())) {
+                    inputFiles << file } } }
+
+        finally { pool?.shutdown() }
+
+        return inputFiles }
+
+    /**
+     * #### collectDir
+     * Walk one input directory. The top level of the directory is read
+     * here, and each subdirectory is walked as its own task. The results are
+     * put back together in the order the entries were listed.
+     */
+    protected List<File> collectDir(Path root, ExecutorService pool) {
+        Walker walker = new Walker(this, root)
+        walker.enter(root)
+
+        List slots = []
+        DirectoryStream<Path> entries = Files.newDirectoryStream(root)
+        try {
+            entries.each { Path entry ->
+                if (Files.isDirectory(entry)) {
+                    Walker subtreeWalker = walker.fork()
+                    if (!pool) { slots << subtreeWalker.walk(entry) }
+                    else { slots << CompletableFuture.supplyAsync(
+                        { subtreeWalker.walk(entry) } as Supplier, pool) } }
+
+                else {
+                    List<File> found = []
+                    walker.visit(entry, false, found)
+                    slots << found } } }
+        finally { entries.close() }
+
+        List<File> inputFiles = []
+        try {
+            slots.each { slot ->
+                inputFiles.addAll(slot instanceof Future ? slot.get() : slot) } }
+        catch (ExecutionException ee) { throw ee.cause }
+
+        return inputFiles }
+
+    /// True if JLP can document the given file.
+    protected static boolean isSource(Path path) {
+        def sourceType = Processor.sourceTypeForName(path.fileName.toString())
+        return sourceType != 'binary' && sourceType != 'unknown' }
+
+    /**
+     * ### Walker
+     * Walks one subtree of an input directory, keeping track of the ignore
+     * rules that apply to the directory it is currently in.
+     * @org jlp.jdb-labs.com/InputCollector/Walker
+     */
+    protected static class Walker extends SimpleFileVisitor<Path> {
+        protected final InputCollector collector
+        protected final Path root
+        protected final IgnoreRules includeRules
+        protected final IgnoreRules excludeRules
+        protected final List<Path> excludeDirs
+
+        /// The rules of the ignore files in the directories we are in,
+        /// outermost first. `null` for a directory without any.
+        protected LinkedList<IgnoreRules> ignoreRules = []
+
+        protected List<File> found
+
+        public Walker(InputCollector collector, Path root) {
+            this.collector = collector
+            this.root = root
+            this.includeRules = collector.includes ?
+                IgnoreRules.parse(root, collector.includes) : null
+            this.excludeRules = IgnoreRules.parse(root,
+                DEFAULT_EXCLUDES + collector.excludes)
+            this.excludeDirs = collector.excludeDirs.collect {
+                it.toPath().toAbsolutePath().normalize() } }
+
+        protected Walker(Walker parent) {
+            this.collector = parent.collector
+            this.root = parent.root
+            this.includeRules = parent.includeRules
+            this.excludeRules = parent.excludeRules
+            this.excludeDirs = parent.excludeDirs
+            this.ignoreRules = new LinkedList<IgnoreRules>(parent.ignoreRules) }
+
+        /// A walker for a subtree of the directory this walker is in.
+        public Walker fork() { return new Walker(this) }
+
+        /// Walk the given directory, returning the files found.
+        public List<File> walk(Path dir) {
+            found = []
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE, this)
+            return found }
+
+        /// Enter a directory: remember it and read its ignore files.
+        public void enter(Path dir) {
+            collector.directories << dir.toAbsolutePath().normalize()
+
+            if (!collector.useIgnoreFiles) { return }
+
+            List<String> lines = []
+            IGNORE_FILES.each { name ->
+                Path ignoreFile = dir.resolve(name)
+                if (Files.isRegularFile(ignoreFile)) {
+                    lines.addAll(ignoreFile.readLines("UTF-8")) } }
+
+            ignoreRules.addLast(lines ? IgnoreRules.parse(dir, lines) : null) }
+
+        public FileVisitResult preVisitDirectory(Path dir,
+        BasicFileAttributes attrs) {
+            if (!visit(dir, true, null)) { return FileVisitResult.SKIP_SUBTREE }
+
+            enter(dir)
+            return FileVisitResult.CONTINUE }
+
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+            if (collector.useIgnoreFiles) { ignoreRules.removeLast() }
+            return FileVisitResult.CONTINUE }
+
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            visit(file, attrs.isDirectory(), found)
+            return FileVisitResult.CONTINUE }
+
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            log.warn("Unable to read '{}': {}", file, e.message)
+            return FileVisitResult.CONTINUE }
+
+        /**
+         * #### visit
+         * Decide whether a file or directory is part of the input. Files
+         * that are are added to `found`.
+         */
+        public boolean visit(Path path, boolean isDir, List<File> found) {
+            if (isDir) {
+                if (excludeDirs && excludeDirs.contains(
+                    path.toAbsolutePath().normalize())) { return false } }
+
+            else {
+                if (!isSource(path)) { return false }
+                if (Files.isHidden(path)) { return false } }
+
+            if (isIgnored(path, isDir)) { return false }
+
+            if (!isDir) {
+                if (includeRules && !includeRules.matches(path, false)) {
+                    return false }
+                found << path.toFile() }
+
+            return true }
+
+        /// Check the path against the ignore rules, outermost first, then
+        /// against the excludes. The last rule that matches decides.
+        protected boolean isIgnored(Path path, boolean isDir) {
+            Boolean ignored = null
+
+            for (IgnoreRules rules : ignoreRules) {
+                Boolean result = rules?.check(path, isDir)
+                if (result != null) { ignored = result } }
+
+            Boolean excluded = excludeRules.check(path, isDir)
+            if (excluded != null) { ignored = excluded }
+
+            return ignored ?: false } }
+
+    /**
+     * ### IgnoreRules
+     * The rules from one ignore file (or one list of patterns), using the
+     * `.gitignore` syntax:
+     *
+     * * Blank lines and lines starting with `#` are ignored.
+     * * A leading `!` negates the rule: a path it matches is not ignored.
+     * * A trailing `/` makes the rule only match directories.
+     * * A pattern containing any other `/` is matched against the path
+     *   relative to the directory of the ignore file. Otherwise it is
+     *   matched against the name of the file or directory, at any depth.
+     * * `*` matches anything but `/`, `?` matches any one character but
+     *   `/`, `[...]` matches a character class and `**` matches across
+     *   directories. A `**` that is followed by a slash may also match no
+     *   directories at all.
+     *
+     * @org jlp.jdb-labs.com/InputCollector/IgnoreRules
+     */
+    public static class IgnoreRules {
+        public final Path base
+        protected List<Rule> rules = []
+
+        public IgnoreRules(Path base) { this.base = base }
+
+        public static IgnoreRules parse(Path base, List<String> lines) {
+            IgnoreRules ignoreRules = new IgnoreRules(base)
+
+            lines.each { String line ->
+                String pattern = line.trim()
+                if (!pattern || pattern.startsWith('#')) { return }
+
+                boolean negate = pattern.startsWith('!')
+                if (negate) { pattern = pattern.substring(1) }
+
+                boolean dirOnly = pattern.endsWith('/')
+                if (dirOnly) { pattern = pattern.substring(0, pattern.length() - 1) }
+
+                boolean anchored = pattern.contains('/')
+                if (pattern.startsWith('/')) { pattern = pattern.substring(1) }
+                if (!pattern) { return }
+
+                ignoreRules.rules << new Rule(
+                    regex: Pattern.compile(toRegex(pattern)),
+                    negate: negate,
+                    dirOnly: dirOnly,
+                    anchored: anchored) }
+
+            return ignoreRules }
+
+        /**
+         * #### check
+         * Returns `true` if the last rule matching the path ignores it,
+         * `false` if it is a negated rule, or `null` if no rule matches.
+         */
+        public Boolean check(Path path, boolean isDir) {
+            String relPath = null
+            String name = path.fileName.toString()
+            Boolean result = null
+
+            for (Rule rule : rules) {
+                if (rule.dirOnly && !isDir) { continue }
+
+                if (rule.anchored && relPath == null) {
+                    relPath = base.relativize(path).toString().replace('\\', '/') }
+
+                if (rule.regex.matcher(rule.anchored ? relPath : name).matches()) {
+                    result = !rule.negate } }
+
+            return result }
+
+        /// True if any (non-negated) rule matches the path.
+        public boolean matches(Path path, boolean isDir) {
+            return check(path, isDir) ?: false }
+
+        /// Translate one pattern into a regular expression.
+        protected static String toRegex(String pattern) {
+            StringBuilder regex = new StringBuilder()
+            int i = 0
+
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i)
+
+                if (pattern.startsWith('**/', i)) {
+                    regex.append('(?:.*/)?')
+                    i += 3 }
+
+                else if (pattern.startsWith('**', i)) {
+                    regex.append('.*')
+                    i += 2 }
+
+                else if (c == '*' as char) { regex.append('[^/]*'); i++ }
+                else if (c == '?' as char) { regex.append('[^/]'); i++ }
+
+                else if (c == '[' as char && pattern.indexOf(']', i + 1) > 0) {
+                    int end = pattern.indexOf(']', i + 1)
+                    String cls = pattern.substring(i + 1, end)
+                    if (cls.startsWith('!')) { cls = '^' + cls.substring(1) }
+                    regex.append('[').append(cls.replace('\\', '\\\\')).append(']')
+                    i = end + 1 }
+
+                else {
+                    regex.append(Pattern.quote(c as String))
+                    i++ } }
+
+            return regex.toString() }
+
+        /// One line of an ignore file.
+        protected static class Rule {
+            Pattern regex
+            boolean negate
+            boolean dirOnly
+            boolean anchored } }
+}
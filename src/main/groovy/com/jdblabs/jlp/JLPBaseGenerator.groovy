@@ -30,9 +30,70 @@ public abstract class JLPBaseGenerator {
      */
     protected Processor processor
 
+    /**
+     * The document currently being processed by this generator. Generators
+     * are only used by one thread at a time, so the document is given to the
+     * generator by the Processor at the start of each phase rather than
+     * being kept on the (shared) Processor.
+     */
+    protected TargetDoc currentDoc
+
+    /// The page of the current document being emitted, or -1 if the whole
+    /// document is being emitted at once.
+    protected int currentPage = -1
+
     protected JLPBaseGenerator(Processor processor) {
         this.processor = processor }
 
+    /**
+     * #### Phase entry points
+     * The Processor invokes each phase through these methods, passing the
+     * document to be processed.
+     */
+    public void parse(TargetDoc targetDoc) {
+        currentDoc = targetDoc
+        try { parse(targetDoc.sourceAST) }
+        finally { currentDoc = null } }
+
+    /// The emit phase writes the documentation straight to the given
+    /// `Appendable` (typically a buffered `Writer` for the output file) so
+    /// that the generated document never has to be held in memory.
+    public void emit(TargetDoc targetDoc, Appendable out) {
+        emit(targetDoc, -1, out) }
+
+    /// Documents that are split over several pages are emitted one page at
+    /// a time, each page to its own output file.
+    public void emit(TargetDoc targetDoc, int page, Appendable out) {
+        currentDoc = targetDoc
+        currentPage = page
+        try { emit(targetDoc.sourceAST, out) }
+        finally {
+            currentDoc = null
+            currentPage = -1 } }
+
+    /// Fill in an [`OutputTemplate`] recorded while emitting a page of
+    /// another document, an identical copy of this one, for this document.
+    ///
+    /// [`OutputTemplate`]: jlp://jlp.jdb-labs.com/OutputTemplate
+    public void emit(TargetDoc targetDoc, int page, OutputTemplate template,
+    Appendable out) {
+        currentDoc = targetDoc
+        currentPage = page
+        try {
+            template.parts.each { part ->
+                if (part instanceof OutputTemplate.Hole) {
+                    out.append(docSpecific(part.kind, part.arg)) }
+                else { out.append(part) } } }
+        finally {
+            currentDoc = null
+            currentPage = -1 } }
+
+    /// A convenience for callers that do want the whole document as a String.
+    public String emit(TargetDoc targetDoc) {
+        StringBuilder sb = new StringBuilder()
+        emit(targetDoc, sb)
+        return sb.toString() }
+
     /**
      * ### Generator phases
      * 
@@ -68,11 +129,30 @@ public abstract class JLPBaseGenerator {
     protected abstract void parse(CodeBlock codeBlock)
     protected abstract void parse(DocText docText)
 
-    protected abstract String emit(SourceFile sourceFile)
-    protected abstract String emit(Block block)
-    protected abstract String emit(DocBlock docBlock)
-    protected abstract String emit(CodeBlock codeBlock)
-    protected abstract String emit(DocText docText)
-    protected abstract String emit(Directive directive)
+    /**
+     * #### Document-specific output
+     * @org jlp.jdb-labs.com/JLPBaseGenerator/doc-specific
+     * Most of the output depends only on the source file, but some of it
+     * (the title, relative paths, link hrefs) depends on the document it is
+     * for. Generators write those parts with `appendDocSpecific`, giving a
+     * kind and an argument from which `docSpecific` can compute the text
+     * for the current document. When emitting into an [`OutputTemplate`]
+     * they are recorded as holes to be filled in later, for this document
+     * and for its copies.
+     *
+     * [`OutputTemplate`]: jlp://jlp.jdb-labs.com/OutputTemplate
+     */
+    protected void appendDocSpecific(Appendable out, String kind, String arg) {
+        if (out instanceof OutputTemplate) { out.addHole(kind, arg) }
+        else { out.append(docSpecific(kind, arg)) } }
+
+    protected abstract String docSpecific(String kind, String arg)
+
+    protected abstract void emit(SourceFile sourceFile, Appendable out)
+    protected abstract void emit(Block block, Appendable out)
+    protected abstract void emit(DocBlock docBlock, Appendable out)
+    protected abstract void emit(CodeBlock codeBlock, Appendable out)
+    protected abstract void emit(DocText docText, Appendable out)
+    protected abstract void emit(Directive directive, Appendable out)
 
 }
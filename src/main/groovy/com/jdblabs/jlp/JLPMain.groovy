@@ -44,11 +44,29 @@ public class JLPMain {
             longOpt: 'output-dir', args: 1, argName: "output-dir",
             required: false)
 
+        /// --output-archive <file>
+        /// :   Write all of the documentation into one archive instead of
+        ///     the output directory. The format is chosen by the name of the
+        ///     file: `.zip`, `.tar`, `.tar.gz` or `.tgz`. The links are as
+        ///     they would be in the output directory. See
+        ///     [`ArchiveSink`](jlp://jlp.jdb-labs.com/ArchiveSink).
+        cli._(longOpt: 'output-archive', args: 1, required: false,
+            argName: 'file', 'Write the documentation into the archive' +
+            ' <file> (.zip, .tar, .tar.gz or .tgz) instead of a directory.')
+
         /// --css-file <file>
         /// :   Specify an alternate CSS file for the output documentation.
         cli._('Use <css-file> for the documentation css.',
             longOpt: 'css-file', args: 1, required: false, argName: 'css-file')
 
+        /// --template <file>
+        /// :   Specify an alternate page template for the output
+        ///     documentation. See
+        ///     [`PageTemplate`](jlp://jlp.jdb-labs.com/PageTemplate) for the
+        ///     slots it may use, and `/templates/page.html` for the default.
+        cli._('Use <file> as the template for each page.',
+            longOpt: 'template', args: 1, required: false, argName: 'file')
+
         /// --relative-path-root <root-directory>
         /// :   Override the current working directory. This is useful if you
         ///     are invoking jlp remotely, or if the current working directory
@@ -66,6 +84,178 @@ public class JLPMain {
         cli._(longOpt: 'no-source', 'Do not copy the source files into the' +
             ' output directory alongside the documentation.')
 
+        /// --threads <count>
+        /// :   Process documents using this many worker threads. Defaults to
+        ///     the number of available processors.
+        cli._(longOpt: 'threads', args: 1, required: false, argName: 'count',
+            'Process documents using <count> threads (defaults to the' +
+            ' number of available processors).')
+
+        /// --parser <impl> | <source-type>=<impl>[,...]
+        /// :   Choose the implementation of the JLP grammar: `peg` (the
+        ///     default) or `scanner`. This can be set for all source types
+        ///     or for specific source types, for example `c=scanner,sql=scanner`.
+        cli._(longOpt: 'parser', args: 1, required: false, argName: 'impl',
+            'Parse with the given implementation (peg or scanner). Use' +
+            ' <source-type>=<impl>[,...] to choose per source type.')
+
+        /// --incremental
+        /// :   Only rebuild the documentation for files that have changed
+        ///     since the last run (or that link to something that has moved).
+        ///     A manifest describing the run is kept in the output directory.
+        cli._(longOpt: 'incremental', 'Only rebuild documentation for files' +
+            ' that have changed since the last run.')
+
+        /// --watch
+        /// :   Process the files, then keep running and process them again
+        ///     whenever they change. Implies `--incremental`. See
+        ///     [`Watcher`](jlp://jlp.jdb-labs.com/Watcher).
+        cli._(longOpt: 'watch', 'Keep running and update the documentation' +
+            ' whenever the source files change.')
+
+        /// --serve
+        /// :   Serve the documentation over HTTP instead of writing it,
+        ///     rendering each page when it is first asked for and again
+        ///     whenever its source changes. See
+        ///     [`DocServer`](jlp://jlp.jdb-labs.com/DocServer).
+        cli._(longOpt: 'serve', 'Serve the documentation over HTTP,' +
+            ' rendering pages as they are requested.')
+
+        /// --port <port>
+        /// :   The port `--serve` listens on. Defaults to 8080.
+        cli._(longOpt: 'port', args: 1, required: false, argName: 'port',
+            'Serve on <port> (defaults to 8080).')
+
+        /// --cache-size <MiB>
+        /// :   How much of the rendered pages `--serve` keeps in memory.
+        ///     Defaults to 64 MiB.
+        cli._(longOpt: 'cache-size', args: 1, required: false,
+            argName: 'MiB', 'Keep up to <MiB> MiB of rendered pages in' +
+            ' memory when serving (defaults to 64).')
+
+        /// --highlight <client|server>
+        /// :   Choose where the code is highlighted: in the browser by
+        ///     SyntaxHighlighter (`client`, the default), or as the
+        ///     documentation is generated (`server`), in which case the pages
+        ///     need no JavaScript. See
+        ///     [`CodeHighlighter`](jlp://jlp.jdb-labs.com/CodeHighlighter).
+        cli._(longOpt: 'highlight', args: 1, required: false,
+            argName: 'client|server', 'Highlight code in the browser' +
+            ' (client, the default) or when generating (server).')
+
+        /// --page-lines <lines>
+        /// :   Split the documentation for source files longer than `<lines>`
+        ///     lines over several pages, linked by previous and next links.
+        ///     See [`Processor.pageLines`](jlp://jlp.jdb-labs.com/Processor/pageLines).
+        cli._(longOpt: 'page-lines', args: 1, required: false,
+            argName: 'lines', 'Split the documentation for files longer' +
+            ' than <lines> lines over several pages.')
+
+        /// --precompress
+        /// :   Write a gzipped copy next to each page and asset
+        ///     (`Foo.java.html.gz`), for a web server to send as it is. See
+        ///     [`Precompressor`](jlp://jlp.jdb-labs.com/Precompressor).
+        cli._(longOpt: 'precompress', 'Also write a gzipped copy of each' +
+            ' page and asset.')
+
+        /// --compress-output
+        /// :   Write the gzipped copies that `--precompress` would have
+        ///     written for the documentation already in the output
+        ///     directory, and stop. No input files are processed.
+        cli._(longOpt: 'compress-output', 'Write gzipped copies of the' +
+            ' files already in the output directory, and stop.')
+
+        /// --parse-timeout <ms>
+        /// :   Give up parsing a file after `<ms>` milliseconds and treat it
+        ///     as code instead. The default is 10000; `0` means no limit. See
+        ///     [`Processor`](jlp://jlp.jdb-labs.com/Processor/parse-budget).
+        cli._(longOpt: 'parse-timeout', args: 1, required: false,
+            argName: 'ms', 'Treat files that take longer than <ms>' +
+            ' milliseconds to parse as code (default 10000, 0 for no limit).')
+
+        /// --max-parse-size <chars>
+        /// :   Treat files longer than `<chars>` characters as code rather
+        ///     than parsing them. The default is 4 MiB; `0` means no limit.
+        cli._(longOpt: 'max-parse-size', args: 1, required: false,
+            argName: 'chars', 'Treat files longer than <chars> characters' +
+            ' as code (default 4194304, 0 for no limit).')
+
+        /// --max-line-length <chars>
+        /// :   Treat files with a line longer than `<chars>` characters
+        ///     (minified scripts, typically) as code rather than parsing
+        ///     them. The default is 10000; `0` means no limit.
+        cli._(longOpt: 'max-line-length', args: 1, required: false,
+            argName: 'chars', 'Treat files with lines longer than <chars>' +
+            ' characters as code (default 10000, 0 for no limit).')
+
+        /// --no-dedup
+        /// :   Parse and emit every input file, even those identical to
+        ///     another input file. See
+        ///     [`Processor.dedup`](jlp://jlp.jdb-labs.com/Processor/dedup).
+        cli._(longOpt: 'no-dedup', 'Process identical input files' +
+            ' separately.')
+
+        /// --shard <index>/<count>
+        /// :   Only process this shard of the input files, one of `<count>`
+        ///     (counting from 1). Each shard must be given the same input
+        ///     files. A sharded build is run in two stages: first with
+        ///     `--export-anchors`, then with `--import-anchors`. See
+        ///     [`Processor`](jlp://jlp.jdb-labs.com/Processor/sharding).
+        cli._(longOpt: 'shard', args: 1, required: false,
+            argName: 'index/count', 'Only process shard <index> of <count>' +
+            ' of the input files.')
+
+        /// --export-anchors <file>
+        /// :   Parse the files of this shard and write the link anchors they
+        ///     define to `<file>`, without writing any documentation.
+        cli._(longOpt: 'export-anchors', args: 1, required: false,
+            argName: 'file', 'Write the link anchors of this shard to' +
+            ' <file> and stop.')
+
+        /// --import-anchors <file>
+        /// :   Resolve links using the link anchors exported by the shards
+        ///     to `<file>`. Given once for each shard.
+        cli._(longOpt: 'import-anchors', args: 1, required: false,
+            argName: 'file', 'Use the link anchors exported to <file> by' +
+            ' another shard (may be repeated).')
+
+        /// --profile
+        /// :   Record how long each phase of the run and each document took
+        ///     and print a summary, including the slowest documents. See
+        ///     [`BuildMetrics`](jlp://jlp.jdb-labs.com/BuildMetrics).
+        cli._(longOpt: 'profile', 'Print a summary of where the time was' +
+            ' spent, including the slowest documents.')
+
+        /// --metrics-out <file>
+        /// :   Record the same metrics as `--profile` and write the full
+        ///     report to `<file>` as JSON.
+        cli._(longOpt: 'metrics-out', args: 1, required: false,
+            argName: 'file', 'Write a JSON report of the time spent on' +
+            ' each phase and document to <file>.')
+
+        /// --include <pattern>
+        /// :   Only document the files in the input directories that match
+        ///     `<pattern>`. May be given more than once. Patterns use the
+        ///     `.gitignore` syntax, see
+        ///     [`InputCollector`](jlp://jlp.jdb-labs.com/InputCollector).
+        cli._(longOpt: 'include', args: 1, required: false,
+            argName: 'pattern', 'Only document files matching <pattern>' +
+            ' (.gitignore syntax, may be repeated).')
+
+        /// --exclude <pattern>
+        /// :   Do not document the files and directories in the input
+        ///     directories that match `<pattern>`. May be given more than
+        ///     once.
+        cli._(longOpt: 'exclude', args: 1, required: false,
+            argName: 'pattern', 'Skip files and directories matching' +
+            ' <pattern> (.gitignore syntax, may be repeated).')
+
+        /// --no-ignore-files
+        /// :   Do not read `.gitignore` and `.jlpignore` files in the input
+        ///     directories.
+        cli._(longOpt: 'no-ignore-files', 'Do not read .gitignore and' +
+            ' .jlpignore files.')
+
         /// #### Parse the options.
         def opts = cli.parse(args)
 
@@ -97,14 +287,53 @@ public class JLPMain {
         if (!outputDir.isAbsolute()) {
             outputDir = new File(pathRoot, outputDir.path) }
 
-        /// Create the output directory if it does not exist.
-        if (!outputDir.exists()) outputDir.mkdirs()
+        /// Get the output archive, if we are writing one. It is resolved
+        /// against our relative root as well. An archive can only be written
+        /// whole, so it can not be updated incrementally.
+        def outputArchive = null
+        if (opts.'output-archive') {
+            outputArchive = new File(opts.'output-archive')
+            if (!outputArchive.isAbsolute()) {
+                outputArchive = new File(pathRoot, outputArchive.path) }
+
+            if (!(outputArchive.name.toLowerCase() =~ /\.(zip|tar|tar\.gz|tgz)$/)) {
+                System.err.println "'${outputArchive.name}' is not a .zip, .tar, .tar.gz or .tgz file."
+                System.exit(1) }
+
+            if (opts.incremental || opts.watch) {
+                System.err.println "An output archive can not be built incrementally."
+                System.exit(1) }}
+
+        /// The server writes nothing, so it can not be combined with the
+        /// options for writing the documentation in other ways.
+        if (opts.serve && (opts.watch || opts.incremental || outputArchive ||
+            opts.shard || opts.'export-anchors' || opts.'import-anchors')) {
+            System.err.println "--serve can not be combined with --watch," +
+                " --incremental, --output-archive or a sharded build."
+            System.exit(1) }
+
+        /// Get the port and cache size for the server.
+        def port = 8080, cacheSize = 64
+        [port: { port = it }, 'cache-size': { cacheSize = it }]
+        .each { optName, setter ->
+            def value = opts."${optName}"
+            if (!value) { return }
+            if (!value.isInteger() || value.toInteger() < 1) {
+                System.err.println "'${value}' is not a valid value for --${optName}."
+                System.exit(1) }
+            setter(value.toInteger()) }
+
+        /// Create the output directory if it does not exist (and we are going
+        /// to write to it).
+        if (!outputDir.exists() && !opts.'export-anchors' && !outputArchive &&
+            !opts.serve) {
+            outputDir.mkdirs() }
 
         log.debug("Output directory: '{}'.", outputDir.canonicalPath)
 
         /// Get the CSS theme to use. We will start by assuming the default will
         /// be used.
-        def css = JLPMain.class.getResourceAsStream("/css/jlp.css")
+        def css = JLPMain.class.getResource("/css/jlp.css")
 
         /// If the CSS file was specified on the command-line, let's look for it.
         if (opts.'css-file') {
@@ -127,15 +356,129 @@ public class JLPMain {
                     "${cssFile.canonicalPath}'."
                 println "      Using the default CSS." }}
 
+        /// Get the page template, if one was given. Unlike the CSS, a template
+        /// that is missing or invalid is an error: the pages would not be
+        /// what was asked for.
+        def template = null
+        if (opts.template) {
+            template = new File(opts.template)
+            if (!template.isAbsolute()) {
+                template = new File(pathRoot, template.path) }
+
+            if (!template.exists()) {
+                System.err.println "'${template.canonicalPath}' does not exist."
+                System.exit(1) }
+
+            try { new PageTemplate(template.text) }
+            catch (IllegalArgumentException iae) {
+                System.err.println "'${template.canonicalPath}': ${iae.message}"
+                System.exit(1) }}
+
+        /// Get the file to write the metrics report to, if any. It is resolved
+        /// against our relative root.
+        def metricsOut = null
+        if (opts.'metrics-out') {
+            metricsOut = new File(opts.'metrics-out')
+            if (!metricsOut.isAbsolute()) {
+                metricsOut = new File(pathRoot, metricsOut.path) }}
+
         /// Look for our `--no-source` option.
         def includeSource = !opts."no-source"
 
+        /// Get the number of worker threads to use.
+        def threads = Runtime.runtime.availableProcessors()
+        if (opts.threads) {
+            if (!opts.threads.isInteger() || opts.threads.toInteger() < 1) {
+                System.err.println "'${opts.threads}' is not a valid thread count."
+                System.exit(1) }
+            threads = opts.threads.toInteger() }
+
+        /// Get where to highlight the code.
+        def highlight = opts.highlight ?: 'client'
+        if (!['client', 'server'].contains(highlight)) {
+            System.err.println "'${highlight}' is not a valid highlight mode."
+            System.exit(1) }
+
+        /// Get the page size, if documents are to be split into pages.
+        def pageLines = 0
+        if (opts.'page-lines') {
+            if (!opts.'page-lines'.isInteger() ||
+                opts.'page-lines'.toInteger() < 1) {
+                System.err.println "'${opts.'page-lines'}' is not a valid page size."
+                System.exit(1) }
+            pageLines = opts.'page-lines'.toInteger() }
+
+        /// Get the parse budgets. Each is a number, `0` for no limit.
+        def budgets = [:]
+        [   'parse-timeout': 'parseTimeout',
+            'max-parse-size': 'maxParseSize',
+            'max-line-length': 'maxLineLength'
+        ].each { optName, setting ->
+            def value = opts."${optName}"
+            if (!value) { return }
+            if (!value.isInteger() || value.toInteger() < 0) {
+                System.err.println "'${value}' is not a valid value for --${optName}."
+                System.exit(1) }
+            budgets[setting] = value.toInteger() }
+
+        /// Get the shard to process, if this is a sharded build. Sharded
+        /// builds can not be incremental, as no one shard knows every
+        /// document.
+        def shardIndex = 0, shardCount = 1
+        if (opts.shard) {
+            def parts = opts.shard.split('/') as List
+            if (parts.size() != 2 || !parts.every { it.isInteger() } ||
+                parts[1].toInteger() < 1 ||
+                !(1..parts[1].toInteger()).contains(parts[0].toInteger())) {
+                System.err.println "'${opts.shard}' is not a valid shard."
+                System.exit(1) }
+
+            shardIndex = parts[0].toInteger() - 1
+            shardCount = parts[1].toInteger()
+
+            if (opts.incremental || opts.watch) {
+                System.err.println "A sharded build can not be incremental."
+                System.exit(1) }}
+
+        /// The anchor table files are resolved against our relative root.
+        def resolveFile = { String name ->
+            File file = new File(name)
+            return file.isAbsolute() ? file : new File(pathRoot, name) }
+
+        def exportAnchors = opts.'export-anchors' ?
+            resolveFile(opts.'export-anchors') : null
+        def importAnchors = (opts.getOptionValues('import-anchors') ?: [])
+            .collect { resolveFile(it) }
+
+        /// Get the parser implementation for each source type.
+        def parserImpls = [:]
+        if (opts.parser) {
+            opts.parser.split(',').each { setting ->
+                def parts = setting.split('=') as List
+                def sourceType = parts.size() > 1 ? parts[0].trim() : '*'
+                def impl = parts[-1].trim()
+
+                if (!['peg', 'scanner'].contains(impl)) {
+                    System.err.println "'${impl}' is not a valid parser."
+                    System.exit(1) }
+
+                parserImpls[sourceType] = impl }}
+
+        /// #### Compress an existing output directory.
+        /// With `--compress-output` we only write the compressed copies
+        /// missing from the output directory, exactly as `--precompress`
+        /// would have written them, and stop.
+        if (opts.'compress-output') {
+            int count = Precompressor.compressTree(outputDir, threads)
+            println "Compressed ${count} file(s) in '${outputDir.path}'."
+            return }
+
         /// #### Create the input file list.
 
         /// We will start with the filenames passed as arguments on the command
         /// line.
         def filenames = opts.getArgs()
-        def inputFiles = []
+        def inputPaths = []
 
         filenames.each { filename ->
 
@@ -150,18 +493,57 @@ public class JLPMain {
                     "'${file.canonicalPath}' does not exist: ignored.")
                 return }
 
-            /// If this file is a directory, we want to add all the files in it
-            /// to our input list, recursing into all the subdirectories and
-            /// adding their files as well. We will ignore hidden files.
-            if (file.isDirectory()) { file.eachFileRecurse {
-                if (it.isFile() && !it.isHidden()) { inputFiles << it }}}
+            inputPaths << file }
+
+        /// The input collector expands the input paths into the list of
+        /// input files. The output directory is never part of the input.
+        def inputCollector = new InputCollector(
+            includes: opts.includes ?: [],
+            excludes: opts.excludes ?: [],
+            useIgnoreFiles: !opts.'no-ignore-files',
+            excludeDirs: [outputDir],
+            threads: threads)
+
+        def processorOptions = [
+            includeSource: includeSource, threads: threads,
+            parserImpls: parserImpls,
+            incremental: opts.incremental as boolean,
+            highlight: highlight, pageLines: pageLines,
+            dedup: !opts.'no-dedup',
+            shardIndex: shardIndex, shardCount: shardCount,
+            exportAnchors: exportAnchors, importAnchors: importAnchors,
+            outputArchive: outputArchive,
+            precompress: opts.precompress as boolean,
+            template: template,
+            profile: opts.profile as boolean, metricsOut: metricsOut] + budgets
+
+        /// #### Serve the documentation.
+        if (opts.serve) {
+            def inputFiles = inputCollector.collect(inputPaths)
+            if (!inputFiles) {
+                System.err.println "No input files."
+                System.exit(1) }
+
+            log.trace("Starting JLP server.")
+            new DocServer(inputFiles: inputFiles, css: css,
+                processorOptions: processorOptions, port: port,
+                cacheSize: cacheSize * 1024L * 1024L).start()
+            return }
 
-            /// Not a directory, just add the file.
-            else { inputFiles << file } }
+        /// #### Watch the files.
+        if (opts.watch) {
+            log.trace("Starting JLP watcher.")
+            new Watcher(inputPaths: inputPaths, outputDir: outputDir, css: css,
+                inputCollector: inputCollector,
+                processorOptions: processorOptions).run()
+            return }
 
         /// #### Process the files.
         log.trace("Starting JLP processor.")
-        Processor.process(outputDir, css, inputFiles, includeSource)
+        def inputFiles = inputCollector.collect(inputPaths)
+        if (!inputFiles) { log.warn("No input files.") }
+
+        Processor.process(processorOptions, outputDir, css, inputFiles)
     }
 
 }
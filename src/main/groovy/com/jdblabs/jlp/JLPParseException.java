@@ -0,0 +1,19 @@
+/**
+ * # JLPParseException
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+/**
+ * Thrown by a [`JLPParser`] when it is unable to parse its input. The
+ * message describes where and why the parse failed.
+ *
+ * [`JLPParser`]: jlp://jlp.jdb-labs.com/JLPParser
+ *
+ * @org jlp.jdb-labs.com/JLPParseException
+ */
+public class JLPParseException extends RuntimeException {
+
+    public JLPParseException(String message) { super(message); }
+}
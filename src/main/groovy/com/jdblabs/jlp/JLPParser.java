@@ -13,9 +13,16 @@ import com.jdblabs.jlp.ast.SourceFile;
  * be an abstract class implementing methods that take additional input for
  * convenience.
  *
+ * The input is any `CharSequence`. The [`Processor`] hands the parsers the
+ * decoded contents of each file as they are in the [`SourceReader`]'s
+ * buffer, which is reused for the next file, so a parser must not keep a
+ * reference to the input once `parse` returns.
+ *
  * [`SourceFile`]: jlp://jlp.jdb-labs.com/ast/SourceFile
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * [`SourceReader`]: jlp://jlp.jdb-labs.com/SourceReader
  *
  * @org jlp.jdb-labs.com/JLPParser
  */
 public interface JLPParser {
-    public SourceFile parse(String input); }
+    public SourceFile parse(CharSequence input); }
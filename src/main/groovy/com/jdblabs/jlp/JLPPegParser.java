@@ -7,6 +7,7 @@
 package com.jdblabs.jlp;
 
 import com.jdblabs.jlp.ast.*;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.parboiled.Action;
@@ -14,13 +15,27 @@ import org.parboiled.BaseParser;
 import org.parboiled.Context;
 import org.parboiled.Rule;
 import org.parboiled.annotations.*;
+import org.parboiled.errors.ErrorUtils;
+import org.parboiled.errors.ParseError;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ErrorLocatingParseRunner;
+import org.parboiled.parserunners.ErrorReportingParseRunner;
 import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
 
-@BuildParseTree
+/**
+ * Note that this parser does not build a parse tree (there is no
+ * `@BuildParseTree` annotation). We only use the AST built up on the value
+ * stack, so building a parse tree would only slow the parser down.
+ */
 public class JLPPegParser extends BaseParser<Object> implements JLPParser {
 
     int curLineNum = 1;
 
+    /// The input being parsed. The AST nodes refer to it by offset.
+    CharSequence source;
+
     /// ### Constructors ###
     /// --------------------
     /// @org jlp.jdb-labs.com/JLPPegParser/constructors
@@ -63,7 +78,7 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
 
         MDOC_START = FirstOf(mdocStarts.toArray()).label("MDOC_START");
         MDOC_END = FirstOf(mdocEnds.toArray()).label("MDOC_END");
-        SDOC_START = FirstOf(mdocStarts.toArray()).label("SDOC_START");
+        SDOC_START = FirstOf(sdocStart.toArray()).label("SDOC_START");
         MDOC_LINE_START = AnyOf(mdocLineStarts).label("MDOC_LINE_START"); }
 
     /**
@@ -104,9 +119,74 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
     public JLPPegParser() {
         this("/**", "*/", "!#$%^&*()_-=+|;:'\",<>?~`", "///"); }
 
-    public SourceFile parse(String input) {
-        ReportingParseRunner rpr = new ReportingParseRunner(this.SourceFile());
-        return (SourceFile) rpr.run(input).resultValue; }
+    /**
+     * #### parse
+     * We first parse the input using the `BasicParseRunner`, which does no
+     * error reporting and is therefore the fastest runner. Only if that
+     * fails do we parse the input again with the `ReportingParseRunner` to
+     * find out what went wrong.
+     *
+     * If the [`Processor`] gave this parse a [`ParseBudget`], every rule
+     * match in each of these passes checks it first, and the parse is
+     * abandoned once the budget is spent.
+     *
+     * [`Processor`]: jlp://jlp.jdb-labs.com/Processor/parse-budget
+     * [`ParseBudget`]: jlp://jlp.jdb-labs.com/ParseBudget
+     */
+    public SourceFile parse(CharSequence input) {
+        char[] chars = toCharArray(input);
+        Rule rule = this.SourceFile();
+        ParseBudget budget = ParseBudget.current();
+
+        /// The `char[]` is our own copy of the input, so the AST can keep a
+        /// reference to it.
+        source = CharBuffer.wrap(chars);
+        try {
+            ParsingResult result = budget == null ?
+                new BasicParseRunner(rule).run(chars) :
+                budget.runner(rule).run(chars);
+
+            if (result.matched && result.resultValue != null) {
+                SourceFile sourceFile = (SourceFile) result.resultValue;
+                sourceFile.source = source;
+                return sourceFile; }
+
+            /// These are the second and third passes of the
+            /// `ReportingParseRunner`, which locate and then report the first
+            /// error.
+            if (budget == null) {
+                result = new ReportingParseRunner(rule).run(chars); }
+            else {
+                result = new ErrorLocatingParseRunner(rule, budget).run(chars);
+                if (result.hasErrors()) {
+                    result = new ErrorReportingParseRunner(rule,
+                        ((ParseError) result.parseErrors.get(0)).getStartIndex(),
+                        budget).run(chars); } }
+
+            throw new JLPParseException(result.hasErrors() ?
+                ErrorUtils.printParseErrors(result) :
+                "The input does not match the JLP grammar."); }
+
+        /// Parboiled wraps any exception thrown while matching a rule,
+        /// including the one thrown when the budget is spent.
+        catch (ParserRuntimeException pre) {
+            if (pre.getCause() instanceof ParseBudget.ParseTimeoutException) {
+                throw (ParseBudget.ParseTimeoutException) pre.getCause(); }
+            throw pre; }
+
+        finally { source = null; } }
+
+    /// Parboiled works on a `char[]` of exactly the input's length. Copy the
+    /// input into one directly rather than going through a `String`.
+    static char[] toCharArray(CharSequence input) {
+        if (input instanceof String) { return ((String) input).toCharArray(); }
+
+        char[] chars = new char[input.length()];
+        if (input instanceof CharBuffer) {
+            ((CharBuffer) input).duplicate().get(chars); }
+        else {
+            for (int i = 0; i < chars.length; i++) { chars[i] = input.charAt(i); } }
+        return chars; }
 
     /// ### Parser Rules ###
     /// --------------------
@@ -268,9 +348,9 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
      */
     Rule CodeBlock() {
         return Sequence(
-            push(new CodeBlock(curLineNum)),
+            push(new CodeBlock(curLineNum, source, currentIndex())),
             OneOrMore(Sequence(RemainingCodeLine(),
-                addToCodeBlock(match())))); }
+                addToCodeBlock(matchEnd())))); }
 
     /**
      * #### SDirective
@@ -322,7 +402,7 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
             Optional(Sequence(
                 SDocText(),
                 swap(),
-                push(popAsString() + ((DocText) pop()).value))),
+                push(popAsString() + ((DocText) pop()).getValue()))),
 
             push(new Directive(popAsString(), popAsString(), popAsInt(),
                 (DocBlock)peek()))); }
@@ -348,7 +428,7 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
             Optional(Sequence(
                 MDocText(),
                 swap(),
-                push(popAsString() + ((DocText) pop()).value))),
+                push(popAsString() + ((DocText) pop()).getValue()))),
 
             push(new Directive(popAsString(), popAsString(), popAsInt(),
                 (DocBlock) peek()))); }
@@ -407,10 +487,10 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
      */
     Rule SDocText() {
         return Sequence(
-            push(new DocText(curLineNum)),
+            push(new DocText(curLineNum, source)),
             OneOrMore(Sequence(
                 SDocLineStart(), TestNot(AT), RemainingSDocLine(),
-                addToDocText(match())))); }
+                addToDocText(matchStart(), matchEnd())))); }
 
     /**
      * #### MDocText
@@ -424,11 +504,11 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
      */
     Rule MDocText() {
         return Sequence(
-            push(new DocText(curLineNum)),
+            push(new DocText(curLineNum, source)),
             OneOrMore(Sequence(
                 Optional(MDocLineStart()),
                 TestNot(AT), RemainingMDocLine(),
-                addToDocText(match())))); }
+                addToDocText(matchStart(), matchEnd())))); }
 
     /**
      * #### SDocLineStart
@@ -566,15 +646,15 @@ public class JLPPegParser extends BaseParser<Object> implements JLPParser {
         else { throw new IllegalStateException(); }
         return push(docBlock); }
 
-    boolean addToCodeBlock(String line) {
-        CodeBlock codeBlock = (CodeBlock) pop();
-        codeBlock.lines.put(curLineNum - 1, line);
-        return push(codeBlock); }
+    /// The AST nodes only record where their text is in the source. Note
+    /// that a match ending with `EOI` ends one past the end of the input.
+    boolean addToCodeBlock(int end) {
+        ((CodeBlock) peek()).end = Math.min(end, source.length());
+        return true; }
 
-    boolean addToDocText(String line) {
-        DocText docText = (DocText) pop();
-        docText.value += line;
-        return push(docText); }
+    boolean addToDocText(int start, int end) {
+        ((DocText) peek()).add(start, Math.min(end, source.length()));
+        return true; }
 
     /**
      * #### printValueStack
@@ -0,0 +1,565 @@
+/**
+ * # JLPScanner
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ * @org jlp.jdb-labs.com/JLPScanner
+ */
+package com.jdblabs.jlp;
+
+import com.jdblabs.jlp.ast.*;
+import java.util.List;
+
+/**
+ * JLPScanner is a hand-written implementation of the JLP grammar (see
+ * `doc/grammar.txt`). It recognizes exactly the same language as
+ * [`JLPPegParser`] and builds the same AST, but it works directly on the
+ * input characters instead of going through Parboiled's rule matchers and
+ * value stack. Each rule below is written as a method named after, and
+ * documented with, the corresponding rule in `JLPPegParser`.
+ *
+ * The rules backtrack in exactly the same places as the PEG parser. The
+ * line counter is deliberately *not* restored when a rule fails, because the
+ * PEG parser does not restore it either and we must produce the same line
+ * numbers. In practice the only rule that is ever retried is a `DocBlock` at
+ * the end of the input, so the scan is linear in the size of the input.
+ *
+ * Like the PEG parser, a JLPScanner instance is not thread-safe but can be
+ * reused for any number of inputs.
+ *
+ * [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser
+ */
+public class JLPScanner implements JLPParser {
+
+    /// ### Configuration ###
+    /// Each of the configurable terminals is a list of alternatives, tried
+    /// in order. An empty list never matches (Parboiled's `NOTHING`).
+    private final String[] mdocStarts;
+    private final String[] mdocEnds;
+    private final String mdocLineStarts;
+    private final String[] sdocStarts;
+
+    /// The directive names, in the order the PEG parser tries them.
+    private static final String[] LONG_DIRECTIVES =
+        { "api", "example", "param" };
+    private static final String[] SHORT_DIRECTIVES =
+        { "author", "org", "include", "copyright" };
+
+    /// ### Parse state ###
+    private String in;
+    private int len;
+    private int pos;
+    private int curLineNum;
+
+    /// ### Constructors ###
+    /// These mirror the [`JLPPegParser` constructors][PC] so that the two
+    /// parsers can be configured from the same arguments.
+    ///
+    /// [PC]: jlp://jlp.jdb-labs.com/JLPPegParser/constructors
+
+    public JLPScanner(String mdocStart, String mdocEnd,
+        String mdocLineStart, String sdocStart) {
+
+        this.mdocStarts = new String[] { mdocStart };
+        this.mdocEnds = new String[] { mdocEnd };
+        this.mdocLineStarts = mdocLineStart;
+        this.sdocStarts = new String[] { sdocStart }; }
+
+    public JLPScanner(List<String> mdocStarts, List<String> mdocEnds,
+        String mdocLineStarts, List<String> sdocStarts) {
+
+        this.mdocStarts = mdocStarts.toArray(new String[0]);
+        this.mdocEnds = mdocEnds.toArray(new String[0]);
+        this.mdocLineStarts = mdocLineStarts;
+        this.sdocStarts = sdocStarts.toArray(new String[0]); }
+
+    public JLPScanner(String sdocStart) {
+        this(new String[0], new String[0], "", new String[] { sdocStart }); }
+
+    public JLPScanner(List<String> sdocStarts) {
+        this(new String[0], new String[0], "",
+            sdocStarts.toArray(new String[0])); }
+
+    public JLPScanner() {
+        this("/**", "*/", "!#$%^&*()_-=+|;:'\",<>?~`", "///"); }
+
+    private JLPScanner(String[] mdocStarts, String[] mdocEnds,
+        String mdocLineStarts, String[] sdocStarts) {
+
+        this.mdocStarts = mdocStarts;
+        this.mdocEnds = mdocEnds;
+        this.mdocLineStarts = mdocLineStarts;
+        this.sdocStarts = sdocStarts; }
+
+    /**
+     * #### parse
+     * Parse the given input. Like the PEG parser, we stop at the first point
+     * where no further block can be matched. If not even one block can be
+     * matched the input is rejected.
+     */
+    public SourceFile parse(CharSequence input) {
+        /// The AST refers to the input by offset, so we need our own copy of
+        /// it: the input may be a buffer that is about to be reused.
+        this.in = input.toString();
+        this.len = in.length();
+        this.pos = 0;
+
+        try {
+            SourceFile sourceFile = SourceFile();
+            if (sourceFile == null) {
+                throw new JLPParseException("The input does not match the" +
+                    " JLP grammar (line " + curLineNum + ")."); }
+            sourceFile.source = in;
+            return sourceFile; }
+
+        finally { this.in = null; } }
+
+    /// ### Parser Rules ###
+    /// --------------------
+
+    /**
+     * #### SourceFile
+     *
+     *     SourceFile = (Block / DocBlock / CodeBlock)+
+     */
+    SourceFile SourceFile() {
+        curLineNum = 1;
+        SourceFile sourceFile = new SourceFile();
+
+        Block block;
+        while ((block = SourceFileBlock()) != null) {
+            sourceFile.blocks.add(block); }
+
+        return sourceFile.blocks.isEmpty() ? null : sourceFile; }
+
+    /// One of the three alternatives in `SourceFile`, each resulting in a
+    /// new Block.
+    Block SourceFileBlock() {
+        int start = pos;
+
+        /// A whole Block.
+        Block block = Block();
+        if (block != null) { return block; }
+
+        /// A standalone DocBlock paired with an empty CodeBlock.
+        int lineNum = curLineNum;
+        DocBlock docBlock = DocBlock();
+        if (docBlock != null) {
+            return new Block(new CodeBlock(curLineNum), docBlock, lineNum); }
+        pos = start;
+
+        /// A standalone CodeBlock paired with an empty DocBlock.
+        lineNum = curLineNum;
+        docBlock = new DocBlock(curLineNum);
+        CodeBlock codeBlock = CodeBlock();
+        if (codeBlock != null) {
+            return new Block(codeBlock, docBlock, lineNum); }
+        pos = start;
+
+        return null; }
+
+    /**
+     * #### Block
+     *
+     *     Block = DocBlock CodeBlock
+     */
+    Block Block() {
+        int start = pos;
+        int lineNum = curLineNum;
+
+        DocBlock docBlock = DocBlock();
+        if (docBlock != null) {
+            CodeBlock codeBlock = CodeBlock();
+            if (codeBlock != null) {
+                return new Block(codeBlock, docBlock, lineNum); }}
+
+        pos = start;
+        return null; }
+
+    /**
+     * #### DocBlock
+     *
+     *     DocBlock = SDocBlock / MDocBlock
+     */
+    DocBlock DocBlock() {
+        DocBlock docBlock = SDocBlock();
+        return docBlock != null ? docBlock : MDocBlock(); }
+
+    /**
+     * #### SDocBlock
+     *
+     *     SDocBlock = (SDirective / SDocText)+
+     */
+    DocBlock SDocBlock() {
+        DocBlock docBlock = new DocBlock(curLineNum);
+
+        while (true) {
+            Directive directive = SDirective(docBlock);
+            if (directive != null) {
+                docBlock.directives.add(directive);
+                continue; }
+
+            DocText docText = SDocText();
+            if (docText != null) {
+                docBlock.docTexts.add(docText);
+                continue; }
+
+            break; }
+
+        return docBlock.directives.isEmpty() && docBlock.docTexts.isEmpty() ?
+            null : docBlock; }
+
+    /**
+     * #### MDocBlock
+     *
+     *     MDocBlock = MDOC_START (!MDOC_END (MDirective / MDocText))* MDOC_END
+     */
+    DocBlock MDocBlock() {
+        int start = pos;
+        DocBlock docBlock = new DocBlock(curLineNum);
+
+        int matched = matchAny(mdocStarts, pos);
+        if (matched < 0) { return null; }
+        pos += matched;
+
+        while (matchAny(mdocEnds, pos) < 0) {
+            Directive directive = MDirective(docBlock);
+            if (directive != null) {
+                docBlock.directives.add(directive);
+                continue; }
+
+            DocText docText = MDocText();
+            if (docText != null) {
+                docBlock.docTexts.add(docText);
+                continue; }
+
+            break; }
+
+        matched = matchAny(mdocEnds, pos);
+        if (matched < 0) {
+            pos = start;
+            return null; }
+
+        pos += matched;
+        return docBlock; }
+
+    /**
+     * #### CodeBlock
+     *
+     *     CodeBlock = (RemainingCodeLine)+
+     */
+    CodeBlock CodeBlock() {
+        CodeBlock codeBlock = new CodeBlock(curLineNum, in, pos);
+
+        while (RemainingCodeLine()) { codeBlock.end = pos; }
+
+        return codeBlock.isEmpty() ? null : codeBlock; }
+
+    /**
+     * #### SDirective
+     *
+     *     SDirective = SDocLineStart AT (SLongDirective / SShortDirective)
+     */
+    Directive SDirective(DocBlock docBlock) {
+        int start = pos;
+
+        int afterLineStart = SDocLineStart(pos);
+        if (afterLineStart < 0 || !isAt(afterLineStart)) { return null; }
+        pos = afterLineStart + 1;
+
+        Directive directive = LongDirective(docBlock, false);
+        if (directive == null) { directive = ShortDirective(docBlock, false); }
+        if (directive == null) { pos = start; }
+        return directive; }
+
+    /**
+     * #### MDirective
+     *
+     *     MDirective = MDocLineStart? AT (MLongDirective / MShortDirective)
+     */
+    Directive MDirective(DocBlock docBlock) {
+        int start = pos;
+
+        int afterLineStart = MDocLineStart(pos);
+        if (afterLineStart >= 0) { pos = afterLineStart; }
+
+        if (!isAt(pos)) {
+            pos = start;
+            return null; }
+        pos++;
+
+        Directive directive = LongDirective(docBlock, true);
+        if (directive == null) { directive = ShortDirective(docBlock, true); }
+        if (directive == null) { pos = start; }
+        return directive; }
+
+    /**
+     * #### SLongDirective and MLongDirective
+     *
+     *     SLongDirective =
+     *      (API_DIR / EXAMPLE_DIR / PARAM_DIR) RemainingSDocLine SDocText?
+     *
+     *     MLongDirective =
+     *      (API_DIR / EXAMPLE_DIR / PARAM_DIR) RemainingMDocLine MDocText?
+     */
+    Directive LongDirective(DocBlock docBlock, boolean multiline) {
+        int start = pos;
+        int lineNum = curLineNum;
+
+        String type = matchDirectiveName(LONG_DIRECTIVES);
+        if (type == null) { return null; }
+
+        int valueStart = pos;
+        if (!(multiline ? RemainingMDocLine() : RemainingSDocLine())) {
+            pos = start;
+            return null; }
+
+        String value = in.subSequence(valueStart, pos).toString();
+
+        DocText docText = multiline ? MDocText() : SDocText();
+        if (docText != null) { value = value + docText.getValue(); }
+
+        return new Directive(value, type, lineNum, docBlock); }
+
+    /**
+     * #### SShortDirective and MShortDirective
+     *
+     *     SShortDirective =
+     *       (AUTHOR_DIR / ORG_DIR / INCLUDE_DIR / COPYRIGHT_DIR)
+     *       RemainingSDocLine
+     *
+     *     MShortDirective =
+     *       (AUTHOR_DIR / ORG_DIR / INCLUDE_DIR / COPYRIGHT_DIR)
+     *       RemainingMDocLine
+     */
+    Directive ShortDirective(DocBlock docBlock, boolean multiline) {
+        int start = pos;
+        int lineNum = curLineNum;
+
+        String type = matchDirectiveName(SHORT_DIRECTIVES);
+        if (type == null) { return null; }
+
+        int valueStart = pos;
+        if (!(multiline ? RemainingMDocLine() : RemainingSDocLine())) {
+            pos = start;
+            return null; }
+
+        return new Directive(in.subSequence(valueStart, pos).toString().trim(),
+            type, lineNum, docBlock); }
+
+    /**
+     * #### SDocText
+     *
+     *     SDocText = (SDocLineStart !AT RemainingSDocLine)+
+     */
+    DocText SDocText() {
+        DocText docText = new DocText(curLineNum, in);
+        boolean matched = false;
+
+        while (true) {
+            int afterLineStart = SDocLineStart(pos);
+            if (afterLineStart < 0 || isAt(afterLineStart)) { break; }
+
+            int lineStart = pos;
+            pos = afterLineStart;
+            if (!RemainingSDocLine()) {
+                pos = lineStart;
+                break; }
+
+            docText.add(afterLineStart, pos);
+            matched = true; }
+
+        return matched ? docText : null; }
+
+    /**
+     * #### MDocText
+     *
+     *     MDocText = (MDocLineStart? !AT RemainingMDocLine)+
+     */
+    DocText MDocText() {
+        DocText docText = new DocText(curLineNum, in);
+        boolean matched = false;
+
+        while (true) {
+            int lineStart = pos;
+            int afterLineStart = MDocLineStart(pos);
+            if (afterLineStart < 0) { afterLineStart = pos; }
+            if (isAt(afterLineStart)) { break; }
+
+            pos = afterLineStart;
+            if (!RemainingMDocLine()) {
+                pos = lineStart;
+                break; }
+
+            docText.add(afterLineStart, pos);
+            matched = true; }
+
+        return matched ? docText : null; }
+
+    /**
+     * #### SDocLineStart
+     *
+     *     SDocLineStart = SPACE* SDOC_START SPACE?
+     *
+     * Returns the position after the match, or -1 if it does not match.
+     */
+    int SDocLineStart(int p) {
+        p = skipSpaces(p);
+
+        int matched = matchAny(sdocStarts, p);
+        if (matched < 0) { return -1; }
+        p += matched;
+
+        return isSpace(p) ? p + 1 : p; }
+
+    /**
+     * #### MDocLineStart
+     *
+     *     MDocLineStart = SPACE* !MDOC_END MDOC_LINE_START SPACE?
+     *
+     * Returns the position after the match, or -1 if it does not match.
+     */
+    int MDocLineStart(int p) {
+        p = skipSpaces(p);
+
+        if (matchAny(mdocEnds, p) >= 0) { return -1; }
+        if (p >= len || mdocLineStarts.indexOf(in.charAt(p)) < 0) {
+            return -1; }
+        p++;
+
+        return isSpace(p) ? p + 1 : p; }
+
+    /**
+     * #### RemainingSDocLine
+     *
+     *     RemainingSDocLine = ((!EOL)* EOL) / ((!EOL)+ EOI)
+     */
+    boolean RemainingSDocLine() {
+        int p = pos;
+        while (p < len && eolLength(p) == 0) { p++; }
+
+        int eol = eolLength(p);
+        if (eol > 0) { pos = p + eol; curLineNum++; return true; }
+
+        /// No EOL, so we are at the end of the input.
+        if (p > pos) { pos = p; curLineNum++; return true; }
+
+        return false; }
+
+    /**
+     * #### RemainingMDocLine
+     *
+     *     RemainingMDocLine =
+     *      ((!(EOL / MDOC_END))* EOL) /
+     *      ((!MDOC_END)+)
+     *
+     * The second alternative can only be reached if the first stopped at
+     * `MDOC_END` or the end of the input, so both stop at the same place.
+     */
+    boolean RemainingMDocLine() {
+        int p = pos;
+        while (p < len && eolLength(p) == 0 && matchAny(mdocEnds, p) < 0) {
+            p++; }
+
+        int eol = eolLength(p);
+        if (eol > 0) { pos = p + eol; curLineNum++; return true; }
+
+        if (p > pos) { pos = p; return true; }
+
+        return false; }
+
+    /**
+     * #### RemainingCodeLine
+     *
+     *     RemainingCodeLine =
+     *      ((!(EOL / MDOC_START / SDocLineStart))* EOL) /
+     *      (!(MDOC_START / SDocLineStart))+
+     *
+     * As with `RemainingMDocLine`, both alternatives stop at the same place.
+     */
+    boolean RemainingCodeLine() {
+        int p = pos;
+
+        while (p < len) {
+            char c = in.charAt(p);
+            if (c == '\n' || c == '\r') { break; }
+            if (matchAny(mdocStarts, p) >= 0) { break; }
+
+            /// Every position in a run of spaces is the start of an
+            /// `SDocLineStart` if the run is followed by `SDOC_START`, so we
+            /// only need to look past the run once.
+            if (c == ' ' || c == '\t') {
+                int runEnd = skipSpaces(p);
+                if (matchAny(sdocStarts, runEnd) >= 0) { break; }
+
+                for (p++; p < runEnd && matchAny(mdocStarts, p) < 0; p++) {}
+                continue; }
+
+            if (matchAny(sdocStarts, p) >= 0) { break; }
+            p++; }
+
+        int eol = eolLength(p);
+        if (eol > 0) { pos = p + eol; curLineNum++; return true; }
+
+        if (p > pos) { pos = p; return true; }
+
+        return false; }
+
+    /// ### Terminals and Helper Functions ###
+    /// --------------------------------------
+
+    /// `EOL = "\r\n" / "\n" / "\r"`. Returns the length of the EOL at the
+    /// given position, or 0 if there is none.
+    private int eolLength(int p) {
+        if (p >= len) { return 0; }
+        char c = in.charAt(p);
+        if (c == '\r') {
+            return (p + 1 < len && in.charAt(p + 1) == '\n') ? 2 : 1; }
+        return c == '\n' ? 1 : 0; }
+
+    private boolean isAt(int p) { return p < len && in.charAt(p) == '@'; }
+
+    private boolean isSpace(int p) {
+        if (p >= len) { return false; }
+        char c = in.charAt(p);
+        return c == ' ' || c == '\t'; }
+
+    private int skipSpaces(int p) {
+        while (isSpace(p)) { p++; }
+        return p; }
+
+    /// Match the first of the given strings found at `p`, returning the
+    /// length of the match or -1 if none matched.
+    private int matchAny(String[] alternatives, int p) {
+        for (String alt : alternatives) {
+            if (matchString(alt, p)) { return alt.length(); }}
+        return -1; }
+
+    private boolean matchString(String s, int p) {
+        int n = s.length();
+        if (p + n > len) { return false; }
+        for (int i = 0; i < n; i++) {
+            if (in.charAt(p + i) != s.charAt(i)) { return false; }}
+        return true; }
+
+    /// Match one of the directive names (case-insensitively, the same way
+    /// Parboiled's `IgnoreCase` does), advancing past it and returning the
+    /// name as it appears in the input.
+    private String matchDirectiveName(String[] names) {
+        for (String name : names) {
+            int n = name.length();
+            if (pos + n > len) { continue; }
+
+            int i = 0;
+            for (; i < n; i++) {
+                char c = in.charAt(pos + i);
+                char lower = Character.toLowerCase(name.charAt(i));
+                char upper = Character.toUpperCase(name.charAt(i));
+                if (c != lower && c != upper) { break; }}
+
+            if (i == n) {
+                String matched = in.subSequence(pos, pos + n).toString();
+                pos += n;
+                return matched; }}
+
+        return null; }
+}
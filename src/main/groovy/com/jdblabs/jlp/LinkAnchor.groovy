@@ -30,4 +30,11 @@ public class LinkAnchor {
     public ASTNode source
     public String sourceDocId
 
+    /// The page of its document the anchor is on. Only documents split over
+    /// several pages (see [`Processor.pageLines`][PL]) have pages after the
+    /// first.
+    ///
+    /// [PL]: jlp://jlp.jdb-labs.com/Processor/pageLines
+    public int page = 0
+
 }
@@ -9,9 +9,6 @@ import com.jdblabs.jlp.ast.*
 import com.jdblabs.jlp.LinkAnchor.LinkType
 import com.jdblabs.jlp.ast.Directive.DirectiveType
 
-import org.pegdown.Extensions
-import org.pegdown.PegDownProcessor
-
 import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4 as escape
 
 import java.util.List
@@ -26,15 +23,25 @@ import java.util.List
  */
 public class LiterateMarkdownGenerator extends JLPBaseGenerator {
 
-    /// We will use the [PegDown](https://github.com/sirthias/pegdown) library
-    /// for generating the Markdown output.
-    protected PegDownProcessor pegdown
+    /// We use the processor's shared [`MarkdownRenderer`] for generating the
+    /// Markdown output.
+    ///
+    /// [`MarkdownRenderer`]: jlp://jlp.jdb-labs.com/MarkdownRenderer
+    protected MarkdownRenderer markdownRenderer
+
+    /// The processor's [`PageTemplate`], and the skeleton of it for the
+    /// document we last emitted.
+    ///
+    /// [`PageTemplate`]: jlp://jlp.jdb-labs.com/PageTemplate
+    protected PageTemplate pageTemplate
+    protected PageTemplate.Skeleton skeleton
+    protected TargetDoc skeletonDoc
 
     public LiterateMarkdownGenerator(Processor processor) {
         super(processor)
 
-        pegdown = new PegDownProcessor(
-            Extensions.TABLES | Extensions.DEFINITIONS) }
+        markdownRenderer = processor.markdownRenderer
+        pageTemplate = processor.pageTemplate }
 
     //  ===================================
     /** ### Parse phase implementation. ###  */
@@ -42,8 +49,14 @@ public class LiterateMarkdownGenerator extends JLPBaseGenerator {
 
     /** Override the parse phase for [`SourceFile`] nodes. We are interested in
       * detecting an `org` directive in the first DocBlock, or automatically
-      * creating one if it is not defined. The first `org` directive (found or
-      * created) will create a FileLink type LinkAnchor.
+      * creating a link anchor named after the document if it is not defined.
+      * The first `org` directive (or the anchor we create) will be a FileLink
+      * type LinkAnchor.
+      *
+      * We do not add a directive to the AST for the anchor we create: the
+      * AST of a source file is shared with any identical copies of it (see
+      * [`Processor`](jlp://jlp.jdb-labs.com/Processor/dedup)), each of which
+      * needs an anchor of its own.
       */
 
     protected void parse(SourceFile sourceFile) {
@@ -51,17 +64,18 @@ public class LiterateMarkdownGenerator extends JLPBaseGenerator {
         def firstOrg = sourceFile.blocks[0].docBlock.directives.find {
             it.type == DirectiveType.Org }
 
-        /// And we create one if there are none.
-        if (!firstOrg) {
-            def docBlock = sourceFile.blocks[0].docBlock
-            firstOrg = new Directive(processor.currentDocId, 'org', 0, docBlock)
-            docBlock.directives << firstOrg }
-
         /// Now parse the file as usual.
         super.parse(sourceFile)
 
-        /// And mark the first `org` as a FileLink
-        processor.linkAnchors[firstOrg.value].type = LinkType.FileLink}
+        /// And mark the first `org` as a FileLink, or create one if there are
+        /// none.
+        if (firstOrg) {
+            processor.linkAnchors[firstOrg.value].type = LinkType.FileLink }
+        else {
+            processor.linkAnchors[currentDoc.sourceDocId] = new LinkAnchor(
+                id: currentDoc.sourceDocId,
+                type: LinkType.FileLink,
+                sourceDocId: currentDoc.sourceDocId) }}
 
     /** Override the parse phase for [`DocBlock`] nodes. We are interested in
       * detecting a block that has multilple `org` directives. When there are
@@ -102,7 +116,7 @@ public class LiterateMarkdownGenerator extends JLPBaseGenerator {
                 LinkAnchor anchor = new LinkAnchor(
                     id: directive.value,
                     source: directive,
-                    sourceDocId: processor.currentDocId)
+                    sourceDocId: currentDoc.sourceDocId)
 
                 processor.linkAnchors[anchor.id] = anchor
                 break;
@@ -125,71 +139,120 @@ public class LiterateMarkdownGenerator extends JLPBaseGenerator {
     //  ==================================
 
     /** @api Emit a [`SourceFile`].
-      * Each [`SourceFile`] becomes one ouput HTML file. This method is the
-      * entry point for a file to be emitted.
+      * Each [`SourceFile`] becomes one ouput HTML file, or one for each page
+      * if the document has been split over several pages (see
+      * [`Processor.paginate`]). This method is the entry point for a file (or
+      * a page of it) to be emitted.
       *
       * [`SourceFile`]: jlp://jlp.jdb-labs.com/ast/SourceFile
+      * [`Processor.paginate`]: jlp://jlp.jdb-labs.com/Processor/paginate
       */
-    protected String emit(SourceFile sourceFile) {
-        StringBuilder sb = new StringBuilder()
-
-
-        /// Create the HTML head and begin the body. 
-        sb.append(
-"""<!DOCTYPE html>
-<html>
-    <head>
-        <title>${escape(processor.currentDocId)}</title>
-        <meta http-equiv="content-type" content="text/html; charset=UTF-8">
-        <link type="text/css" rel="stylesheet" media="all"
-            href="${resolveLink('/.css/jlp.css')}"></link>
-
-        <!-- syntax highlighting plugin -->
-        <link type="text/css" rel="stylesheet" media="all"
-            href="${resolveLink('/.sh/styles/shCoreDefault.css')}"></link>
+    protected void emit(SourceFile sourceFile, Appendable out) {
+
+        /// Find the blocks on this page.
+        List blocks = sourceFile.blocks
+        boolean paged = currentPage >= 0 && currentDoc.pageCount > 1
+
+        if (paged) {
+            int end = currentPage + 1 < currentDoc.pageCount ?
+                currentDoc.pageStarts[currentPage + 1] : blocks.size()
+            blocks = blocks.subList(currentDoc.pageStarts[currentPage], end) }
+
+        /// Write the page from its [`PageTemplate`], filling in the slots for
+        /// this page. The text around them is the same for every document of
+        /// this type at this depth in the tree, but differs between copies
+        /// of a document, so it is written as document-specific output (see
+        /// `docSpecific`).
+        ///
+        /// [`PageTemplate`]: jlp://jlp.jdb-labs.com/PageTemplate
+        List<String> slots = skeleton().slots
+        for (int i = 0; i < slots.size(); i++) {
+            appendDocSpecific(out, 'skeleton', i.toString())
+
+            switch (slots[i]) {
+                case 'title': appendDocSpecific(out, 'title', null); break
+                case 'pageNav': if (paged) { emitPageNav(out) }; break
+
+                /// Emit all of the blocks in the body of the html file.
+                case 'body': blocks.each { block -> emit(block, out) }; break } }
+
+        appendDocSpecific(out, 'skeleton', slots.size().toString()) }
+
+    /** Get the skeleton of the page template for the current document (see
+      * [`PageTemplate.Skeleton`]). It only depends on the source type of the
+      * document and the relative path to the root of the documentation, so
+      * it is only looked up once for each document.
+      *
+      * [`PageTemplate.Skeleton`]: jlp://jlp.jdb-labs.com/PageTemplate/Skeleton
+      */
+    protected PageTemplate.Skeleton skeleton() {
+        if (!skeletonDoc.is(currentDoc)) {
+            String root = resolveLink('/')
+            skeleton = pageTemplate.skeleton(currentDoc.sourceType, root) {
+                highlighterScripts(root) }
+            skeletonDoc = currentDoc }
+
+        return skeleton }
+
+    /** Emit the links to the previous and next pages of a document that is
+      * split over several pages. */
+    protected void emitPageNav(Appendable out) {
+        out.append('\n            <div class="pages">')
+
+        if (currentPage > 0) {
+            out.append("<a class='prev' href='")
+            appendDocSpecific(out, 'page', (currentPage - 1).toString())
+            out.append("'>&laquo; Previous</a> ") }
+
+        out.append("Page ${currentPage + 1} of ${currentDoc.pageCount}")
+
+        if (currentPage + 1 < currentDoc.pageCount) {
+            out.append(" <a class='next' href='")
+            appendDocSpecific(out, 'page', (currentPage + 1).toString())
+            out.append("'>Next &raquo;</a>") }
+
+        out.append('</div>') }
+
+    /** The scripts that highlight the code of the current document in the
+      * browser, for the `${scripts}` slot of the page template. They are not
+      * needed when we highlight the code as we generate it. */
+    protected String highlighterScripts(String root) {
+        if (processor.highlight == 'server') { return '' }
+
+        StringBuilder out = new StringBuilder()
+        out.append('''
         <script type="text/javascript"
-            src="${resolveLink('/.sh/scripts/XRegExp.js')}"></script>
+            src="''')
+        out.append(root).append('.sh/scripts/XRegExp.js')
+        out.append('''"></script>
         <script type="text/javascript"
-            src="${resolveLink('/.sh/scripts/shCore.js')}"></script>""")
+            src="''')
+        out.append(root).append('.sh/scripts/shCore.js')
+        out.append('"></script>')
 
         /// If there is a language-specific brush, include it
         def shBrush = processor.shBrushForSourceType(
-            processor.currentDoc.sourceType)
+            currentDoc.sourceType)
 
-        if (shBrush) { sb.append("""
+        if (shBrush) {
+            out.append('''
 
         <script type="text/javascript"
-            src="${resolveLink('/.sh/scripts/' + shBrush + '.js')}"></script>""") }
+            src="''')
+            out.append(root).append('.sh/scripts/' + shBrush + '.js')
+            out.append('"></script>') }
 
-        /// Finish our header and begin the body.
-        sb.append("""
+        out.append("""
         <script type="text/javascript">
             SyntaxHighlighter.defaults.light = true;
             SyntaxHighlighter.defaults.unindent = false;
             SyntaxHighlighter.all();
-        </script>
-    </head>
-    <body>
-        <div id="container">
-            <table cellpadding="0" cellspacing="0">
-                <tbody>""")
-
-        /// Emit all of the blocks in the body of the html file.
-        sourceFile.blocks.each { block -> sb.append(emit(block)) }
-
-        /// Create the HTML footer.
-        sb.append(
-"""                </tbody>
-            </table>
-        </div>
-    </body>
-</html>""")
-
-        return sb.toString() }
+        </script>""")
+
+        return out.toString() }
 
     /** @api Emit a [`Block`](jlp://jlp.jdb-labs.com/ast/Block). */
-    protected String emit(Block block) {
-        StringBuilder sb = new StringBuilder()
+    protected void emit(Block block, Appendable out) {
 
         /// Look for an `@org` directive in the `Block` that is marked as a
         /// block link (we may have many `orgs` in a block that are not block
@@ -201,89 +264,99 @@ public class LiterateMarkdownGenerator extends JLPBaseGenerator {
         /// Create the `tr` that will hold the `Block`. If we found an `@org`
         /// directive we will add the id here.
         // TODO: should this be escaped?
-        if (orgDir) { sb.append("\n<tr id='${orgDir.value}'>") }
-        else        { sb.append("<tr>") }
+        if (orgDir) { out.append("\n<tr id='${orgDir.value}'>") }
+        else        { out.append("<tr>") }
 
         /// Create the `td` for the documentation.
-        sb.append('\n<td class="docs">')
-        sb.append(emit(block.docBlock))
-        sb.append('</td>')
+        out.append('\n<td class="docs">')
+        emit(block.docBlock, out)
+        out.append('</td>')
 
         /// Create the `td` for the `CodeBlock`
-        sb.append('\n<td class="code">')
-        sb.append(emit(block.codeBlock))
-        sb.append('</td>')
+        out.append('\n<td class="code">')
+        emit(block.codeBlock, out)
+        out.append('</td>')
 
         /// Close the table row.
-        sb.append('</tr>') }
+        out.append('</tr>') }
 
     /** @api Emit a [`DocBlock`](jlp://jlp.jdb-labs.com/ast/DocBlock). */
-    protected String emit(DocBlock docBlock) {
+    protected void emit(DocBlock docBlock, Appendable out) {
         /// Create a queue for the doc block elements, we are going to 
         /// sort them by type and line number
         List emitQueue 
 
-        /// Later we will need a string builder to hold our result.
-        StringBuilder sb
-
         /** We want to treat the whole block as one markdown chunk so we will
           * concatenate the directives and texts and send the whole block at
-          * once to the markdown processor.
+          * once to the markdown processor. The Markdown source for one block
+          * is small, so we collect it in its own string builder.
           */
         emitQueue = docBlock.directives + docBlock.docTexts
         emitQueue.sort { it.lineNumber }
     
-        sb = new StringBuilder()
-        emitQueue.each { queueItem -> sb.append(emit(queueItem)) } 
+        StringBuilder markdown = new StringBuilder()
+        emitQueue.each { queueItem -> emit(queueItem, markdown) } 
 
-        return processMarkdown(sb.toString())
-    }
+        writeMarkdown(markdown.toString(), out) }
 
     /** @api Emit a [`CodeBlock`](jlp://jlp.jdb-labs.com/ast/CodeBlock). */
-    protected String emit(CodeBlock codeBlock) {
-        def codeLines
-
-        /// Collect the lines into an array.
-        codeLines = codeBlock.lines.collect { lineNumber, line ->
-            [lineNumber, line] }
+    protected void emit(CodeBlock codeBlock, Appendable out) {
+        /// When highlighting as we generate, write out the highlighted code
+        /// if there is a [`CodeHighlighter`] for this source type.
+        ///
+        /// [`CodeHighlighter`]: jlp://jlp.jdb-labs.com/CodeHighlighter
+        if (processor.highlight == 'server') {
+            def highlighter = CodeHighlighter.forSourceType(currentDoc.sourceType)
+            if (highlighter) {
+                BuildMetrics.DocMetrics m = currentDoc.metrics
+                long start = m ? System.nanoTime() : 0
 
-        /// Sort by line number.
-        codeLines.sort { i1, i2 -> i1[0] <=> i2[0] }
+                highlighter.highlight(codeBlock.text, out)
 
-        codeLines = codeLines.collect { arr -> arr[1] }
+                if (m) { m.highlightTime += System.nanoTime() - start }
+                return } }
 
-        /// Write out the lines in a `<pre>` block
-        return "<pre class=\"brush: ${processor.currentDoc.sourceType};\">" +
-            "${escape(codeLines.join(''))}</pre>" }
+        /// Otherwise write out the code in a `<pre>` block for the browser to
+        /// highlight. The code block is one contiguous piece of the source
+        /// file.
+        out.append("<pre class=\"brush: ${currentDoc.sourceType};\">")
+        out.append(escape(codeBlock.text.toString()))
+        out.append("</pre>") }
 
     /** @api Emit a [`DocText`](jlp://jlp.jdb-labs.com/ast/DocText). */
-    protected String emit(DocText docText) { return docText.value }
+    protected void emit(DocText docText, Appendable out) {
+        docText.appendTo(out) }
 
     /** @api Emit a [`Directive`](jlp://jlp.jdb-labs.com/ast/Directive). */
-    protected String emit(Directive directive) {
+    protected void emit(Directive directive, Appendable out) {
         switch(directive.type) {
 
             /** An `@api` directive is immediately processed and wrapped in a
               * div (we need to process this now because Markdown does not
               * process input inside HTML elements). */
             case DirectiveType.Api:
-                return "<div class='api'>" +
-                    processMarkdown(directive.value) + "</div>\n"
+                out.append("<div class='api'>")
+                out.append(processMarkdown(directive.value))
+                out.append("</div>\n")
+                break
 
             /// `@author` directive is turned into a definition list.
             case DirectiveType.Author:
-                return "Author\n:   ${directive.value}\n"
+                out.append("Author\n:   ${directive.value}\n")
+                break
 
             case DirectiveType.Copyright:
-                return "\n&copy; ${directive.value}\n"
+                out.append("\n&copy; ${directive.value}\n")
+                break
 
             /// An `@example` directive is returned as is.
             case DirectiveType.Example:
-                return directive.value
+                out.append(directive.value)
+                break
 
             case DirectiveType.Param:
-                return "" // TODO: can we do better here, even though we're
-                           // not understanding the source yet?
+                break // TODO: can we do better here, even though we're
+                      // not understanding the source yet?
             // TODO:
             // case DirectiveType.Include:
 
@@ -294,28 +367,90 @@ public class LiterateMarkdownGenerator extends JLPBaseGenerator {
             case DirectiveType.Org: 
                 def link = processor.linkAnchors[directive.value]
                 if (link.type == LinkType.InlineLink) {
-                    return "<a id='${directive.value}'></a>\n" }
-                else { return "" }}}
+                    out.append("<a id='${directive.value}'></a>\n") }
+                break }}
 
     /** This is a helper method to process a block of text as Markdown. We need
       * to do some additional processing to deal with `jlp://` org links that
       * may be present. */
     protected String processMarkdown(String markdown) {
+        StringBuilder html = new StringBuilder()
+        writeMarkdown(markdown, html)
+        return html.toString() }
+
+    /** As above, but the HTML is written straight to `out`. */
+    protected void writeMarkdown(String markdown, Appendable out) {
+
+        /// If we are profiling, the time spent rendering the Markdown and
+        /// resolving the links is recorded on the document's metrics.
+        BuildMetrics.DocMetrics m = currentDoc.metrics
+        long start = m ? System.nanoTime() : 0
 
-        /// Convert to HTML from Markdown
-        String html = pegdown.markdownToHtml(markdown)
+        /// Convert to HTML from Markdown. The renderer gives us the HTML
+        /// split at each `jlp://` link.
+        String[] parts = markdownRenderer.render(markdown).parts
+
+        if (m) { m.markdownTime += System.nanoTime() - start }
 
         /// Replace internal `jlp://` links with actual links based on`@org`
-        /// references.
-        html = html.replaceAll(/href=['"](jlp:\/\/[^\s"']+)['"]/) { match, link->
-            return 'href="' + resolveLink(link) + '"' }
+        /// references (see `docSpecific`).
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 0) { out.append(parts[i]) }
+            else { appendDocSpecific(out, 'link', parts[i]) } } }
+
+    /**
+     * #### docSpecific
+     * The parts of the output that depend on the document (see
+     * [`JLPBaseGenerator`](jlp://jlp.jdb-labs.com/JLPBaseGenerator/doc-specific)).
+     * They are:
+     *
+     * `title`
+     *   ~ the title of the page, the document id (and page number).
+     * `skeleton`
+     *   ~ a piece of the text around the slots of the page template, which
+     *     holds the relative paths to the stylesheets and scripts.
+     * `link`
+     *   ~ the href of a `jlp://` link.
+     * `page`
+     *   ~ the file name of another page of the document.
+     */
+    protected String docSpecific(String kind, String arg) {
+        switch (kind) {
+            case 'title':
+                String title = currentDoc.sourceDocId
+                if (currentPage >= 0 && currentDoc.pageCount > 1) {
+                    title += " (${currentPage + 1} of ${currentDoc.pageCount})" }
+                return escape(title)
+
+            case 'skeleton': return skeleton().text[arg as int]
+
+            case 'link':
+                /// We also remember what each link resolved to so that an
+                /// incremental build can tell when this document needs to be
+                /// emitted again. For a document split over several pages
+                /// that is what the link resolves to from outside any one
+                /// page, which does not depend on the page the link is on.
+                BuildMetrics.DocMetrics m = currentDoc.metrics
+                long start = m ? System.nanoTime() : 0
+
+                String href = resolveLink(arg)
+                currentDoc.linkTargets[arg] = currentDoc.pageCount == 1 ?
+                    href : processor.resolveLink(arg, currentDoc)
+
+                if (m) { m.linkTime += System.nanoTime() - start }
+                return href
+
+            case 'page':
+                return processor.pageFileName(currentDoc, arg as int)
 
-        return html; }
+            default:
+                throw new IllegalArgumentException(
+                    "Unknown kind of document-specific output: '${kind}'.") } }
 
-    /// Shortcut for [`processor.resolveLink(url, processor.currentDoc)`][RL].
+    /// Shortcut for [`processor.resolveLink(url, currentDoc, currentPage)`][RL].
     ///
     /// [RL]: jlp://jlp.jdb-labs.com/Processor/resolveLink
     protected String resolveLink(String url) {
-        processor.resolveLink(url, processor.currentDoc) }
+        processor.resolveLink(url, currentDoc, currentPage) }
 
 }
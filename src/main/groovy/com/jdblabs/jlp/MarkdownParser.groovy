@@ -21,7 +21,7 @@ import com.jdblabs.jlp.ast.*
  */
 public class MarkdownParser implements JLPParser {
 
-    public SourceFile parse(String input) {
+    public SourceFile parse(CharSequence input) {
 
         /*** Our AST structure will look like this:
            *
@@ -32,13 +32,13 @@ public class MarkdownParser implements JLPParser {
            *             <file-contents>
            *         CodeBlock
            */
-        def sourceFile = new SourceFile()
+        def sourceFile = new SourceFile(source: input.toString())
         def block
         def docBlock = new DocBlock(0)
         def codeBlock = new CodeBlock(0)
-        def docText = new DocText(0)
+        def docText = new DocText(0, sourceFile.source)
 
-        docText.value = input
+        docText.add(0, sourceFile.source.length())
         docBlock.docTexts << docText
         block = new Block(codeBlock, docBlock, 0)
         sourceFile.blocks << block
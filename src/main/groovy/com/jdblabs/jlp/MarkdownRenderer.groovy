@@ -0,0 +1,167 @@
+/**
+ * # MarkdownRenderer
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+import org.pegdown.Extensions
+import org.pegdown.Parser
+import org.pegdown.PegDownProcessor
+
+/**
+ * The MarkdownRenderer turns Markdown into HTML for the generators. One
+ * renderer is shared by all of the generators of a [`Processor`], across
+ * threads.
+ *
+ * [PegDown] processors are expensive to create and can only be used by one
+ * thread at a time, so the renderer keeps a pool of them. At most
+ * `poolSize` processors are ever created. A thread that needs one while all
+ * of them are in use waits for one to be returned.
+ *
+ * The rendered HTML is cached, keyed by a hash of the Markdown text (see
+ * [`BuildManifest.hash`]), so the cache does not hold on to the text itself.
+ * Doc blocks repeat a lot (license headers, `@author` and `@copyright`
+ * lines), and each repeat is only rendered once. The cache holds at most
+ * `cacheSize` entries, dropping the least recently used when it is full. A
+ * renderer lives as long as its `Processor`, which in `--watch` and
+ * `--serve` is as long as the process, so the blocks being edited have to
+ * be able to push out the ones that no longer exist.
+ *
+ * The HTML for a document can not be cached as-is, because the `jlp://`
+ * links in it resolve differently depending on the document it appears in.
+ * So the rendered HTML is split at each `jlp://` link into a
+ * [`RenderedMarkdown`], and the links are substituted each time it is
+ * written out.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * [`BuildManifest.hash`]: jlp://jlp.jdb-labs.com/BuildManifest
+ * [PegDown]: https://github.com/sirthias/pegdown
+ * [`RenderedMarkdown`]: jlp://jlp.jdb-labs.com/MarkdownRenderer/RenderedMarkdown
+ * @org jlp.jdb-labs.com/MarkdownRenderer
+ */
+public class MarkdownRenderer {
+
+    /// The PegDown extensions we use.
+    public static final int EXTENSIONS = Extensions.TABLES | Extensions.DEFINITIONS
+
+    /// Matches the `jlp://` links in the rendered HTML.
+    private static final Pattern JLP_HREF =
+        Pattern.compile(/href=['"](jlp:\/\/[^\s"']+)['"]/)
+
+    /// The maximum number of PegDown processors to create.
+    public final int poolSize
+
+    /// The maximum number of rendered blocks to cache. 0 disables the cache.
+    public final int cacheSize
+
+    protected BlockingQueue<PegDownProcessor> pool
+    protected AtomicInteger created = new AtomicInteger()
+
+    private static boolean parserClassLoaded
+
+    /// Rendered blocks by the hash of their Markdown, least recently used
+    /// first.
+    protected LinkedHashMap<String, RenderedMarkdown> cache
+
+    public MarkdownRenderer() {
+        this(Runtime.runtime.availableProcessors(), 10000) }
+
+    public MarkdownRenderer(int poolSize, int cacheSize) {
+        this.poolSize = Math.max(poolSize, 1)
+        this.cacheSize = cacheSize
+        this.pool = new ArrayBlockingQueue<PegDownProcessor>(this.poolSize)
+
+        /// Inside the map a bare `cacheSize` would be looked up as a key.
+        int maxEntries = cacheSize
+        this.cache = new LinkedHashMap<String, RenderedMarkdown>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+            Map.Entry<String, RenderedMarkdown> eldest) {
+                return size() > maxEntries } } }
+
+    /**
+     * #### render
+     * @api Render the given Markdown, returning the cached result if we have
+     * one.
+     */
+    public RenderedMarkdown render(String markdown) {
+        if (cacheSize <= 0) { return renderUncached(markdown) }
+
+        String key = BuildManifest.hash(markdown.getBytes("UTF-8"))
+        RenderedMarkdown rendered
+        synchronized (cache) { rendered = cache.get(key) }
+        if (rendered != null) { return rendered }
+
+        rendered = renderUncached(markdown)
+        synchronized (cache) { cache.put(key, rendered) }
+
+        return rendered }
+
+    protected RenderedMarkdown renderUncached(String markdown) {
+        return RenderedMarkdown.split(withPegDown { pegdown ->
+            pegdown.markdownToHtml(markdown) }) }
+
+    /**
+     * #### withPegDown
+     * Borrow a PegDown processor from the pool for the duration of the given
+     * closure.
+     */
+    protected def withPegDown(Closure c) {
+        PegDownProcessor pegdown = pool.poll()
+
+        if (pegdown == null) {
+            if (created.incrementAndGet() <= poolSize) {
+                loadParserClass()
+                pegdown = new PegDownProcessor(EXTENSIONS) }
+            else {
+                created.decrementAndGet()
+                pegdown = pool.take() } }
+
+        try { return c(pegdown) }
+        finally { pool.offer(pegdown) } }
+
+    /**
+     * #### loadParserClass
+     * Make sure PegDown's parser class is loaded before PegDown creates its
+     * first parser, so that the class generated at build time is used. See
+     * [`ParserClassGenerator`](jlp://jlp.jdb-labs.com/ParserClassGenerator).
+     */
+    protected static synchronized void loadParserClass() {
+        if (!parserClassLoaded) {
+            ParserClassGenerator.loadParserClass(Parser)
+            parserClassLoaded = true } }
+
+    /**
+     * ### RenderedMarkdown
+     * The HTML rendered for one piece of Markdown, split at each `jlp://`
+     * link. `parts` alternates between literal HTML and links: every odd
+     * element is a `jlp://` link, to be replaced by the href it resolves to.
+     * @org jlp.jdb-labs.com/MarkdownRenderer/RenderedMarkdown
+     */
+    public static class RenderedMarkdown {
+        public final String[] parts
+
+        public RenderedMarkdown(String[] parts) { this.parts = parts }
+
+        /// Split rendered HTML at its `jlp://` links. Each link's
+        /// `href='...'` attribute is always written back with double quotes.
+        public static RenderedMarkdown split(String html) {
+            List<String> parts = []
+            Matcher m = JLP_HREF.matcher(html)
+            String prefix = ''
+            int last = 0
+
+            while (m.find()) {
+                parts << prefix + html.substring(last, m.start()) + 'href="'
+                parts << m.group(1)
+                prefix = '"'
+                last = m.end() }
+
+            parts << prefix + html.substring(last)
+            return new RenderedMarkdown(parts as String[]) } }
+}
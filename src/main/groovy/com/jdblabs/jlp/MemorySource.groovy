@@ -0,0 +1,34 @@
+/**
+ * # MemorySource
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+/**
+ * @api MemorySource is a data class for a source file held in memory rather
+ * than on disk, to be documented by
+ * [`Processor.build`](jlp://jlp.jdb-labs.com/Processor/build).
+ * @org jlp.jdb-labs.com/MemorySource
+ */
+public class MemorySource {
+
+    /// The path of the source, relative to the root of the sources, with `/`
+    /// as the separator (`src/main/java/Foo.java`, for example). Its
+    /// documentation is written to the same path with `.html` added, and
+    /// links between the documents are relative to these paths.
+    public String id
+
+    /// The source code type (ie. `java`, `erlang`, etc.). If it is not given,
+    /// it is found from the extension of the `id`, as for files. See
+    /// [`Processor.sourceTypeForName`](jlp://jlp.jdb-labs.com/Processor/sourceTypeForFile).
+    public String sourceType
+
+    /// The contents of the source.
+    public CharSequence text
+
+    /// The directory the sources are treated as being in. It does not exist:
+    /// it only gives the sources the canonical paths that link resolution
+    /// works with.
+    public static final String ROOT = '/jlp-memory'
+}
@@ -0,0 +1,79 @@
+/**
+ * # OutputSink
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.nio.charset.Charset
+import java.nio.charset.StandardCharsets
+
+/**
+ * An OutputSink is where the [`Processor`] writes the documentation: the
+ * pages for each document, the copied sources, the CSS and the syntax
+ * highlighter files. Every file is named by its path relative to the root
+ * of the output, with `/` as the separator.
+ *
+ * There are two kinds of sink:
+ *
+ * [`DirectorySink`]
+ *   ~ writes each file to the output directory. This is the default.
+ * [`ArchiveSink`]
+ *   ~ streams every file into a single zip or tar archive
+ *     (`--output-archive`).
+ *
+ * Every sink encodes the text it is given as `CHARSET`, UTF-8, the encoding
+ * the pages declare, so a build writes the same bytes whatever the sink and
+ * whatever the platform's default encoding.
+ *
+ * The emit stage writes to the sink from several threads at once, so the
+ * `write` and `copy` methods must be safe to call concurrently for different
+ * paths.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * [`DirectorySink`]: jlp://jlp.jdb-labs.com/DirectorySink
+ * [`ArchiveSink`]: jlp://jlp.jdb-labs.com/ArchiveSink
+ * @org jlp.jdb-labs.com/OutputSink
+ */
+public abstract class OutputSink {
+
+    /// The encoding of every text file written to a sink.
+    public static final Charset CHARSET = StandardCharsets.UTF_8
+
+    /**
+     * #### write
+     * @api Write the file at `path`. The closure is given a `Writer` for the
+     * file, encoding as `CHARSET`, which is closed once the closure returns.
+     */
+    public abstract void write(String path, Closure c)
+
+    /// @api Write the file at `path` with the contents of `input`, which is
+    /// read to its end but not closed.
+    public abstract void write(String path, InputStream input)
+
+    /// @api Write the file at `path` with `content`.
+    public void write(String path, byte[] content) {
+        write(path, new ByteArrayInputStream(content)) }
+
+    /// @api Copy `source` to the file at `path`, byte for byte.
+    public abstract void copy(String path, File source)
+
+    /// @api The text of the file at `path` as it was before this run, or
+    /// `null` if there is no such file (or the sink can not tell).
+    public String readText(String path) { null }
+
+    /// @api Does the file at `path` exist from a previous run?
+    public boolean exists(String path) { false }
+
+    /// @api Delete the file at `path`, if the sink can. Returns `true` if
+    /// a file was deleted.
+    public boolean delete(String path) { false }
+
+    /// @api Finish writing. Nothing more may be written to the sink.
+    public void close() {}
+
+    /// @api Give up writing after a failed run, without finishing anything
+    /// that would look complete. Nothing more may be written to the sink.
+    /// By default this is the same as `close`.
+    public void abort() { close() }
+}
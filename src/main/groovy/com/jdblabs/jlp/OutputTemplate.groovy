@@ -0,0 +1,68 @@
+/**
+ * # OutputTemplate
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+/**
+ * An OutputTemplate records the output of a generator with the parts that
+ * depend on the document left as holes: its title, the relative paths of
+ * the stylesheets and scripts, the hrefs of `jlp://` links, and so on.
+ * Everything else only depends on the source file.
+ *
+ * The [`Processor`] uses it for source files that have identical copies in
+ * the inputs. The original is emitted once into a template, and the output
+ * for it and each of its copies is produced by filling in the holes for
+ * that document. See
+ * [`JLPBaseGenerator.appendDocSpecific`](jlp://jlp.jdb-labs.com/JLPBaseGenerator/doc-specific).
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor/dedup
+ * @org jlp.jdb-labs.com/OutputTemplate
+ */
+public class OutputTemplate implements Appendable {
+
+    /// The parts of the template: each is either a `String` of output or a
+    /// `Hole`.
+    protected List parts = []
+
+    /// The output since the last hole.
+    protected StringBuilder text = new StringBuilder()
+
+    public Appendable append(CharSequence csq) {
+        text.append(csq)
+        return this }
+
+    public Appendable append(CharSequence csq, int start, int end) {
+        text.append(csq, start, end)
+        return this }
+
+    public Appendable append(char c) {
+        text.append(c)
+        return this }
+
+    /// Add a hole, to be filled in with the value of `kind` and `arg` for
+    /// each document the template is used for.
+    public void addHole(String kind, String arg) {
+        flushText()
+        parts << new Hole(kind: kind, arg: arg) }
+
+    public List getParts() {
+        flushText()
+        return parts }
+
+    protected void flushText() {
+        if (text.length() == 0) { return }
+        parts << text.toString()
+        text.setLength(0) }
+
+    /**
+     * ### Hole
+     * A part of the output that depends on the document.
+     * @org jlp.jdb-labs.com/OutputTemplate/Hole
+     */
+    public static class Hole {
+        public String kind
+        public String arg
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * # PageCache
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+/**
+ * A PageCache holds the pages rendered by the [`DocServer`], an entry for
+ * each document, up to a limit on the total size of the pages. When an
+ * entry takes it over the limit the least recently used entries are
+ * dropped.
+ *
+ * Each entry also records the contents of the source file its pages were
+ * rendered from and the link anchors they link to, so that the server can
+ * tell whether they are still current.
+ *
+ * [`DocServer`]: jlp://jlp.jdb-labs.com/DocServer
+ * @org jlp.jdb-labs.com/PageCache
+ */
+public class PageCache {
+
+    /// The pages rendered from one source file.
+    public static class Entry {
+
+        /// The hash of the contents of the source file the pages were
+        /// rendered from (see
+        /// [`BuildManifest`](jlp://jlp.jdb-labs.com/BuildManifest)).
+        public String contentHash
+
+        /// The ids of the link anchors the pages link to, and the documents
+        /// that define them.
+        public Set<String> linkIds = [] as Set
+        public Set<String> dependsOn = [] as Set
+
+        /// The content of each page.
+        public List<byte[]> pages = []
+
+        public long getSize() { pages.sum { it.length } ?: 0 } }
+
+    /// The most the pages in the cache may take up, in bytes.
+    public final long maxSize
+
+    /// Entries in order of use, least recently used first.
+    protected LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+    protected long size = 0
+
+    public PageCache(long maxSize) { this.maxSize = maxSize }
+
+    public synchronized Entry get(String docId) { entries.get(docId) }
+
+    /**
+     * #### put
+     * @api Cache the pages of a document, dropping the least recently used
+     * entries until the cache is back within its limit. The entry just put
+     * is never dropped, even if it is over the limit on its own.
+     */
+    public synchronized void put(String docId, Entry entry) {
+        Entry old = entries.put(docId, entry)
+        if (old) { size -= old.size }
+        size += entry.size
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator()
+        while (size > maxSize && entries.size() > 1) {
+            size -= eldest.next().value.size
+            eldest.remove() } }
+
+    public synchronized void remove(String docId) {
+        Entry old = entries.remove(docId)
+        if (old) { size -= old.size } }
+
+    /**
+     * #### removeLinkingTo
+     * @api Drop the entries whose pages link to any of the given link
+     * anchors.
+     */
+    public synchronized void removeLinkingTo(Collection<String> anchorIds) {
+        Iterator<Entry> it = entries.values().iterator()
+        while (it.hasNext()) {
+            Entry entry = it.next()
+            if (anchorIds.any { entry.linkIds.contains(it) }) {
+                size -= entry.size
+                it.remove() } } }
+
+    public synchronized void clear() {
+        entries.clear()
+        size = 0 }
+}
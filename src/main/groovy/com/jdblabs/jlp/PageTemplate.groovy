@@ -0,0 +1,136 @@
+/**
+ * # PageTemplate
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * A PageTemplate is the skeleton of each page of the documentation: all of
+ * the HTML around the documented blocks. The default is bundled as
+ * `/templates/page.html`, and a custom template can be given with
+ * `--template`. A template is HTML with slots, written `${name}`:
+ *
+ * `${title}`
+ *   ~ the title of the page: the document id, and which page of it this is
+ *     if it is split over several.
+ * `${root}`
+ *   ~ the relative path from the page to the root of the documentation,
+ *     ending with a `/` unless it is empty. The CSS is at
+ *     `${root}.css/jlp.css`.
+ * `${sourceType}`
+ *   ~ the source type of the document (`java`, `erlang`, etc.).
+ * `${scripts}`
+ *   ~ the scripts that highlight the code in the browser, or nothing when
+ *     the code is highlighted as it is generated.
+ * `${pageNav}`
+ *   ~ the links to the previous and next pages of a document split over
+ *     several pages, or nothing.
+ * `${body}`
+ *   ~ the table rows for the blocks of the document. A template must have
+ *     exactly one.
+ *
+ * The template is compiled once, into the text between its slots. All but
+ * the `title`, `pageNav` and `body` slots depend only on the source type of
+ * a document and how deep it is in the tree, so the template is filled in
+ * once for each source type and `root` and kept as a [`Skeleton`]. Emitting
+ * a page then only fills in its own three slots.
+ *
+ * @org jlp.jdb-labs.com/PageTemplate
+ */
+public class PageTemplate {
+
+    /// The slots a template may have.
+    public static final List<String> SLOTS =
+        ['title', 'root', 'sourceType', 'scripts', 'pageNav', 'body']
+
+    /**
+     * #### Skeleton
+     * @org jlp.jdb-labs.com/PageTemplate/Skeleton
+     * The template filled in for one source type and `root`. It holds the
+     * `text` around the page slots, which are listed in `slots` in the order
+     * they appear. There is always one more piece of text than there are
+     * slots.
+     */
+    public static class Skeleton {
+        public List<String> text = []
+        public List<String> slots = [] }
+
+    /// The text of the template, as given.
+    public final String text
+
+    /// The compiled template: alternately text and the name of a slot,
+    /// starting and ending with text.
+    protected List<String> parts = []
+
+    /// The skeletons by source type and `root`.
+    protected Map<String, Skeleton> skeletons =
+        new ConcurrentHashMap<String, Skeleton>()
+
+    protected static final Pattern SLOT = ~/\$\{(\w+)\}/
+
+    /**
+     * #### constructor
+     * @api Compile the given template. Throws an `IllegalArgumentException`
+     * if it uses a slot we do not know, or does not have exactly one
+     * `${body}`.
+     */
+    public PageTemplate(String text) {
+        this.text = text
+
+        /// The final newline of the template is dropped, as one is written
+        /// after each page.
+        if (text.endsWith('\r\n')) { text = text.substring(0, text.length() - 2) }
+        else if (text.endsWith('\n')) { text = text.substring(0, text.length() - 1) }
+
+        Matcher m = SLOT.matcher(text)
+        int start = 0, bodies = 0
+        while (m.find()) {
+            String slot = m.group(1)
+            if (!SLOTS.contains(slot)) {
+                throw new IllegalArgumentException("Unknown slot '\${${slot}}'" +
+                    " in the page template. The slots are: " +
+                    SLOTS.collect { '${' + it + '}' }.join(', ') + ".") }
+
+            parts << text.substring(start, m.start()) << slot
+            start = m.end()
+            if (slot == 'body') { bodies++ } }
+
+        parts << text.substring(start)
+
+        if (bodies != 1) {
+            throw new IllegalArgumentException(
+                'The page template must have exactly one ${body} slot.') } }
+
+    /**
+     * #### skeleton
+     * @api Get the skeleton for pages of the given source type at the given
+     * `root`. It is filled in the first time it is asked for, calling
+     * `scripts` for the `${scripts}` slot.
+     */
+    public Skeleton skeleton(String sourceType, String root, Closure scripts) {
+        String key = sourceType + ':' + root
+        Skeleton skeleton = skeletons[key]
+        if (skeleton) { return skeleton }
+
+        skeleton = new Skeleton()
+        StringBuilder out = new StringBuilder()
+
+        parts.eachWithIndex { String part, int i ->
+            if (i % 2 == 0) { out.append(part) }
+            else if (part == 'root') { out.append(root) }
+            else if (part == 'sourceType') { out.append(sourceType) }
+            else if (part == 'scripts') { out.append(scripts()) }
+            else {
+                skeleton.text << out.toString()
+                skeleton.slots << part
+                out.setLength(0) } }
+
+        skeleton.text << out.toString()
+
+        return skeletons.putIfAbsent(key, skeleton) ?: skeleton }
+}
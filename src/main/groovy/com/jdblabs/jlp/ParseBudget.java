@@ -0,0 +1,105 @@
+/**
+ * # ParseBudget
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.parserunners.BasicParseRunner;
+
+/**
+ * A ParseBudget limits the time a parser may spend on one input. The
+ * [`Processor`] sets a deadline for the current thread before each parse
+ * (see `start`), and the parsers check it as they go (see `check`). A parse
+ * that runs past its deadline is abandoned with a [`ParseTimeoutException`].
+ *
+ * The PEG grammar can backtrack a very long way on some malformed inputs (an
+ * unterminated comment, for example), so [`JLPPegParser`] checks the budget
+ * before each rule is matched: a ParseBudget is a Parboiled `MatchHandler`
+ * that wraps the usual one. The deadline is only read every few thousand
+ * checks, which keeps the cost of the check to a counter decrement.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor/parse-budget
+ * [`ParseTimeoutException`]: jlp://jlp.jdb-labs.com/ParseBudget/ParseTimeoutException
+ * [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser
+ * @org jlp.jdb-labs.com/ParseBudget
+ */
+public class ParseBudget implements MatchHandler {
+
+    /// The number of checks between reads of the clock.
+    private static final int CHECK_INTERVAL = 4096;
+
+    /// The deadline for the parse on each thread, as a `System.nanoTime()`
+    /// value, or `null` if there is none.
+    private static final ThreadLocal<Long> deadlines = new ThreadLocal<Long>();
+
+    private final long deadline;
+    private int countdown = CHECK_INTERVAL;
+
+    private ParseBudget(long deadline) { this.deadline = deadline; }
+
+    /**
+     * #### start
+     * @api Give parses on this thread `timeoutMillis` milliseconds from now,
+     * until `clear` is called. `0` means no limit.
+     */
+    public static void start(long timeoutMillis) {
+        if (timeoutMillis <= 0) { deadlines.remove(); }
+        else { deadlines.set(System.nanoTime() + timeoutMillis * 1000000L); } }
+
+    /// @api Remove the time limit for parses on this thread.
+    public static void clear() { deadlines.remove(); }
+
+    /**
+     * #### current
+     * @api The budget for a parse starting now on this thread, or `null` if
+     * there is no time limit. A parser gets its budget once at the start of
+     * each parse and checks it as it goes.
+     */
+    public static ParseBudget current() {
+        Long deadline = deadlines.get();
+        return deadline == null ? null : new ParseBudget(deadline); }
+
+    /**
+     * #### check
+     * @api Throw a `ParseTimeoutException` if the deadline has passed.
+     */
+    public void check() {
+        if (--countdown > 0) { return; }
+
+        countdown = CHECK_INTERVAL;
+        if (System.nanoTime() - deadline > 0) {
+            throw new ParseTimeoutException("The parse ran over its time " +
+                "budget and was abandoned."); } }
+
+    /// As a `MatchHandler`, check the budget and then match the rule as the
+    /// `BasicParseRunner` does. This is the inner handler for Parboiled's
+    /// error locating and reporting runners.
+    public boolean match(MatcherContext<?> context) {
+        check();
+        return context.getMatcher().match(context); }
+
+    /**
+     * #### runner
+     * @api A `BasicParseRunner` for `rule` that checks this budget before
+     * each rule is matched.
+     */
+    public <V> BasicParseRunner<V> runner(Rule rule) {
+        return new BasicParseRunner<V>(rule) {
+            public boolean match(MatcherContext<?> context) {
+                check();
+                return super.match(context); } }; }
+
+    /**
+     * ### ParseTimeoutException
+     * Thrown by a parser that ran over its [`ParseBudget`].
+     *
+     * [`ParseBudget`]: jlp://jlp.jdb-labs.com/ParseBudget
+     * @org jlp.jdb-labs.com/ParseBudget/ParseTimeoutException
+     */
+    public static class ParseTimeoutException extends JLPParseException {
+        public ParseTimeoutException(String message) { super(message); } }
+}
@@ -0,0 +1,99 @@
+/**
+ * # ParserClassGenerator
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import org.parboiled.transform.ParserTransformer
+import org.pegdown.Parser
+
+/**
+ * Both the JLP grammar ([`JLPPegParser`]) and the Markdown processor we use
+ * ([PegDown]) are Parboiled parsers, which are not used as written. When a parser is created,
+ * Parboiled analyses the rule methods of the parser class and generates a
+ * subclass of it (`JLPPegParser$$parboiled`, for example) with ASM, which is what is
+ * actually instantiated. The actions and variable initializers in the
+ * rules become small classes of their own (`Action$...`, `VarInit$...`),
+ * named after a hash of their code. This is done once per JVM, but it is a
+ * large part of the time a short run of JLP takes before it writes any
+ * output.
+ *
+ * The ParserClassGenerator runs that transformation at build time and writes
+ * out the generated classes, so that they can be packaged alongside the
+ * other classes and loaded like any other class (see `loadParserClass`).
+ *
+ * It is run by the `generateParserClasses` task of the build:
+ *
+ *     java com.jdblabs.jlp.ParserClassGenerator <output-dir>
+ *
+ * [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser
+ * [PegDown]: https://github.com/sirthias/pegdown
+ * @org jlp.jdb-labs.com/ParserClassGenerator
+ */
+public class ParserClassGenerator {
+
+    /// The parser classes that are generated.
+    public static final List<Class> PARSER_CLASSES = [JLPPegParser, Parser]
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println "usage: ParserClassGenerator <output-dir>"
+            System.exit(1) }
+
+        PARSER_CLASSES.each { parserClass ->
+            List<File> classFiles = generate(parserClass, new File(args[0]))
+            println "Wrote ${classFiles.size()} class(es) for ${parserClass.name}." } }
+
+    /**
+     * #### generate
+     * @api Generate the Parboiled subclass of `parserClass`, and the classes
+     * for its actions, and write them to their class files under
+     * `outputDir`. Returns the class files.
+     */
+    public static List<File> generate(Class parserClass, File outputDir) {
+        /// `extendParserClass` is the part of `Parboiled.createParser` that
+        /// builds the subclass. It is not public, but it gives us the class
+        /// files it defines.
+        def classNode = ParserTransformer.extendParserClass(parserClass)
+        List<File> classFiles = []
+
+        classFiles << writeClass(outputDir, classNode.extendedClass.name,
+            classNode.classCode)
+
+        /// Identical actions share one class, which only the first of them
+        /// has the code for.
+        classNode.ruleMethods.values().each { ruleMethod ->
+            ruleMethod.groups.findAll { it.groupClassCode }.each { group ->
+                classFiles << writeClass(outputDir,
+                    group.groupClassType.className, group.groupClassCode) } }
+
+        return classFiles }
+
+    /**
+     * #### loadParserClass
+     * @api Get the Parboiled subclass of `parserClass`, as
+     * `Parboiled.createParser` would. If the class was generated at build
+     * time it is loaded from the classpath, which saves analysing the parser
+     * and generating its bytecode. Otherwise (when running from the sources,
+     * for example) it is generated now.
+     *
+     * Parboiled itself only reuses a subclass that is already loaded, so
+     * this must be called before the first parser of the class is created
+     * for the generated class to be used.
+     */
+    public static Class loadParserClass(Class parserClass) {
+        try {
+            return Class.forName(parserClass.name + '$$parboiled', true,
+                parserClass.classLoader) }
+        catch (ClassNotFoundException cnfe) {
+            return ParserTransformer.transformParser(parserClass) } }
+
+    protected static File writeClass(File outputDir, String className,
+    byte[] classCode) {
+        File classFile = new File(outputDir,
+            className.replace('.', '/') + '.class')
+        classFile.parentFile.mkdirs()
+        classFile.bytes = classCode
+        return classFile }
+}
@@ -0,0 +1,200 @@
+/**
+ * # Precompressor
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The Precompressor writes a gzipped copy of each page and asset of the
+ * documentation next to it (`Foo.java.html.gz` next to `Foo.java.html`),
+ * so that a static web server can send the compressed copy (nginx's
+ * `gzip_static`, for example) instead of compressing the page on every
+ * request.
+ *
+ * Only files with one of the `EXTENSIONS` and at least `MIN_SIZE` bytes
+ * long are compressed. The compressed copy depends only on the contents of
+ * the file: the gzip header is written here rather than by the JDK and
+ * holds no file name or time. So compressing the output as it is written
+ * (see [`CompressingSink`]) gives exactly the same files as compressing the
+ * output directory afterwards (see `compressTree`).
+ *
+ * The compression runs on a pool of `threads` threads with a bounded
+ * queue. When the queue is full the thread that submitted the file
+ * compresses it itself, so the pending work never piles up in memory.
+ *
+ * Only gzip is written. Brotli would compress the pages better, but the
+ * JDK has no Brotli encoder and JLP does not depend on a native one.
+ *
+ * [`CompressingSink`]: jlp://jlp.jdb-labs.com/CompressingSink
+ * @org jlp.jdb-labs.com/Precompressor
+ */
+public class Precompressor {
+
+    /// The suffix of a compressed copy.
+    public static final String SUFFIX = ".gz";
+
+    /// Files smaller than this gain little or nothing from compression.
+    public static final int MIN_SIZE = 256;
+
+    /// The extensions of the files that are compressed.
+    public static final Set<String> EXTENSIONS = new HashSet<String>(
+        Arrays.asList("html", "css", "js", "svg", "xml", "txt"));
+
+    /// Something that writes the compressed copy of a file.
+    public static interface Output {
+        void write(byte[] compressed) throws IOException; }
+
+    private final ThreadPoolExecutor pool;
+    private volatile Throwable failure;
+
+    /**
+     * #### constructor
+     * @api Create a precompressor that compresses on `threads` threads.
+     */
+    public Precompressor(int threads) {
+        threads = Math.max(threads, 1);
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(threads * 4),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true); }
+
+    /**
+     * #### isCompressible
+     * @api Should the file at `path`, which is `size` bytes long, have a
+     * compressed copy?
+     */
+    public static boolean isCompressible(String path, long size) {
+        return size >= MIN_SIZE && isCompressibleType(path); }
+
+    /// @api Is the file at `path` of a type that is compressed (whatever its
+    /// size)?
+    public static boolean isCompressibleType(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash + 1 &&
+            EXTENSIONS.contains(path.substring(dot + 1).toLowerCase()); }
+
+    /**
+     * #### submit
+     * @api Compress `content` and give the result to `output`, on one of the
+     * pool's threads if one is free. A failure is thrown by the next call to
+     * `submit` or `close`.
+     */
+    public void submit(final byte[] content, final Output output) {
+        checkFailure();
+        pool.execute(new Runnable() {
+            public void run() {
+                try { output.write(gzip(content)); }
+                catch (Throwable t) { if (failure == null) { failure = t; } } } }); }
+
+    /**
+     * #### close
+     * @api Wait for all of the submitted files to be compressed.
+     */
+    public void close() {
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {} }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie); }
+        checkFailure(); }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Unable to compress the output.",
+                failure); } }
+
+    /**
+     * #### gzip
+     * @api Compress `content` in the gzip format, at the best compression
+     * level. The header has no file name and no time, so the result only
+     * depends on `content`.
+     */
+    public static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream out =
+            new ByteArrayOutputStream(content.length / 4 + 64);
+
+        /// The header: the magic number, deflate, no flags, no time, best
+        /// compression, unknown OS.
+        out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 2,
+            (byte) 0xff }, 0, 10);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n); } }
+        finally { deflater.end(); }
+
+        /// The trailer: the CRC-32 and the length of the content, both
+        /// little-endian.
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, content.length);
+
+        return out.toByteArray(); }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        for (int i = 0; i < 4; i++) { out.write((value >>> (8 * i)) & 0xff); } }
+
+    /**
+     * #### compressTree
+     * @api Write the compressed copies for the files under `root` that do
+     * not have an up-to-date one (a copy at least as new as the file), as
+     * they would have been written with the output. Returns the number of
+     * files compressed.
+     */
+    public static int compressTree(File root, int threads) {
+        List<File> files = new ArrayList<File>();
+        collect(root, "", files);
+
+        final AtomicInteger count = new AtomicInteger();
+        Precompressor compressor = new Precompressor(threads);
+        try {
+            for (final File file : files) {
+                final File gz = new File(file.getPath() + SUFFIX);
+                if (gz.exists() && gz.lastModified() >= file.lastModified()) {
+                    continue; }
+
+                compressor.submit(Files.readAllBytes(file.toPath()),
+                    new Output() {
+                        public void write(byte[] compressed) throws IOException {
+                            Files.write(gz.toPath(), compressed);
+                            count.incrementAndGet(); } }); } }
+        catch (IOException ioe) { throw new RuntimeException(ioe); }
+        finally { compressor.close(); }
+
+        return count.get(); }
+
+    private static void collect(File dir, String path, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) { return; }
+
+        for (File child : children) {
+            String childPath = path + child.getName();
+            if (child.isDirectory()) { collect(child, childPath + "/", files); }
+            else if (isCompressible(childPath, child.length())) {
+                files.add(child); } } }
+}
@@ -5,11 +5,26 @@
  */
 package com.jdblabs.jlp
 
+import com.jdblabs.jlp.BuildMetrics.DocMetrics
+import com.jdblabs.jlp.BuildMetrics.TimedWriter
 import com.jdblabs.jlp.LinkAnchor.LinkType
-import com.jdbernard.util.JarUtils
+import com.jdblabs.jlp.ast.Block
+import com.jdblabs.jlp.ast.CodeBlock
+import com.jdblabs.jlp.ast.DocBlock
+import com.jdblabs.jlp.ast.Directive.DirectiveType
+import java.nio.charset.StandardCharsets
+import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import java.util.function.BiConsumer
+import java.util.function.Supplier
+import java.util.jar.JarEntry
 import java.util.jar.JarInputStream
 import org.parboiled.BaseParser
-import org.parboiled.Parboiled
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
@@ -24,40 +39,237 @@ public class Processor {
     /// ### Public State
     /// @org jlp.jdb-labs.com/Processor/public-state
 
-    /// A map of all the link anchors defined in the documents.
-    public Map<String, LinkAnchor> linkAnchors = [:]
+    /// A map of all the link anchors defined in the documents. Documents are
+    /// parsed concurrently, so this map must be safe for concurrent writes.
+    public Map<String, LinkAnchor> linkAnchors =
+        new ConcurrentHashMap<String, LinkAnchor>()
 
     /// A map of all the documents being processed.
     public Map<String, TargetDoc> docs = [:]
 
-    /// The id of the document currently being processed.
-    public String currentDocId = null
-
     /// The root of the input path.
     public File inputRoot
 
     /// The root of the output path.
     public File outputRoot
 
+    /// If set, the documentation is written to this archive (a `.zip`,
+    /// `.tar`, `.tar.gz` or `.tgz` file) instead of to the files under
+    /// `outputRoot`. Links are still resolved as if the archive was
+    /// extracted at `outputRoot`. See
+    /// [`ArchiveSink`](jlp://jlp.jdb-labs.com/ArchiveSink).
+    public File outputArchive
+
+    /// Setting to control whether a gzipped copy is written next to each
+    /// page and asset, for a web server to send as it is. See
+    /// [`Precompressor`](jlp://jlp.jdb-labs.com/Precompressor).
+    public boolean precompress
+
     /// The CSS that will be used for the resulting HTML documents. This object
     /// can be any object that responds to the `text` property.
     public def css
 
-    /// A shortcut for `docs[currentDocId]`
-    public TargetDoc currentDoc
+    /// The template for the pages of the documentation, or `null` for the
+    /// default one. Like `css`, it can be any object that responds to the
+    /// `text` property. See [`PageTemplate`](jlp://jlp.jdb-labs.com/PageTemplate).
+    public def template
 
     /// Setting to control whether the source code is copied into the final
     /// documentation directory or not.
     public boolean includeSource
 
+    /// The number of worker threads used to process documents. A value of 1
+    /// processes every document sequentially on the calling thread.
+    public int threads = 1
+
+    /// Which implementation of the JLP grammar to use for each source type:
+    /// either `peg` ([`JLPPegParser`]) or `scanner` ([`JLPScanner`]). The
+    /// `*` entry applies to all source types not otherwise listed. The
+    /// default is the PEG parser.
+    ///
+    /// [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser
+    /// [`JLPScanner`]: jlp://jlp.jdb-labs.com/JLPScanner
+    public Map<String, String> parserImpls = [:]
+
+    /// Setting to control whether we only rebuild the documents that have
+    /// changed since the last run. See
+    /// [`BuildManifest`](jlp://jlp.jdb-labs.com/BuildManifest).
+    public boolean incremental
+
+    /// How the code is highlighted: `client` (the default) leaves it to
+    /// SyntaxHighlighter in the browser, `server` highlights it as the
+    /// documentation is generated with the
+    /// [`CodeHighlighter`](jlp://jlp.jdb-labs.com/CodeHighlighter).
+    public String highlight = 'client'
+
+    /// Documents with more than this many lines are split over several
+    /// pages, each in its own output file, so that very large (often
+    /// generated) sources do not become one huge page. A page holds whole
+    /// blocks and starts a new page once it reaches this many lines. Code
+    /// longer than a page is split between pages at line boundaries. `0`
+    /// (the default) never splits a document. See
+    /// [`paginate`](jlp://jlp.jdb-labs.com/Processor/paginate).
+    /// @org jlp.jdb-labs.com/Processor/pageLines
+    public int pageLines = 0
+
+    /// #### Identical documents
+    /// @org jlp.jdb-labs.com/Processor/dedup
+    /// Source trees often hold several identical copies of a file (vendored
+    /// libraries, generated code, boilerplate). When `dedup` is set, only
+    /// the first of a set of documents with the same type and content is
+    /// parsed. The others share its AST, and each page is emitted once into
+    /// an [`OutputTemplate`] which is then filled in for each of the
+    /// documents, since only the title, relative paths and link hrefs differ
+    /// between them.
+    ///
+    /// [`OutputTemplate`]: jlp://jlp.jdb-labs.com/OutputTemplate
+    public boolean dedup = true
+
+    /// #### Parse budgets
+    /// @org jlp.jdb-labs.com/Processor/parse-budget
+    /// Some inputs take the JLP grammar a very long time to parse: the PEG
+    /// parser can backtrack through most of the file on an unterminated
+    /// comment, and a minified script may be one line of megabytes. So that
+    /// one such file cannot hold up the whole run, each parse is limited:
+    ///
+    /// * Files longer than `maxParseSize` characters, or with a line longer
+    ///   than `maxLineLength` characters, are not parsed with the grammar.
+    ///   They take the degraded path instead: the whole file is treated as
+    ///   code (see [`CodeOnlyParser`]).
+    /// * A parse that takes longer than `parseTimeout` milliseconds is
+    ///   abandoned (see [`ParseBudget`]), and the file takes the degraded
+    ///   path.
+    ///
+    /// `0` turns a limit off. The files that took the degraded path are
+    /// listed at the end of the run.
+    ///
+    /// [`CodeOnlyParser`]: jlp://jlp.jdb-labs.com/CodeOnlyParser
+    /// [`ParseBudget`]: jlp://jlp.jdb-labs.com/ParseBudget
+    public long parseTimeout = 10000
+    public int maxParseSize = 4 * 1024 * 1024
+    public int maxLineLength = 10000
+
+    /// #### Sharding
+    /// @org jlp.jdb-labs.com/Processor/sharding
+    /// A build can be split into `shardCount` shards, run as separate
+    /// processes (on separate machines, even) whose output directories are
+    /// then merged. This processor is shard `shardIndex` (counting from 0)
+    /// and only parses and emits the documents in its shard (see
+    /// `inShard`). Every shard must be given the same input files.
+    ///
+    /// In the first stage each shard is run with `exportAnchors` set: it
+    /// parses its documents, writes the link anchors they define to that
+    /// [`AnchorTable`] file and stops. In the second stage each shard is run
+    /// with `importAnchors` set to the tables of all of the shards, so that
+    /// links to documents in other shards resolve as they would in a single
+    /// build.
+    ///
+    /// [`AnchorTable`]: jlp://jlp.jdb-labs.com/AnchorTable
+    public int shardIndex = 0
+    public int shardCount = 1
+    public File exportAnchors
+    public List<File> importAnchors = []
+
+    /// Setting to stop each run once the documents are parsed and their
+    /// link anchors are known, writing no output at all. The ASTs are not
+    /// kept. The [`DocServer`](jlp://jlp.jdb-labs.com/DocServer) runs the
+    /// processor this way and emits each page when it is asked for.
+    public boolean parseOnly
+
+    /// Setting to control whether we record [`BuildMetrics`] for each run and
+    /// print a summary of them when the run is done. If `metricsOut` is set
+    /// the metrics are recorded and the full report is written there as
+    /// JSON.
+    ///
+    /// [`BuildMetrics`]: jlp://jlp.jdb-labs.com/BuildMetrics
+    public boolean profile
+    public File metricsOut
+
+    /// The metrics for the current (or last) run, or `null` if we are not
+    /// recording them.
+    public BuildMetrics metrics
+
     /// ### Non-public State
     /// @org jlp.jdb-labs.com/Processor/non-public-state
 
     /// Maps of all the parsers and generators by input file type. Parsers and
-    /// generators are both safe for re-use within a single thread, so we cache
-    /// them here.
-    protected Map<String, JLPParser> parsers = [:]
-    protected Map<String, JLPBaseGenerator> generators = [:]
+    /// generators are both safe for re-use within a single thread, so each
+    /// worker thread caches its own instances here.
+    protected ThreadLocal<Map<String, JLPParser>> parsers =
+        ThreadLocal.withInitial({ [:] } as Supplier)
+    protected ThreadLocal<Map<String, JLPBaseGenerator>> generators =
+        ThreadLocal.withInitial({ [:] } as Supplier)
+
+    /// Each worker thread also has its own [`SourceReader`] so that the
+    /// buffers used to load the input files are reused from one file to the
+    /// next.
+    ///
+    /// [`SourceReader`]: jlp://jlp.jdb-labs.com/SourceReader
+    protected ThreadLocal<SourceReader> readers =
+        ThreadLocal.withInitial({ new SourceReader() } as Supplier)
+
+    /// The Markdown renderer shared by all of our generators. It is created
+    /// on first use, sized for the number of threads we use.
+    protected MarkdownRenderer markdownRenderer
+
+    /// The compiled page template shared by all of our generators, which
+    /// keeps the skeletons filled in from it. It is compiled on first use.
+    protected PageTemplate pageTemplate
+
+    /// #### Path index
+    /// @org jlp.jdb-labs.com/Processor/path-index
+    /// Link resolution happens for every link in every document, so we keep
+    /// everything it needs indexed by path strings. The canonical paths of
+    /// the input root are found once per run, and those of each document are
+    /// kept on its [`TargetDoc`]. Relative paths are memoized per pair of
+    /// canonical paths, and the hrefs for `jlp://` links to other documents
+    /// per source directory and link. See
+    /// [`resolveLink`](jlp://jlp.jdb-labs.com/Processor/resolveLink).
+    ///
+    /// [`TargetDoc`]: jlp://jlp.jdb-labs.com/TargetDoc
+    protected String inputRootPath
+    protected String inputRootDirPath
+    protected Map<String, Map<String, String>> relativePaths =
+        new ConcurrentHashMap<String, Map<String, String>>()
+    protected Map<String, Map<String, String>> linkHrefs =
+        new ConcurrentHashMap<String, Map<String, String>>()
+
+    /// The pool used to run the per-document work when `threads` is greater
+    /// than 1. It only exists for the duration of a processing run, unless
+    /// `keepAlive` is set.
+    protected ExecutorService pool
+
+    /// Set when this processor is kept alive to process the same inputs
+    /// again and again (see [`Watcher`](jlp://jlp.jdb-labs.com/Watcher)).
+    /// The worker pool is then kept between runs, and with it the parsers and
+    /// generators cached by its threads. Call `shutdown` when done.
+    public boolean keepAlive
+
+    /// Where the current run writes its output (see
+    /// [`OutputSink`](jlp://jlp.jdb-labs.com/OutputSink)), or `null` if it
+    /// writes none.
+    protected OutputSink output
+
+    /// The sink given to the current call to `build`, if any, and the lock
+    /// that lets only one call run at a time. (The processor itself is
+    /// locked by its workers, to create the Markdown renderer.)
+    protected OutputSink buildSink
+    private final Object buildLock = new Object()
+
+    /// The manifest written by the last run of this processor. When the
+    /// processor is kept alive the next run uses it instead of reading it
+    /// back from the output directory.
+    protected BuildManifest lastManifest
+
+    /// The name of the stamp file in `.sh`. See
+    /// [`extractSyntaxHighlighter`](jlp://jlp.jdb-labs.com/Processor/extractSyntaxHighlighter).
+    public static final String SH_STAMP_FILENAME = ".jlp-stamp"
+
+    /// The parser for the degraded path. It keeps no state, so it is shared.
+    protected static final JLPParser CODE_ONLY_PARSER = new CodeOnlyParser()
+
+    private static byte[] shJar
+    private static Class pegParserClass
 
     private Logger log = LoggerFactory.getLogger(getClass())
 
@@ -72,21 +284,93 @@ public class Processor {
      */
     public static void process(File outputDir, def css,
     List<File> inputFiles, boolean includeSource) {
+        process(outputDir, css, inputFiles, includeSource: includeSource) }
+
+    /**
+     * @api Process the input files given, as above. Any additional options
+     * are given as named arguments and set on the Processor instance (for
+     * example `includeSource` and `threads`).
+     */
+    public static void process(Map options, File outputDir, def css,
+    List<File> inputFiles) {
+
+        /// Create an instance of this class with the options given.
+        Processor inst = create(options, outputDir, css, inputFiles)
+
+        /// Run the process.
+        inst.process(inputFiles) }
+
+    /**
+     * #### Processor.create
+     * @org jlp.jdb-labs.com/Processor/create
+     * @api Create a Processor for the input files given without running it.
+     * The arguments are the same as for `process` above.
+     */
+    public static Processor create(Map options, File outputDir, def css,
+    List<File> inputFiles) {
 
         /// Find the closest common parent folder to all of the files given.
         /// This will be our input root for the parsing process.
-        File inputDir = inputFiles.inject(inputFiles[0]) { commonRoot, file ->
-            getCommonParent(commonRoot, file) }
+        File inputDir = getCommonParent(inputFiles)
 
-        /// Create an instance of this class with the options given.
-        Processor inst = new Processor(
+        return new Processor(options + [
             inputRoot: inputDir,
             outputRoot: outputDir,
-            css: css,
-            includeSource: includeSource)
+            css: css]) }
 
-        /// Run the process.
-        inst.process(inputFiles) }
+    /**
+     * #### build
+     * @org jlp.jdb-labs.com/Processor/build
+     * @api Build the documentation for sources held in memory (see
+     * [`MemorySource`]), giving every file of it to `sink` instead of
+     * writing it under `outputRoot`. Nothing is read from or written to the
+     * filesystem. A processor for this is created with its options alone:
+     *
+     *     def processor = new Processor(threads: 4, keepAlive: true)
+     *     processor.build(sources) { String path, byte[] content -> ... }
+     *
+     * The processor can be used for any number of builds. With `keepAlive`
+     * set, it keeps its worker threads, and with them their parsers and
+     * generators, from one build to the next, as well as the Markdown
+     * renderer and its caches. Call `shutdown` when done. A processor runs
+     * one build at a time: calls from several threads wait their turn, and
+     * each build is spread over the worker threads.
+     *
+     * Incremental builds, archives and sharded builds all need the output
+     * on disk, and can not be used here.
+     *
+     * [`MemorySource`]: jlp://jlp.jdb-labs.com/MemorySource
+     */
+    public void build(Collection<MemorySource> sources, OutputSink sink) {
+        if (incremental || outputArchive || exportAnchors || importAnchors ||
+            parseOnly) {
+            throw new IllegalStateException("Only a full build can be run" +
+                " from sources in memory.") }
+
+        synchronized (buildLock) {
+            if (css == null) { css = Processor.getResource("/css/jlp.css") }
+            inputRootPath = inputRootDirPath = MemorySource.ROOT
+
+            buildSink = sink
+            try { process(sources) }
+            finally { buildSink = null } } }
+
+    /**
+     * @api Build the documentation for sources held in memory, as above,
+     * giving each file's path and contents to `callback` (see
+     * [`CallbackSink`](jlp://jlp.jdb-labs.com/CallbackSink)).
+     */
+    public void build(Collection<MemorySource> sources,
+    BiConsumer<String, byte[]> callback) {
+        build(sources, new CallbackSink(callback)) }
+
+    /**
+     * #### shutdown
+     * @api Release the worker pool of a processor created with `keepAlive`.
+     */
+    public void shutdown() {
+        pool?.shutdown()
+        pool = null }
 
     /// ### Non-Public implementation methods.
     /// @org jlp.jdb-labs.com/Processor/non-public-methods
@@ -95,45 +379,51 @@ public class Processor {
      * #### process
      * @org jlp.jdb-labs.com/Processor/process2
      */
-    protected void process(inputFiles) {
+    protected void process(inputFiles) { process(inputFiles, null) }
+
+    /**
+     * This version can be told which of the input files have changed since
+     * the last run of this processor (as normalized, absolute paths). Any
+     * other file that was processed by the last run is then assumed to be
+     * unchanged without reading it again. If `changedFiles` is `null` every
+     * file is checked.
+     */
+    protected void process(inputFiles, Set<Path> changedFiles) {
 
         /// Remember that the data for the processing run was initialized by the
-        /// constructor.
-
-        /// * Write the CSS file to our output directory.
-        File cssFile = new File(outputRoot, ".css/jlp.css")
-        cssFile.parentFile.mkdirs()
-        cssFile.text = css.text
-
-        /// * Extract the syntax highlighter files to the output directory.
-        File shFile = new File(outputRoot, "temp.jar")
-        File shDir = new File(outputRoot, "sh")
-        File metaDir = new File(outputRoot, "META-INF")
-        getClass().getResourceAsStream("/syntax-highlighter.jar").withStream { is ->
-            shFile.withOutputStream { os ->
-                while (is.available()) { os.write(is.read()) }}}
-        JarUtils.extract(shFile, outputRoot)
-        shDir.renameTo(new File(outputRoot, '.sh'))
-
-        /// * Delete our temporary jar file and the META-INF directory extracted
-        /// from it.
-        shFile.delete()
-        metaDir.deleteDir()
+        /// constructor. Only the documents and their link anchors are reset
+        /// if this processor has been run before.
+        docs = [:]
+        linkAnchors.clear()
+        linkHrefs.clear()
+
+        metrics = (profile || metricsOut) ? new BuildMetrics() : null
+        metrics?.start()
 
         /// * Create the processing context for each input file. We are using
         ///   the name of the file (including the extension) as the id. If there
         ///   is more than one file with the same name we will include the
         ///   file's parent directory as well.
-        inputFiles.each { file ->
-
-            // Get the relative path as path elements.
-            def relPath = getRelativeFilepath(inputRoot, file)
-            def pathParts = relPath.split('/|\\\\') as List
+        ///
+        ///   The inputs are usually files, but may be
+        ///   [`MemorySource`](jlp://jlp.jdb-labs.com/MemorySource)s instead
+        ///   (see [`build`](jlp://jlp.jdb-labs.com/Processor/build)).
+        timed('index') { inputFiles.each { input ->
 
             // We will skip binary files and files we know nothing about.
-            def fileType = sourceTypeForFile(file)
+            def fileType = input instanceof MemorySource ?
+                (input.sourceType ?: sourceTypeForName(
+                    input.id.substring(input.id.lastIndexOf('/') + 1))) :
+                sourceTypeForFile(input)
             if (fileType == 'binary' || fileType == 'unknown') { return; }
 
+            // Get the relative path as path elements.
+            def newDoc = indexDoc(input instanceof MemorySource ?
+                memoryDoc(input, fileType) :
+                new TargetDoc(sourceFile: input, sourceType: fileType))
+            def relPath = newDoc.relativePath
+            def pathParts = relPath.split('/|\\\\') as List
+
             // Start with just the file name.
             def docId = pathParts.pop()
 
@@ -144,83 +434,750 @@ public class Processor {
             // to the id.
             while(docs[docId] != null) { docId = pathParts.pop() + '/' + docId }
 
-            // Finally create the TargetDoc item.
-            docs[docId] = new TargetDoc(
-                sourceDocId: docId,
-                sourceFile: file,
-                sourceType: sourceTypeForFile(file)) }
+            // Finally add the TargetDoc item.
+            newDoc.sourceDocId = docId
+            docs[docId] = newDoc
+
+            if (metrics) {
+                newDoc.metrics = metrics.forDoc(newDoc)
+                newDoc.metrics.sourcePath = relPath } }}
+
+        /// * In incremental mode, load the manifest from the previous run. We
+        ///   can only use it if it was created with the same settings.
+        BuildManifest manifest = new BuildManifest(
+            inputRoot: inputRootPath,
+            includeSource: includeSource,
+            highlight: highlight,
+            pageLines: pageLines,
+            precompress: precompress,
+            template: BuildManifest.hash(getPageTemplate().text.getBytes("UTF-8")))
+        BuildManifest previous = null
+
+        if (incremental) {
+            previous = lastManifest ?: BuildManifest.load(outputRoot)
+            if (!manifest.isCompatible(previous)) { previous = null } }
+
+        /// The remaining work is done in two stages. Each stage processes the
+        /// documents independently of one another, concurrently if we have
+        /// more than one thread. The only point at which the documents must
+        /// wait on each other is between the two stages: all of the link
+        /// anchors must be known before any document can be emitted.
+        if (threads > 1 && pool == null) { pool = new ForkJoinPool(threads) }
+
+        try {
+            /// * Write the CSS file and the syntax highlighter files to our
+            ///   output, unless they are already there (or we are not going
+            ///   to write any documentation).
+            if (!exportAnchors && !parseOnly) {
+                output = buildSink ?: outputArchive ?
+                    new ArchiveSink(outputArchive) : new DirectorySink(outputRoot)
+
+                /// If we are not compressing now but did before (the CSS
+                /// is always compressed), the old compressed copies must
+                /// go as the files are written.
+                if (precompress) {
+                    output = new CompressingSink(output,
+                        new Precompressor(threads)) }
+                else if (output.exists('.css/jlp.css' + Precompressor.SUFFIX)) {
+                    output = new CompressingSink(output, null) }
+
+                timed('assets') {
+                    writeCss()
+                    extractSyntaxHighlighter() }}
+
+            /// * Run the parse phase and our generator parse phase (see
+            ///   [`JLPBaseGenerator`](jlp://com.jdb-labs.jlp.JLPBaseGenerator/phases)
+            ///   for an explanation of the generator phases) on each of the
+            ///   files. For each file, we load the parser for that file type
+            ///   and parse the file into an abstract syntax tree (AST).
+            ///
+            ///   Each file is read once, and only decoded if it is parsed.
+            ///   Documents that are unchanged since the previous run are not
+            ///   parsed at all. Instead, the link anchors they define are
+            ///   restored from the manifest.
+            def badDocs = Collections.synchronizedList([])
+            Map<String, TargetDoc> cleanDocs = new ConcurrentHashMap()
+
+            /// When deduplicating, the first document parsed with a given
+            /// type and content is the original for any others like it,
+            /// which are set aside until it has been parsed.
+            Map<String, TargetDoc> originals = new ConcurrentHashMap()
+            Map<String, TargetDoc> dupDocs = new ConcurrentHashMap()
+
+            /// In a sharded build only the documents in this shard are parsed
+            /// and emitted. The others are still indexed, as their ids and
+            /// paths are needed to link to them.
+            Map<String, TargetDoc> shardDocs = shardCount > 1 ?
+                docs.findAll { docId, doc -> inShard(doc) } : docs
+
+            /// The inputs are identified by every file we indexed, before
+            /// any are dropped for failing to parse: which files fail
+            /// depends on the shard.
+            String inputs = exportAnchors || importAnchors ?
+                inputsHash(docs.values()) : null
+
+            timed('parse') { processDocs(shardDocs) { docId, doc ->
+                SourceReader reader = readers.get()
+                Map prevEntry = previous?.docs?.get(docId)
+                DocMetrics m = doc.metrics
+
+                /// If we know which files changed we can trust the previous
+                /// content hash of the others.
+                if (prevEntry && changedFiles != null && !changedFiles.contains(
+                    doc.sourceFile.toPath().toAbsolutePath().normalize())) {
+                    doc.contentHash = prevEntry.contentHash }
+
+                if (!isUnchanged(doc, prevEntry)) {
+                    long start = m ? System.nanoTime() : 0
+                    loadDoc(doc, reader)
+                    if (m) {
+                        m.readTime += System.nanoTime() - start
+                        m.bytesRead += reader.bytes.remaining() }
+
+                    if (incremental || dedup) {
+                        doc.contentHash = BuildManifest.hash(reader.bytes) } }
+
+                if (isUnchanged(doc, prevEntry)) {
+                    log.trace("'{}' is unchanged.", docId)
+                    restoreDoc(doc, prevEntry)
+                    cleanDocs[docId] = doc
+                    if (m) { m.unchanged = true }
+                    return }
+
+                if (dedup) {
+                    TargetDoc original = originals.putIfAbsent(
+                        doc.sourceType + ':' + doc.contentHash, doc)
+                    if (original) {
+                        log.trace("'{}' is a copy of '{}'.", docId,
+                            original.sourceDocId)
+                        doc.original = original
+                        dupDocs[docId] = doc
+                        return } }
+
+                if (!parseDoc(doc, reader.text)) { badDocs << docId } }}
+
+            /// * Copies share the AST of their original, but still need the
+            ///   generator parse phase to define their own link anchors.
+            timed('copies') { dupDocs.each { docId, doc ->
+                if (badDocs.contains(doc.original.sourceDocId)) {
+                    badDocs << docId
+                    return }
+
+                DocMetrics m = doc.metrics
+                long start = m ? System.nanoTime() : 0
+
+                doc.sourceAST = doc.original.sourceAST
+                doc.degraded = doc.original.degraded
+                getGenerator(doc.sourceType).parse(doc)
+                paginate(doc)
+
+                if (m) {
+                    m.degraded = doc.degraded
+                    m.duplicateOf = doc.original.sourceDocId
+                    m.generatorParseTime += System.nanoTime() - start } }}
+
+            /// * Remove all the documents we could not parse from our doc list.
+            docs = docs.findAll { docId, doc -> !badDocs.contains(docId) }
+
+            /// * List the documents that took the degraded path, so that a
+            ///   slow or oversized file does not go unnoticed.
+            def degradedDocs = docs.findAll { docId, doc -> doc.degraded }
+            if (degradedDocs) {
+                log.warn("{} document(s) were treated as code rather than " +
+                    "parsed:\n{}", degradedDocs.size(),
+                    degradedDocs.collect { docId, doc ->
+                        "  ${doc.relativePath ?: docId}: ${doc.degraded}" }
+                    .join('\n')) }
+
+            /// * In the first stage of a sharded build we are done once we
+            ///   know our link anchors, and so are we when only parsing.
+            if (exportAnchors) {
+                timed('anchors') { exportAnchorTable(shardDocs, inputs) }
+                if (metrics) { reportMetrics() }
+                return }
+
+            if (parseOnly) {
+                docs.each { docId, doc -> doc.sourceAST = null }
+                if (metrics) { reportMetrics() }
+                return }
+
+            /// * In the second stage, add the link anchors of the other
+            ///   shards.
+            if (importAnchors) {
+                timed('anchors') { importAnchorTables(shardDocs, inputs) } }
+
+            /// * Now that all the link anchors are known, check the unchanged
+            ///   documents. If any of the links in an unchanged document now
+            ///   resolve differently, or its output is missing, it needs to
+            ///   be parsed and emitted again.
+            def staleDocs = cleanDocs.findAll { docId, doc ->
+                !output.exists(getOutputPath(doc, 0)) ||
+                doc.linkTargets.any { link, href ->
+                    resolveLink(link, doc) != href } }
+
+            timed('stale-check') { processDocs(staleDocs) { docId, doc ->
+                log.trace("'{}' has links that have moved.", docId)
+                doc.linkTargets = [:]
+
+                DocMetrics m = doc.metrics
+                long start = m ? System.nanoTime() : 0
+
+                SourceReader reader = readers.get()
+                loadDoc(doc, reader)
+                if (m) {
+                    m.unchanged = false
+                    m.readTime += System.nanoTime() - start
+                    m.bytesRead += reader.bytes.remaining() }
+
+                if (parseDoc(doc, reader.text)) {
+                    cleanDocs.remove(docId) }}}
+
+            /// * The link anchors are final now. Forget any hrefs resolved
+            ///   while checking for stale documents.
+            linkHrefs.clear()
+
+            /// * Second pass by the generators, the emit phase. Each document
+            ///   is emitted straight into its output file, after which we no
+            ///   longer need its AST. Copies are emitted along with their
+            ///   original.
+            Map<String, List<TargetDoc>> copies = dupDocs.values()
+                .findAll { !badDocs.contains(it.sourceDocId) }
+                .groupBy { it.original.sourceDocId }
+
+            timed('emit') {
+            processDocs(docs.findAll { docId, doc ->
+                !cleanDocs[docId] && !doc.original &&
+                shardDocs.containsKey(docId) }) { docId, doc ->
+
+                def generator = getGenerator(doc.sourceType)
+
+                if (!copies[docId]) {
+                    writeDoc(doc) { int page, Appendable out ->
+                        generator.emit(doc, page, out) }
+                    return }
+
+                /// Emit each page of a document with copies once, as a
+                /// template, and fill it in for each of them.
+                DocMetrics m = doc.metrics
+                long start = m ? System.nanoTime() : 0
+
+                List<OutputTemplate> templates = (0..<doc.pageCount).collect {
+                    page ->
+                    OutputTemplate template = new OutputTemplate()
+                    generator.emit(doc, page, template)
+                    return template }
+
+                if (m) { m.emitTime += System.nanoTime() - start }
+
+                ([doc] + copies[docId]).each { TargetDoc target ->
+                    writeDoc(target) { int page, Appendable out ->
+                        generator.emit(target, page, templates[page], out) }} }}
+
+            /// * In incremental mode, remove the output for any documents
+            ///   that no longer exist and save the manifest for the next run.
+            if (incremental) { timed('manifest') {
+                def currentPaths = docs.values().collect {
+                    it.relativePath } as Set
+
+                previous?.docs?.each { docId, entry ->
+                    if (!currentPaths.contains(entry.sourcePath)) {
+                        log.trace("Removing output for deleted document '{}'.",
+                            docId)
+                        int pages = entry.pages?.size() ?: 1
+                        for (int page = 0; page < pages; page++) {
+                            output.delete(entry.sourcePath + pageSuffix(page)) }
+                        if (includeSource) { output.delete(entry.sourcePath) }}}
+
+                def anchorsByDoc = linkAnchors.values().groupBy { it.sourceDocId }
+
+                docs.each { docId, doc ->
+                    manifest.docs[docId] = [
+                        sourcePath: doc.relativePath,
+                        sourceType: doc.sourceType,
+                        contentHash: doc.contentHash,
+                        pages: doc.pageStarts,
+                        anchors: anchorsByDoc[docId].collect { anchor ->
+                            [id: anchor.id, type: anchor.type.name(),
+                             page: anchor.page] } ?: [],
+                        links: doc.linkTargets ] }
+
+                manifest.save(outputRoot)
+                lastManifest = manifest } }
+
+            /// * Finish writing the output. For an archive this waits for
+            ///   the writer to catch up.
+            timed('output') { output.close() }
+            output = null
+
+            if (metrics) { reportMetrics() } }
+
+        finally {
+            /// If the run failed, abort the output rather than finish it, so
+            /// that we do not leave an archive that looks complete but has
+            /// files missing.
+            if (output) {
+                try { output.abort() }
+                catch (Exception e) {
+                    log.warn("Unable to abort writing the output: {}",
+                        e.message) }
+                output = null }
+
+            if (!keepAlive) { shutdown() } } }
+
+    /**
+     * #### writeDoc
+     * Write the output files for a document: one for each page, written by
+     * `emitPage`. The source file is copied alongside them if
+     * `includeSource` is set.
+     */
+    protected void writeDoc(TargetDoc doc, Closure emitPage) {
+        DocMetrics m = doc.metrics
+        long start = m ? System.nanoTime() : 0
+
+        /// Copy the source file over. This is a straight copy of the
+        /// bytes, so the copy is identical to the original whatever
+        /// its encoding. Sources held in memory are written as UTF-8.
+        if (includeSource && doc.sourceFile) {
+            output.copy(indexDoc(doc).relativePath, doc.sourceFile) }
+        else if (includeSource) {
+            output.write(indexDoc(doc).relativePath,
+                doc.sourceText.toString().getBytes(StandardCharsets.UTF_8)) }
+
+        log.trace("Emitting documentation for '{}' to '{}'.",
+            doc.sourceDocId, getOutputPath(doc, 0))
+
+        long emitTime = 0
+
+        /// Each page of the document is written to its own file.
+        for (int page = 0; page < doc.pageCount; page++) {
+            output.write(getOutputPath(doc, page)) { Writer writer ->
+                if (!m) { emitPage(page, writer) }
+
+                /// When profiling, the time spent in the writer is
+                /// counted as write time rather than emit time.
+                else {
+                    TimedWriter timedWriter = new TimedWriter(writer)
+                    long emitStart = System.nanoTime()
+                    emitPage(page, timedWriter)
+                    emitTime += System.nanoTime() - emitStart -
+                        timedWriter.nanos }
+
+                writer.write(System.lineSeparator()) }}
+
+        /// Remove any pages left over from a time this document was
+        /// longer.
+        for (int page = doc.pageCount;
+            output.delete(getOutputPath(doc, page)); page++) {}
+
+        if (m) {
+            m.emitTime += emitTime
+            m.writeTime += System.nanoTime() - start - emitTime }
+
+        metrics?.outputWritten()
+
+        doc.sourceAST = null }
+
+    /**
+     * #### inShard
+     * Is this document in our shard? Documents are assigned to shards by a
+     * hash of their path relative to the input root, which is the same for
+     * every shard whatever order it finds the input files in.
+     */
+    protected boolean inShard(TargetDoc doc) {
+        return Math.floorMod(indexDoc(doc).relativePath.hashCode(),
+            shardCount) == shardIndex }
+
+    /**
+     * #### exportAnchorTable
+     * Write the link anchors defined by the documents of our shard to
+     * `exportAnchors`. `inputs` is the hash of all of the input files (see
+     * `inputsHash`).
+     */
+    protected void exportAnchorTable(Map<String, TargetDoc> shardDocs,
+    String inputs) {
+        AnchorTable table = new AnchorTable(
+            inputs: inputs,
+            shardIndex: shardIndex,
+            shardCount: shardCount)
+
+        linkAnchors.values().sort { it.id }.each { anchor ->
+            TargetDoc doc = shardDocs[anchor.sourceDocId]
+            if (doc == null) { return }
+
+            table.anchors << [anchor.id, anchor.type.name(),
+                anchor.sourceDocId, anchor.page, doc.relativePath] }
+
+        table.save(exportAnchors)
+        log.debug("Exported {} link anchor(s) to '{}'.",
+            table.anchors.size(), exportAnchors) }
+
+    /**
+     * #### importAnchorTables
+     * Add the link anchors exported by the other shards to our own. The
+     * tables must come from a build of the same inputs: the same number of
+     * shards and the same input files relative to the input root (whose
+     * hash is `inputs`), and each anchor's document has to be one we know by
+     * the same id and path. The anchors of our own documents come from
+     * parsing them, so we skip those in the tables.
+     */
+    protected void importAnchorTables(Map<String, TargetDoc> shardDocs,
+    String inputs) {
+        importAnchors.each { file ->
+            AnchorTable table = AnchorTable.load(file)
+
+            if (table.inputs != inputs ||
+                table.shardCount != shardCount) {
+                throw new IllegalArgumentException("The anchor table " +
+                    "'${file}' is from a build of different inputs.") }
+
+            table.anchors.each { entry ->
+                def (id, type, docId, page, sourcePath) = entry
+                if (shardDocs.containsKey(docId)) { return }
+
+                if (docs[docId]?.relativePath != sourcePath) {
+                    throw new IllegalArgumentException("The anchor table " +
+                        "'${file}' is from a build of different inputs: " +
+                        "unknown document '${docId}'.") }
+
+                linkAnchors.putIfAbsent(id, new LinkAnchor(
+                    id: id,
+                    type: LinkType.valueOf(type),
+                    sourceDocId: docId,
+                    page: page)) } } }
+
+    /**
+     * #### inputsHash
+     * A hash of the paths of the given documents relative to the input
+     * root, for checking that anchor tables come from a build of the same
+     * inputs.
+     */
+    protected static String inputsHash(Collection<TargetDoc> inputDocs) {
+        return BuildManifest.hash(inputDocs*.relativePath.sort()
+            .join('\n').getBytes("UTF-8")) }
+
+    /**
+     * #### timed
+     * Run one phase of the processing run, timing it if we are recording
+     * metrics.
+     */
+    protected def timed(String phase, Closure c) {
+        return metrics ? metrics.phase(phase, c) : c() }
+
+    /**
+     * #### reportMetrics
+     * Finish the metrics for this run and report them: the JSON report is
+     * written to `metricsOut` and the summary is printed if `profile` is set.
+     */
+    protected void reportMetrics() {
+        metrics.finish()
+
+        def anchorsByDoc = linkAnchors.values().countBy { it.sourceDocId }
+        metrics.docs.each { docId, m -> m.anchors = anchorsByDoc[docId] ?: 0 }
+
+        if (metricsOut) {
+            metrics.write(metricsOut)
+            log.debug("Wrote build metrics to '{}'.", metricsOut) }
+
+        if (profile) { print metrics.summary() } }
+
+    /**
+     * #### parseDoc
+     * Run the parse phase and the generator parse phase for one document.
+     * Returns `false` if the document could not be parsed.
+     * @org jlp.jdb-labs.com/Processor/parseDoc
+     */
+    protected boolean parseDoc(TargetDoc doc, CharSequence text) {
+        log.trace("Parsing '{}'.", doc.sourceDocId)
+        def parser = getParser(doc.sourceType)
+
+        DocMetrics m = doc.metrics
+        long start = m ? System.nanoTime() : 0
+
+        /// Files that are too large for the grammar take the degraded path
+        /// straight away (see [`parse budgets`](jlp://jlp.jdb-labs.com/Processor/parse-budget)).
+        doc.degraded = doc.sourceType == 'markdown' ? null : checkParseSize(text)
+        if (doc.degraded) {
+            log.warn("'{}' is too large to parse ({}). Treating it as code.",
+                doc.sourceDocId, doc.degraded)
+            parser = CODE_ONLY_PARSER }
+
+        try {
+            ParseBudget.start(parseTimeout)
+            doc.sourceAST = parser.parse(text) }
+        catch (ParseBudget.ParseTimeoutException pte) {
+            doc.degraded = "took longer than ${parseTimeout} ms to parse"
+            log.warn("'{}' {}. Treating it as code.", doc.sourceDocId,
+                doc.degraded)
+            doc.sourceAST = CODE_ONLY_PARSER.parse(text) }
+        catch (JLPParseException pe) {
+            log.warn("Unable to parse '{}'. Ignoring this document.\n{}",
+                doc.sourceDocId, pe.message)
+            return false }
+        finally { ParseBudget.clear() }
+
+        if (m) { m.degraded = doc.degraded }
+
+        if (doc.sourceAST == null) {
+            log.warn("Unable to parse '{}'. Ignoring this document.",
+                doc.sourceDocId)
+            return false }
+
+        if (m) {
+            long parsed = System.nanoTime()
+            m.parseTime += parsed - start
+            m.blocks = doc.sourceAST.blocks.size()
+            m.directives = doc.sourceAST.blocks.sum {
+                it.docBlock.directives.size() } ?: 0
+            start = parsed }
+
+        log.trace("Second-pass parsing for '{}'.", doc.sourceDocId)
+        def generator = getGenerator(doc.sourceType)
+        // TODO: error detection
+        generator.parse(doc)
+
+        paginate(doc)
+
+        if (m) { m.generatorParseTime += System.nanoTime() - start }
+        return true }
+
+    /**
+     * #### checkParseSize
+     * Check the text of a document against `maxParseSize` and
+     * `maxLineLength`. Returns why it is too large to parse, or `null` if it
+     * is not.
+     */
+    protected String checkParseSize(CharSequence text) {
+        int length = text.length()
+        if (maxParseSize > 0 && length > maxParseSize) {
+            return "${length} characters" }
+
+        if (maxLineLength <= 0) { return null }
+
+        char newline = '\n'
+        int lineStart = 0
+        for (int i = 0; i <= length; i++) {
+            if (i < length && text.charAt(i) != newline) { continue }
+            if (i - lineStart > maxLineLength) {
+                return "a line of ${i - lineStart} characters" }
+            lineStart = i + 1 }
+
+        return null }
+
+    /**
+     * #### paginate
+     * Split a document over several pages if it is longer than `pageLines`.
+     * Each page holds whole blocks: a new page starts with the first block
+     * that begins `pageLines` or more lines after the start of the current
+     * page. The link anchors defined in each block are then given the page
+     * they are on, so that links to them can be resolved to the right file.
+     *
+     * A block whose code is longer than a page is first split into several
+     * (see `splitCode`). Generated sources often have no doc comments at
+     * all, and are then one block of code.
+     * @org jlp.jdb-labs.com/Processor/paginate
+     */
+    protected void paginate(TargetDoc doc) {
+        doc.pageStarts = [0]
+
+        if (pageLines <= 0 || doc.sourceAST.blocks.isEmpty()) { return }
+
+        def blocks = doc.sourceAST.blocks =
+            doc.sourceAST.blocks.collectMany { block -> splitCode(block) }
+
+        int pageStartLine = blocks[0].lineNumber
+        for (int i = 1; i < blocks.size(); i++) {
+            if (blocks[i].lineNumber - pageStartLine < pageLines) { continue }
+
+            doc.pageStarts << i
+            pageStartLine = blocks[i].lineNumber }
+
+        if (doc.pageCount == 1) { return }
+
+        int page = 0
+        blocks.eachWithIndex { block, i ->
+            if (page + 1 < doc.pageCount && doc.pageStarts[page + 1] == i) {
+                page++ }
+
+            block.docBlock.directives.each { directive ->
+                LinkAnchor anchor = linkAnchors[directive.value]
+                if (directive.type == DirectiveType.Org &&
+                    anchor?.sourceDocId == doc.sourceDocId) {
+                    anchor.page = page } } } }
+
+    /**
+     * #### splitCode
+     * Split a block whose code is more than `pageLines` lines long at line
+     * boundaries. The first piece keeps the block's documentation, and each
+     * piece after it is a block of `pageLines` lines of code with no
+     * documentation. The pieces are all slices of the same source text.
+     */
+    protected List<Block> splitCode(Block block) {
+        CodeBlock code = block.codeBlock
+        if (code.isEmpty()) { return [block] }
+
+        /// Find the offset of the start of every `pageLines`th line.
+        List<Integer> cuts = []
+        CharSequence source = code.source
+        int lines = 0
+        for (int i = code.start; i < code.end - 1; i++) {
+            char c = source.charAt(i)
+            if (c != '\n' as char && c != '\r' as char) { continue }
+            if (c == '\r' as char && source.charAt(i + 1) == '\n' as char) { i++ }
+            if (++lines % pageLines == 0 && i + 1 < code.end) { cuts << i + 1 } }
+
+        if (cuts.isEmpty()) { return [block] }
+
+        List<Block> pieces = []
+        int start = code.start
+        int lineNumber = code.lineNumber
+        (cuts + [code.end]).each { int end ->
+            CodeBlock piece = new CodeBlock(lineNumber, source, start)
+            piece.end = end
+
+            pieces << (pieces ? new Block(piece, new DocBlock(lineNumber), lineNumber) :
+                new Block(piece, block.docBlock, block.lineNumber))
+
+            start = end
+            lineNumber += pageLines }
+
+        return pieces }
+
+    /**
+     * #### isUnchanged
+     * Check a document against its entry in the previous build manifest. A
+     * document is unchanged if it comes from the same source path, has the
+     * same type and the same content as before.
+     */
+    protected boolean isUnchanged(TargetDoc doc, Map prevEntry) {
+        return prevEntry != null &&
+            prevEntry.contentHash == doc.contentHash &&
+            prevEntry.sourceType == doc.sourceType &&
+            prevEntry.sourcePath == indexDoc(doc).relativePath }
+
+    /**
+     * #### restoreDoc
+     * Restore the state of an unchanged document from its entry in the
+     * previous build manifest instead of parsing it again.
+     */
+    protected void restoreDoc(TargetDoc doc, Map prevEntry) {
+        prevEntry.anchors.each { anchor ->
+            linkAnchors[anchor.id] = new LinkAnchor(
+                id: anchor.id,
+                type: LinkType.valueOf(anchor.type),
+                sourceDocId: doc.sourceDocId,
+                page: anchor.page ?: 0) }
 
-        /// * Run the parse phase on each of the files. For each file, we load
-        ///   the parser for that file type and parse the file into an abstract
-        ///   syntax tree (AST).
-        def badDocs = []
-        processDocs {
-            log.trace("Parsing '{}'.", currentDocId)
-            def parser = getParser(currentDoc.sourceType)
+        doc.pageStarts = prevEntry.pages ?: [0]
+        doc.linkTargets = new LinkedHashMap(prevEntry.links) }
 
-            // TODO: better error detection and handling
-            currentDoc.sourceAST = parser.parse(currentDoc.sourceFile.text)
+    /**
+     * #### writeCss
+     * Write the CSS to `.css/jlp.css` in the output directory. The file is
+     * left alone if it already has the right contents.
+     */
+    protected void writeCss() {
+        String cssText = css.text
 
-            if (currentDoc.sourceAST == null) {
-                log.warn("Unable to parse '{}'. Ignoring this document.", currentDocId)
-                badDocs << currentDocId }}
+        if (output.readText(".css/jlp.css") == cssText) { return }
 
-        /// * Remove all the documents we could not parse from our doc list.
-        docs = docs.findAll { docId, doc -> !badDocs.contains(docId) }
+        output.write(".css/jlp.css") { Writer writer -> writer.write(cssText) } }
 
-        /// * Run our generator parse phase (see
-        ///   [`JLPBaseGenerator`](jlp://com.jdb-labs.jlp.JLPBaseGenerator/phases)
-        ///   for an explanation of the generator phases).
-        processDocs {
-            log.trace("Second-pass parsing for '{}'.", currentDocId)
-            def generator = getGenerator(currentDoc.sourceType)
-            // TODO: error detection
-            generator.parse(currentDoc.sourceAST) }
+    /**
+     * #### extractSyntaxHighlighter
+     * Extract the syntax highlighter files bundled in
+     * `/syntax-highlighter.jar` into `.sh` in the output directory. The jar
+     * entries are streamed straight from the resource to their destination.
+     * Only the entries under `sh/` are extracted.
+     *
+     * A stamp file holding the hash of the bundled jar is written to `.sh`
+     * once extraction is complete. If the stamp already matches we know the
+     * files are up to date and skip the extraction entirely.
+     *
+     * Several processes may be extracting into the same output directory
+     * (the shards of a sharded build, for example), so each file is written
+     * as a stream, which a [`DirectorySink`] writes to a temporary file
+     * first and then moves into place.
+     *
+     * [`DirectorySink`]: jlp://jlp.jdb-labs.com/DirectorySink
+     * @org jlp.jdb-labs.com/Processor/extractSyntaxHighlighter
+     */
+    protected void extractSyntaxHighlighter() {
+        String stampPath = ".sh/" + SH_STAMP_FILENAME
 
+        /// The files are extracted again when we start or stop compressing
+        /// them.
+        byte[] jar = syntaxHighlighterJar()
+        String stamp = BuildManifest.hash(jar) + (precompress ? '+gzip' : '')
 
-        /// * Second pass by the generators, the emit phase.
-        processDocs {
-            log.trace("Emitting documentation for '{}'.", currentDocId)
-            def generator = getGenerator(currentDoc.sourceType)
-            currentDoc.output = generator.emit(currentDoc.sourceAST) }
+        if (output.readText(stampPath) == stamp) {
+            log.trace("Syntax highlighter files are up to date.")
+            return }
 
-        /// * Write the output to the output directory.
-        processDocs {
+        new JarInputStream(new ByteArrayInputStream(jar)).withStream { jis ->
+            JarEntry entry
+            while ((entry = jis.nextJarEntry) != null) {
+                if (!entry.name.startsWith("sh/") || entry.isDirectory()) {
+                    continue }
 
-            /// Create the path and file object for the output file
-            String relativePath =
-                getRelativeFilepath(inputRoot, currentDoc.sourceFile)
+                output.write(".sh/" + entry.name.substring(3), jis) }}
 
-            File outputFile = new File(outputRoot, relativePath + ".html")
-            File outputDir = outputFile.parentFile
+        output.write(stampPath) { Writer writer -> writer.write(stamp) } }
 
-            log.trace("Saving output for '{}' to '{}'",
-                currentDocId, outputFile)
+    /// The bundled syntax highlighter jar is only read once per JVM.
+    protected static synchronized byte[] syntaxHighlighterJar() {
+        if (shJar == null) {
+            shJar = Processor.getResourceAsStream("/syntax-highlighter.jar").bytes }
+        return shJar }
 
-            /// Create the directory for this file if it does not exist.
-            if (!outputDir.exists()) { outputDir.mkdirs() }
+    /**
+     * #### getOutputPath
+     * Get the path, relative to the output root, of the file the
+     * documentation for the given page of a document is written to.
+     */
+    protected String getOutputPath(TargetDoc doc, int page) {
+        return indexDoc(doc).relativePath + pageSuffix(page) }
 
-            /// Copy the source file over.
-            if (includeSource) {
-                (new File(outputRoot, relativePath)).withWriter {
-                    it.print currentDoc.sourceFile.text }}
+    /**
+     * #### pageSuffix
+     * @org jlp.jdb-labs.com/Processor/pageSuffix
+     * The suffix added to a source path to name the output file for one page
+     * of its documentation. The first page is `Foo.java.html`, the pages
+     * after it `Foo.java.2.html`, `Foo.java.3.html`, and so on.
+     */
+    public static String pageSuffix(int page) {
+        return page < 1 ? ".html" : ".${page + 1}.html" }
 
-            /// Write the output to the file.
-            outputFile.withWriter { it.println currentDoc.output } } }
+    /**
+     * #### pageFileName
+     * @api The file name (without any directory) of the given page of a
+     * document, for links between the pages of one document.
+     */
+    public String pageFileName(TargetDoc doc, int page) {
+        return new File(indexDoc(doc).relativePath).name + pageSuffix(page) }
 
     /**
      * #### processDocs
      * A helper method to walk over every document the processor is aware of,
-     * setting up the `currentDocId` and `currentDoc` variables before calling
-     * the given closure.
+     * calling the given closure with the document id and the `TargetDoc`.
+     * When we have a worker pool the documents are processed concurrently and
+     * this method returns once every document has been processed. The
+     * closure must therefore only work with the document it is given.
      * @org jlp.jdb-labs.com/Processor/processDocs
      */
-    protected def processDocs(Closure c) {
-        docs.each { docId, doc ->
-            currentDocId = docId
-            currentDoc = doc
+    protected def processDocs(Closure c) { processDocs(docs, c) }
 
-            return c() } }
+    /// This version only walks over the documents given.
+    protected def processDocs(Map<String, TargetDoc> docs, Closure c) {
+        if (!pool) {
+            docs.each { docId, doc -> c(docId, doc) }
+            return }
+
+        List<Future> results = docs.collect { docId, doc ->
+            pool.submit({ c(docId, doc) } as Callable) }
+
+        /// Wait for all of the documents, re-throwing the first failure.
+        try { results.each { it.get() } }
+        catch (ExecutionException ee) { throw ee.cause } }
 
     /***
      * #### resolveLink
@@ -246,52 +1203,73 @@ public class Processor {
      * @org jlp.jdb-labs.com/Processor/resolveLink
      */
     public String resolveLink(String link, TargetDoc targetDoc) {
-        switch (link) {
-
-            /// JLP link, let's resolve with a link anchor
-            case ~/^jlp:.*/:
-                /// Get the org data we found in the parse phase for this org id.
-                def m = (link =~ /jlp:\/\/(.+)/)
-                def linkId = m[0][1]
-                def linkAnchor = linkAnchors[m[0][1]]
-
-                if (!linkAnchor) {
-                    // We do not have any reference to this id.
-                    log.warn("Unable to resolve a jlp link: {}.", link)
-                    return "broken_link(${linkId})" }
-
-                /// If this is a `FileLink` then we do not need the actual
-                /// linkId, just the file being linked to.
-                if (linkAnchor.type == LinkType.FileLink) { linkId = "" }
-
-                /// This link points to a location in this document.
-                if (targetDoc.sourceDocId == linkAnchor.sourceDocId) {
-                    return "#${linkId}" }
-
-                /// The link should point to a different document.
-                else {
-                    TargetDoc linkDoc = docs[linkAnchor.sourceDocId]
-
-                    String pathToLinkedDoc = getRelativeFilepath(
-                        targetDoc.sourceFile.parentFile, linkDoc.sourceFile)
+        resolveLink(link, targetDoc, -1) }
 
-                    return "${pathToLinkedDoc}.html#${linkId}" }
-
-            /// Other protocol: return as-is.
-            case ~/^\w+:.*/: return link
-
-            /// Absolute link, resolve relative to the output root.
-            case ~/^\/.*/:
-                /// Our link should be the relative path (if needed) plus the
-                /// link without the leading `/`.
-                def relPath = getRelativeFilepath(targetDoc.sourceFile, inputRoot)
-                return (relPath ? "${relPath}/" : "") + link[1..-1]
-
-            /// Relative link, resolve using the output root and the source
-            /// document relative to the input root.
-            default:
-                def relPath = getRelativeFilepath(inputRoot, targetDoc.sourceFile)
-                return "${relPath}/${link}" }}
+    /**
+     * This version resolves the link as seen from the given page of the
+     * document. It only makes a difference for links to anchors within a
+     * document split over several pages: links to the same page are just
+     * the anchor, links to another page name that page's file. A page of -1
+     * stands for none of the pages, so every such link names the file.
+     */
+    public String resolveLink(String link, TargetDoc targetDoc, int page) {
+        indexDoc(targetDoc)
+
+        /// JLP link, let's resolve with a link anchor
+        if (link.startsWith('jlp://')) {
+            /// Get the org data we found in the parse phase for this org id.
+            def linkId = link.substring(6)
+            def linkAnchor = linkAnchors[linkId]
+
+            if (!linkAnchor) {
+                // We do not have any reference to this id.
+                log.warn("Unable to resolve a jlp link: {}.", link)
+                return "broken_link(${linkId})" }
+
+            /// If this is a `FileLink` then we do not need the actual
+            /// linkId, just the file being linked to.
+            if (linkAnchor.type == LinkType.FileLink) { linkId = "" }
+
+            /// This link points to a location in this document, possibly on
+            /// another page of it.
+            if (targetDoc.sourceDocId == linkAnchor.sourceDocId) {
+                if (targetDoc.pageCount == 1 || linkAnchor.page == page) {
+                    return '#' + linkId }
+                return pageFileName(targetDoc, linkAnchor.page) + '#' + linkId }
+
+            /// The link should point to a different document. This href is
+            /// the same for every document in the same directory.
+            Map<String, String> dirHrefs = linkHrefs[targetDoc.canonicalDir]
+            if (dirHrefs == null) {
+                dirHrefs = linkHrefs.putIfAbsent(targetDoc.canonicalDir,
+                    new ConcurrentHashMap<String, String>()) ?:
+                    linkHrefs[targetDoc.canonicalDir] }
+
+            String href = dirHrefs[link]
+            if (href == null) {
+                TargetDoc linkDoc = indexDoc(docs[linkAnchor.sourceDocId])
+
+                String pathToLinkedDoc = relativePath(
+                    targetDoc.canonicalDir, linkDoc.canonicalPath)
+
+                href = pathToLinkedDoc + pageSuffix(linkAnchor.page) + '#' + linkId
+                dirHrefs[link] = href }
+
+            return href }
+
+        /// Other protocol: return as-is.
+        if (hasScheme(link)) { return link }
+
+        /// Absolute link, resolve relative to the output root.
+        if (link.startsWith('/')) {
+            /// Our link should be the relative path (if needed) plus the
+            /// link without the leading `/`.
+            def relPath = relativePath(targetDoc.canonicalDir, inputRootPath)
+            return (relPath ? relPath + '/' : '') + link.substring(1) }
+
+        /// Relative link, resolve using the output root and the source
+        /// document relative to the input root.
+        return targetDoc.relativePath + '/' + link }
 
     /**
      * #### getRelativeFilepath
@@ -303,27 +1281,117 @@ public class Processor {
         /// Make sure our root is a directory
         if (!root.isDirectory()) root= root.parentFile
 
-        /// Split both paths into their individual parts.
-        def rootPath = root.canonicalPath.split('/|\\\\')
-        def filePath = file.canonicalPath.split('/|\\\\')
+        return getRelativeFilepath(root.canonicalPath, file.canonicalPath) }
 
-        def relativePath = []
+    /**
+     * This version works on the canonical paths of the root directory and the
+     * file, and does not need to touch the filesystem.
+     */
+    public static String getRelativeFilepath(String rootPath, String filePath) {
+        /// Split both paths into their individual parts.
+        def rootParts = rootPath.split('/|\\\\')
+        def fileParts = filePath.split('/|\\\\')
 
         /// Find the point of divergence in the two paths by walking down their
         /// parts until we find a pair that do not match.
         int i = 0
-        while (i < Math.min(rootPath.length, filePath.length) &&
-               rootPath[i] == filePath[i]) { i++ }
+        while (i < Math.min(rootParts.length, fileParts.length) &&
+               rootParts[i] == fileParts[i]) { i++ }
+
+        /// Backtrack from our root to our newly-found common parent directory,
+        /// then add the remainder of the path from our common parent directory
+        /// to our file.
+        StringBuilder relativePath = new StringBuilder()
+        for (int j = i; j < rootParts.length; j++) {
+            if (relativePath.length() > 0) { relativePath.append('/') }
+            relativePath.append('..') }
+
+        for (int j = i; j < fileParts.length; j++) {
+            if (relativePath.length() > 0) { relativePath.append('/') }
+            relativePath.append(fileParts[j]) }
 
-        /// Backtrack from our root to our newly-found common parent directory.
-        (i..<rootPath.length).each { relativePath << ".." }
+        return relativePath.toString() }
 
-        /// Add the remainder of the path from our common parent directory to
-        /// our file.
-        (i..<filePath.length).each { j -> relativePath << filePath[j] }
+    /**
+     * #### relativePath
+     * A memoized version of `getRelativeFilepath` for the canonical paths of
+     * a directory and a file.
+     */
+    protected String relativePath(String dirPath, String filePath) {
+        Map<String, String> fromDir = relativePaths[dirPath]
+        if (fromDir == null) {
+            fromDir = relativePaths.putIfAbsent(dirPath,
+                new ConcurrentHashMap<String, String>()) ?:
+                relativePaths[dirPath] }
+
+        String relPath = fromDir[filePath]
+        if (relPath == null) {
+            relPath = getRelativeFilepath(dirPath, filePath)
+            fromDir[filePath] = relPath }
+
+        return relPath }
+
+    /**
+     * #### indexDoc
+     * Fill in the paths kept on a [`TargetDoc`] if they are not already
+     * known. Returns the document.
+     *
+     * [`TargetDoc`]: jlp://jlp.jdb-labs.com/TargetDoc
+     */
+    protected TargetDoc indexDoc(TargetDoc doc) {
+        if (doc.relativePath != null) { return doc }
+
+        if (inputRootPath == null) {
+            inputRootPath = inputRoot.canonicalPath
+            inputRootDirPath = inputRoot.isDirectory() ?
+                inputRootPath : inputRoot.parentFile.canonicalPath }
+
+        doc.canonicalPath = doc.sourceFile.canonicalPath
+        doc.canonicalDir = doc.sourceFile.parentFile.canonicalPath
+        doc.relativePath = relativePath(inputRootDirPath, doc.canonicalPath)
+        return doc }
+
+    /**
+     * #### memoryDoc
+     * Create the [`TargetDoc`] for a source held in memory. Its paths are
+     * made up from its id, as if it were a file under
+     * [`MemorySource.ROOT`](jlp://jlp.jdb-labs.com/MemorySource).
+     *
+     * [`TargetDoc`]: jlp://jlp.jdb-labs.com/TargetDoc
+     */
+    protected TargetDoc memoryDoc(MemorySource source, String sourceType) {
+        def parts = source.id.split('/').findAll { it && it != '.' }
+        if (!parts || parts.contains('..')) {
+            throw new IllegalArgumentException(
+                "'${source.id}' is not a valid source id.") }
+
+        String relPath = parts.join('/')
+        String path = MemorySource.ROOT + '/' + relPath
+        return new TargetDoc(
+            sourceText: source.text,
+            sourceType: sourceType,
+            relativePath: relPath,
+            canonicalPath: path,
+            canonicalDir: path.substring(0, path.lastIndexOf('/'))) }
+
+    /**
+     * #### loadDoc
+     * Load the source of a document into the reader, from its file or from
+     * memory.
+     */
+    protected void loadDoc(TargetDoc doc, SourceReader reader) {
+        if (doc.sourceFile) { reader.load(doc.sourceFile) }
+        else { reader.load(doc.sourceText) } }
 
-        /// Reconstitute the parts into one string.
-        return relativePath.join('/') }
+    /// True if the link starts with a URL scheme (`\w+:`).
+    protected static boolean hasScheme(String link) {
+        int i = 0
+        while (i < link.length()) {
+            char c = link.charAt(i)
+            if (!Character.isLetterOrDigit(c) || c > 127) {
+                if (c != '_' as char) { break } }
+            i++ }
+        return i > 0 && i < link.length() && link.charAt(i) == ':' as char }
 
     /**
      * #### getCommonParent
@@ -331,19 +1399,31 @@ public class Processor {
      * @org jlp.jdb-labs.com/Processor/getCommonParent
      */
     public static File getCommonParent(File file1, File file2) {
-            def path1 = file1.canonicalPath.split('/|\\\\')
-            def path2 = file2.canonicalPath.split('/|\\\\')
-            def newPath = []
+        return getCommonParent([file1, file2]) }
 
-            // build new commonPath based on matching paths so far
-            int i = 0
-            while (i < Math.min(path1.length, path2.length) &&
-                   path1[i] == path2[i]) {
+    /// This version finds the common parent of all of the given files in one
+    /// pass, finding each canonical path only once. It returns `null` if
+    /// there are no files.
+    public static File getCommonParent(List<File> files) {
+        if (!files) { return null }
+
+        String[] commonPath = null
+        int common = 0
+
+        files.each { file ->
+            def path = file.canonicalPath.split('/|\\\\')
+            if (commonPath == null) {
+                commonPath = path
+                common = path.length
+                return }
 
-                newPath << path2[i]
-                i++ }
+            // narrow the common path based on matching paths so far
+            int i = 0
+            while (i < Math.min(common, path.length) &&
+                   commonPath[i] == path[i]) { i++ }
+            common = i }
 
-            return new File(newPath.join('/')) }
+        return new File((commonPath as List).take(common).join('/')) }
 
     /**
      * #### sourceTypeForFile
@@ -352,34 +1432,37 @@ public class Processor {
      * @org jlp.jdb-labs.com/Processor/sourceTypeForFile
      */
     public static sourceTypeForFile(File sourceFile) {
+        return sourceTypeForName(sourceFile.name) }
 
-        /// First we need to find the file extension.
-        String extension
-        def nameParts = sourceFile.name.split(/\./)
+    /// This version works on the file name alone.
+    public static String sourceTypeForName(String name) {
 
-        /// If there is no extension, then this is a binary file.
-        if (nameParts.length == 1) { return 'binary' }
-        else { extension = nameParts[-1] }
+        /// First we need to find the file extension. If there is no
+        /// extension, then this is a binary file.
+        int dot = name.lastIndexOf('.')
+        if (dot < 0 || dot == name.length() - 1) { return 'binary' }
 
         /// Lookup the file type by extension
-        switch (extension) {
-            case 'c': case 'h': return 'c'
-            case 'c++': case 'h++': case 'cpp': case 'hpp': return 'cpp'
-            case 'erl': case 'hrl': return 'erlang'
-            case 'groovy': return 'groovy'
-            case 'java': return 'java'
-            case 'js': return 'javascript'
-            case 'md': return 'markdown'
-            case 'html': return 'html'
-            case 'xml': case 'xhtml': return 'xml'
-            case 'prg': return 'foxpro'
-            case 'sql': return 'sql'
-
-            // binary file types
-            case 'bin': case 'com': case 'exe': case 'o':
-            case 'bz2': case 'tar': case 'tgz': case 'zip': case 'jar':
-                return 'binary'
-            default: return 'unknown'; }}
+        return SOURCE_TYPES[name.substring(dot + 1)] ?: 'unknown' }
+
+    /// The source type for each file extension we recognize.
+    public static final Map<String, String> SOURCE_TYPES = [
+        'c': 'c', 'h': 'c',
+        'c++': 'cpp', 'h++': 'cpp', 'cpp': 'cpp', 'hpp': 'cpp',
+        'erl': 'erlang', 'hrl': 'erlang',
+        'groovy': 'groovy',
+        'java': 'java',
+        'js': 'javascript',
+        'md': 'markdown',
+        'html': 'html',
+        'xml': 'xml', 'xhtml': 'xml',
+        'prg': 'foxpro',
+        'sql': 'sql',
+
+        // binary file types
+        'bin': 'binary', 'com': 'binary', 'exe': 'binary', 'o': 'binary',
+        'bz2': 'binary', 'tar': 'binary', 'tgz': 'binary', 'zip': 'binary',
+        'jar': 'binary' ].asImmutable()
 
     /**
      * #### shBrushForSourceType
@@ -399,10 +1482,13 @@ public class Processor {
 
     /**
      * #### getGenerator
-     * Get a generator for the given source file type.
+     * Get a generator for the given source file type. Generators are cached
+     * per thread.
      * @org jlp.jdb-labs.com/Processor/getGenerator
      */
     protected getGenerator(String sourceType) {
+        Map<String, JLPBaseGenerator> generators = this.generators.get()
+
         /// We lazily create the generators.
         if (generators[sourceType] == null) {
             switch(sourceType) {
@@ -415,45 +1501,108 @@ public class Processor {
 
         return generators[sourceType] }
 
+    /**
+     * #### getMarkdownRenderer
+     * Get the [`MarkdownRenderer`] shared by the generators of this
+     * processor.
+     *
+     * [`MarkdownRenderer`]: jlp://jlp.jdb-labs.com/MarkdownRenderer
+     */
+    public synchronized MarkdownRenderer getMarkdownRenderer() {
+        if (markdownRenderer == null) {
+            markdownRenderer = new MarkdownRenderer(threads, 10000) }
+        return markdownRenderer }
+
+    /**
+     * #### getPageTemplate
+     * Get the [`PageTemplate`] shared by the generators of this processor:
+     * `template`, or the default bundled as `/templates/page.html`.
+     *
+     * [`PageTemplate`]: jlp://jlp.jdb-labs.com/PageTemplate
+     */
+    public synchronized PageTemplate getPageTemplate() {
+        if (pageTemplate == null) {
+            pageTemplate = new PageTemplate((template ?:
+                Processor.getResource("/templates/page.html")).text) }
+        return pageTemplate }
+
     /**
      * #### getParser
-     * Get a parser for the given source file type.
+     * Get a parser for the given source file type. Parsers are cached per
+     * thread.
      * @org jlp.jdb-labs.com/Processor/getParser
      */
     protected getParser(String sourceType) {
+        Map<String, JLPParser> parsers = this.parsers.get()
+
         /// We are lazily loading the parsers also.
         if (parsers[sourceType] == null) {
-            /// We do have different parsers for different languages.
-            switch(sourceType) {
-                case 'erlang':
-                    parsers[sourceType] = Parboiled.createParser(
-                        JLPPegParser, '%%')
-                    break
-                case 'foxpro':
-                    parsers[sourceType] = Parboiled.createParser(
-                        JLPPegParser, ['**', '&&&'])
-                    break
-                case 'markdown':
-                    parsers[sourceType] = new MarkdownParser()
-                    break
-                case 'html': case 'xml':
-                    parsers[sourceType] = Parboiled.createParser(
-                        JLPPegParser, '<!--!', '-->',
-                        '!#$%^&*()_-+=|;:\'",<>?~`', '<<?')
-                    break
-                case 'sql':
-                    parsers[sourceType] = Parboiled.createParser(JLPPegParser,
-                        '/**', '*/', '!#$%^&*()_-=+|;:\'",<>?~`', '---')
-                    break
-                case 'c':
-                case 'cpp':
-                case 'groovy':
-                case 'java':
-                case 'javascript':
-                default:
-                    parsers[sourceType] = Parboiled.createParser(JLPPegParser,
-                        '/**', '*/', '!#$%^&*()_-=+|;:\'",<>?~`', '///')
-                    break }}
+            long start = metrics ? System.nanoTime() : 0
+
+            /// Markdown files have their own parser. For everything else we
+            /// use one of the two implementations of the JLP grammar,
+            /// configured with the comment delimiters for the language.
+
+            if (sourceType == 'markdown') {
+                parsers[sourceType] = new MarkdownParser() }
+
+            else {
+                def args = parserArgumentsForSourceType(sourceType)
+
+                switch (parserImpls[sourceType] ?: parserImpls['*'] ?: 'peg') {
+                    case 'scanner':
+                        parsers[sourceType] = new JLPScanner(*args)
+                        break
+                    case 'peg':
+                    default:
+                        parsers[sourceType] =
+                            pegParserClass().newInstance(*args)
+                        break }}
+
+            metrics?.parserCreationTime?.addAndGet(System.nanoTime() - start) }
 
         return parsers[sourceType] }
+
+    /**
+     * #### pegParserClass
+     * Get the Parboiled subclass of [`JLPPegParser`] that is instantiated
+     * for the `peg` parsers. This is what `Parboiled.createParser` does
+     * before creating each parser, except that we use the class generated at
+     * build time by the [`ParserClassGenerator`] if there is one.
+     *
+     * [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser
+     * [`ParserClassGenerator`]: jlp://jlp.jdb-labs.com/ParserClassGenerator
+     * @org jlp.jdb-labs.com/Processor/pegParserClass
+     */
+    protected static synchronized Class pegParserClass() {
+        if (pegParserClass == null) {
+            pegParserClass = ParserClassGenerator.loadParserClass(JLPPegParser) }
+        return pegParserClass }
+
+    /**
+     * #### parserArgumentsForSourceType
+     * Lookup the comment delimiters used to configure the parser for the
+     * given source type. These are the constructor arguments for either
+     * [`JLPPegParser`] or [`JLPScanner`].
+     *
+     * [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser/constructors
+     * [`JLPScanner`]: jlp://jlp.jdb-labs.com/JLPScanner
+     * @org jlp.jdb-labs.com/Processor/parserArgumentsForSourceType
+     */
+    public static List parserArgumentsForSourceType(String sourceType) {
+        /// We do have different parsers for different languages.
+        switch(sourceType) {
+            case 'erlang': return ['%%']
+            case 'foxpro': return [['**', '&&&']]
+            case 'html': case 'xml':
+                return ['<!--!', '-->', '!#$%^&*()_-+=|;:\'",<>?~`', '<<?']
+            case 'sql':
+                return ['/**', '*/', '!#$%^&*()_-=+|;:\'",<>?~`', '---']
+            case 'c':
+            case 'cpp':
+            case 'groovy':
+            case 'java':
+            case 'javascript':
+            default:
+                return ['/**', '*/', '!#$%^&*()_-=+|;:\'",<>?~`', '///'] }}
 }
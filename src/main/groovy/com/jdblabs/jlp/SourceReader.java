@@ -0,0 +1,257 @@
+/**
+ * # SourceReader
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SourceReader loads the contents of input files. Each file is read once,
+ * through a `FileChannel`, into a byte buffer and then decoded into a
+ * character buffer. The buffers belong to the reader and are reused for the
+ * next file, so a reader should only be used by one thread, and the text
+ * returned for one file is only valid until the next file is loaded. (The
+ * parsers copy what they need into the AST, so this is not a problem for
+ * them.) Files of [`MAP_THRESHOLD`] bytes or more are memory-mapped instead
+ * of being copied into the byte buffer.
+ *
+ * The raw bytes remain available after decoding. The [`Processor`] uses them
+ * to compute the content hash for the build manifest.
+ *
+ * #### Encoding detection
+ * Unless a charset is given to the constructor, the encoding of each file is
+ * detected:
+ *
+ * 1. A file starting with a UTF-8 or UTF-16 byte order mark is decoded with
+ *    that encoding. The byte order mark is not part of the text.
+ * 2. A file that is valid UTF-8 is decoded as UTF-8. This includes plain
+ *    ASCII files.
+ * 3. Anything else is decoded using the fallback charset, `windows-1252` by
+ *    default. This is what most of our older (FoxPro, VB) sources use.
+ *
+ * [`MAP_THRESHOLD`]: jlp://jlp.jdb-labs.com/SourceReader/MAP_THRESHOLD
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * @org jlp.jdb-labs.com/SourceReader
+ */
+public class SourceReader {
+
+    /// Files at least this large are memory-mapped rather than read.
+    /// @org jlp.jdb-labs.com/SourceReader/MAP_THRESHOLD
+    public static final long MAP_THRESHOLD = 256 * 1024;
+
+    /// The charset used for files that are not valid UTF-8.
+    public static final Charset DEFAULT_FALLBACK =
+        Charset.forName("windows-1252");
+
+    private final Charset charset;
+    private final Charset fallback;
+    private final Map<Charset, CharsetDecoder> strictDecoders =
+        new HashMap<Charset, CharsetDecoder>();
+    private final Map<Charset, CharsetDecoder> lenientDecoders =
+        new HashMap<Charset, CharsetDecoder>();
+
+    /// The reusable buffers.
+    private ByteBuffer readBuffer;
+    private CharBuffer charBuffer;
+
+    /// The state for the file most recently loaded.
+    private ByteBuffer bytes;
+    private CharBuffer text;
+    private Charset detectedCharset;
+
+    /// Create a reader that detects the encoding of each file.
+    public SourceReader() { this(null, DEFAULT_FALLBACK); }
+
+    /// Create a reader that decodes every file with the given charset. If
+    /// `charset` is `null` the encoding is detected.
+    public SourceReader(Charset charset) { this(charset, DEFAULT_FALLBACK); }
+
+    public SourceReader(Charset charset, Charset fallback) {
+        this.charset = charset;
+        this.fallback = fallback; }
+
+    /**
+     * #### read
+     * @api Load the given file and return its decoded contents.
+     */
+    public CharSequence read(File file) throws IOException {
+        load(file);
+        return getText(); }
+
+    /**
+     * #### load
+     * @api Load the raw bytes of the given file. The bytes are not decoded
+     * until the text is requested, so a caller that only needs the bytes (to
+     * check a content hash, for example) does not pay for decoding.
+     */
+    public void load(File file) throws IOException {
+        bytes = null;
+        text = null;
+        detectedCharset = null;
+
+        FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.READ);
+
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("'" + file + "' is too large to read."); }
+
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return; }
+
+            if (readBuffer == null || readBuffer.capacity() < size) {
+                readBuffer = ByteBuffer.allocate(
+                    Math.max((int) size, 8 * 1024)); }
+
+            readBuffer.clear();
+            readBuffer.limit((int) size);
+            while (readBuffer.hasRemaining()) {
+                if (channel.read(readBuffer) < 0) { break; } }
+            readBuffer.flip();
+            bytes = readBuffer; }
+
+        finally { channel.close(); } }
+
+    /**
+     * @api Load a source that is already text, rather than a file (see
+     * [`MemorySource`](jlp://jlp.jdb-labs.com/MemorySource)). Its bytes are
+     * the text encoded as UTF-8, and are only encoded if they are asked for.
+     */
+    public void load(CharSequence source) {
+        bytes = null;
+        text = CharBuffer.wrap(source);
+        detectedCharset = null; }
+
+    /**
+     * #### getBytes
+     * @api Get the raw bytes of the file most recently loaded. The buffer
+     * returned is positioned at the start of the file.
+     */
+    public ByteBuffer getBytes() {
+        if (bytes == null && text != null) {
+            bytes = StandardCharsets.UTF_8.encode(text.duplicate()); }
+        if (bytes == null) { throw new IllegalStateException("No file loaded."); }
+        ByteBuffer view = bytes.duplicate();
+        view.rewind();
+        return view; }
+
+    /**
+     * #### getText
+     * @api Get the decoded contents of the file most recently loaded. The
+     * file is decoded the first time this is called.
+     */
+    public CharSequence getText() throws CharacterCodingException {
+        if (text != null) { return text; }
+
+        ByteBuffer in = getBytes();
+
+        if (charset != null) {
+            skipByteOrderMark(in, charset);
+            text = decode(in, charset, false); }
+
+        else {
+            Charset bomCharset = byteOrderMark(in);
+            if (bomCharset != null) { text = decode(in, bomCharset, false); }
+            else {
+                text = decode(in, StandardCharsets.UTF_8, true);
+                if (text == null) {
+                    in.rewind();
+                    text = decode(in, fallback, false); } } }
+
+        return text; }
+
+    /// The charset the file most recently loaded was decoded with.
+    public Charset getCharset() { return detectedCharset; }
+
+    /**
+     * #### decode
+     * Decode the given bytes into our character buffer. When `strict` is
+     * set, returns `null` if the bytes are not valid in the given charset.
+     * Otherwise invalid input is replaced.
+     */
+    private CharBuffer decode(ByteBuffer in, Charset cs, boolean strict)
+    throws CharacterCodingException {
+        CharsetDecoder decoder = decoder(cs, strict);
+
+        int maxChars = (int) Math.ceil(
+            in.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+        if (charBuffer == null || charBuffer.capacity() < maxChars) {
+            charBuffer = CharBuffer.allocate(Math.max(maxChars, 8 * 1024)); }
+
+        CharBuffer out = charBuffer;
+        out.clear();
+
+        decoder.reset();
+        CoderResult result = decoder.decode(in, out, true);
+        if (result.isUnderflow()) { result = decoder.flush(out); }
+
+        if (result.isError() && strict) { return null; }
+        if (!result.isUnderflow()) { result.throwException(); }
+
+        out.flip();
+        detectedCharset = cs;
+        return out; }
+
+    /// Decoders are cached per charset: one that reports invalid input, used
+    /// for detection, and one that replaces it.
+    private CharsetDecoder decoder(Charset cs, boolean strict) {
+        Map<Charset, CharsetDecoder> decoders =
+            strict ? strictDecoders : lenientDecoders;
+
+        CharsetDecoder decoder = decoders.get(cs);
+        if (decoder == null) {
+            CodingErrorAction action = strict ?
+                CodingErrorAction.REPORT : CodingErrorAction.REPLACE;
+            decoder = cs.newDecoder()
+                .onMalformedInput(action)
+                .onUnmappableCharacter(action);
+            decoders.put(cs, decoder); }
+
+        return decoder; }
+
+    /**
+     * #### byteOrderMark
+     * If the input starts with a byte order mark, skip past it and return the
+     * charset it indicates. Otherwise return `null`.
+     */
+    private static Charset byteOrderMark(ByteBuffer in) {
+        if (startsWith(in, 0xEF, 0xBB, 0xBF)) {
+            in.position(3);
+            return StandardCharsets.UTF_8; }
+
+        /// The UTF-16 decoders consume the byte order mark themselves.
+        if (startsWith(in, 0xFE, 0xFF) || startsWith(in, 0xFF, 0xFE)) {
+            return StandardCharsets.UTF_16; }
+
+        return null; }
+
+    /// When the charset is given, a UTF-8 byte order mark still needs to be
+    /// skipped (the UTF-8 decoder would keep it).
+    private static void skipByteOrderMark(ByteBuffer in, Charset cs) {
+        if (StandardCharsets.UTF_8.equals(cs) && startsWith(in, 0xEF, 0xBB, 0xBF)) {
+            in.position(3); } }
+
+    private static boolean startsWith(ByteBuffer in, int... prefix) {
+        if (in.remaining() < prefix.length) { return false; }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((in.get(in.position() + i) & 0xFF) != prefix[i]) {
+                return false; } }
+        return true; }
+}
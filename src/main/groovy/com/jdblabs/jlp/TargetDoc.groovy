@@ -16,13 +16,49 @@ public class TargetDoc {
     /// The result of parsing the input file. 
     public SourceFile sourceAST
 
-    /// The original source file.
+    /// The original source file, or for a source held in memory (see
+    /// [`MemorySource`](jlp://jlp.jdb-labs.com/MemorySource)), its text.
     public File sourceFile
+    public CharSequence sourceText
     public String sourceDocId
 
     /// The source code type (ie. `java`, `erlang`, etc.). See
     /// [`Processor.sourceTypeForFile`](jlp.jdb-labs.com/Processor/sourceTypeForFile)
     public String sourceType
 
-    public String output
+    /// A hash of the source file contents (see
+    /// [`BuildManifest`](jlp://jlp.jdb-labs.com/BuildManifest)).
+    public String contentHash
+
+    /// Paths for the source file, filled in once by the
+    /// [`Processor`](jlp://jlp.jdb-labs.com/Processor/path-index) so that
+    /// link resolution does not need to touch the filesystem: the canonical
+    /// path of the file, the canonical path of its directory, and the path of
+    /// the file relative to the input root.
+    public String canonicalPath
+    public String canonicalDir
+    public String relativePath
+
+    /// The `jlp://` links used by this document, mapped to the href each
+    /// resolved to when the document was emitted.
+    public Map<String, String> linkTargets = [:]
+
+    /// The index of the first block of each page of the output. Most
+    /// documents are one page. See
+    /// [`Processor.paginate`](jlp://jlp.jdb-labs.com/Processor/paginate).
+    public List<Integer> pageStarts = [0]
+
+    public int getPageCount() { pageStarts.size() }
+
+    /// Why this document was treated as code rather than parsed, if it was.
+    /// See [`Processor`](jlp://jlp.jdb-labs.com/Processor/parse-budget).
+    public String degraded
+
+    /// If this document is an identical copy of another, the other document.
+    /// See [`Processor.dedup`](jlp://jlp.jdb-labs.com/Processor/dedup).
+    public TargetDoc original
+
+    /// The metrics recorded for this document, or `null` if the processor is
+    /// not recording [`BuildMetrics`](jlp://jlp.jdb-labs.com/BuildMetrics).
+    public BuildMetrics.DocMetrics metrics
 }
@@ -0,0 +1,229 @@
+/**
+ * # Watcher
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.nio.file.ClosedWatchServiceException
+import java.nio.file.FileSystems
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.WatchEvent
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.util.concurrent.TimeUnit
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import static java.nio.file.StandardWatchEventKinds.*
+
+/**
+ * The Watcher implements `jlp --watch`. It keeps one [`Processor`] alive
+ * and re-runs it whenever files under the input paths change, so that only
+ * the first run pays for starting the JVM, creating the parsers and
+ * extracting the syntax highlighter files.
+ *
+ * Each run after the first is an incremental run (see [`BuildManifest`])
+ * that is told exactly which files changed, so only those files are read
+ * and parsed again. Documents that link to anchors which moved are found
+ * and emitted again by the usual incremental checks.
+ *
+ * Changes are debounced: after the first change we wait until no further
+ * change has been seen for `quietPeriod` milliseconds and then process all
+ * of them together. Editors often write a file in several steps, and a
+ * version control checkout touches many files at once.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * [`BuildManifest`]: jlp://jlp.jdb-labs.com/BuildManifest
+ * @org jlp.jdb-labs.com/Watcher
+ */
+public class Watcher {
+
+    /// The files and directories given on the command line.
+    public List<File> inputPaths
+
+    public File outputDir
+    public def css
+
+    /// The options used to create the [`Processor`](jlp://jlp.jdb-labs.com/Processor/create).
+    public Map processorOptions = [:]
+
+    /// Finds the input files under the input paths. See
+    /// [`InputCollector`](jlp://jlp.jdb-labs.com/InputCollector).
+    public InputCollector inputCollector = new InputCollector()
+
+    /// How long to wait for further changes before processing, in
+    /// milliseconds.
+    public long quietPeriod = 200
+
+    protected Processor processor
+    protected List<File> inputFiles
+    protected WatchService watchService
+
+    /// The directories we have registered with the watch service.
+    protected Map<WatchKey, Path> watchedDirs = [:]
+
+    private Logger log = LoggerFactory.getLogger(getClass())
+
+    /**
+     * #### run
+     * @api Process the inputs, then watch them and process them again as
+     * they change. This method does not return until the thread is
+     * interrupted.
+     */
+    public void run() {
+        watchService = FileSystems.default.newWatchService()
+
+        try {
+            collectInputs()
+            runProcessor(null)
+            println "Watching for changes (Ctrl-C to stop)."
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = [] as Set
+                boolean rescan = false
+
+                /// Wait for the first change, then keep collecting until
+                /// things have been quiet for a while.
+                WatchKey key = watchService.take()
+                while (key != null) {
+                    rescan |= collectChanges(key, changed)
+                    key = watchService.poll(quietPeriod, TimeUnit.MILLISECONDS) }
+
+                if (changed.isEmpty() && !rescan) { continue }
+
+                /// Files were created or deleted: find the input files again.
+                if (rescan) { collectInputs() }
+
+                runProcessor(changed) } }
+
+        catch (InterruptedException ie) { Thread.currentThread().interrupt() }
+        catch (ClosedWatchServiceException cwse) { /* shutting down */ }
+        finally {
+            watchService.close()
+            processor?.shutdown() } }
+
+    /**
+     * #### collectInputs
+     * Find the input files, and watch every directory the input collector
+     * walked to find them. Directories it skipped (because they were
+     * excluded or ignored) are not watched.
+     */
+    protected void collectInputs() {
+        inputFiles = inputCollector.collect(inputPaths)
+        inputCollector.directories.each { dir -> registerDir(dir) }
+
+        /// For input paths that are single files we watch their directory.
+        inputPaths.findAll { !it.isDirectory() }.each { file ->
+            registerDir(normalize(file.parentFile)) } }
+
+    /**
+     * #### runProcessor
+     * Run the processor over the current input files, re-creating it if the
+     * input root has changed (in which case every output path changes and
+     * we need a full build anyway).
+     */
+    protected void runProcessor(Set<Path> changed) {
+        if (inputFiles.isEmpty()) {
+            log.warn("No input files.")
+            return }
+
+        long start = System.currentTimeMillis()
+
+        File inputRoot = Processor.getCommonParent(inputFiles)
+        if (processor == null || processor.inputRoot != inputRoot) {
+            processor?.shutdown()
+            processor = Processor.create(
+                processorOptions + [incremental: true, keepAlive: true],
+                outputDir, css, inputFiles)
+            changed = null }
+
+        try { processor.process(inputFiles, changed) }
+        catch (Exception e) {
+            log.error("Processing failed.", e)
+            return }
+
+        int count = changed == null ? inputFiles.size() : changed.size()
+        println "Processed ${count} changed file(s) in " +
+            "${System.currentTimeMillis() - start} ms." }
+
+    /**
+     * #### collectChanges
+     * Add the files changed by the events of one watch key to `changed`.
+     * Returns `true` if files or directories were created or deleted, in
+     * which case the list of input files needs to be rebuilt.
+     */
+    protected boolean collectChanges(WatchKey key, Set<Path> changed) {
+        Path dir = watchedDirs[key]
+        boolean rescan = false
+
+        key.pollEvents().each { WatchEvent event ->
+            /// We lost events, so we cannot tell what changed.
+            if (event.kind() == OVERFLOW) {
+                changed.addAll(inputFiles.collect { normalize(it) })
+                rescan = true
+                return }
+
+            Path path = dir.resolve((Path) event.context())
+
+            /// A changed ignore file may change which files are inputs.
+            if (InputCollector.IGNORE_FILES.contains(path.fileName.toString())) {
+                rescan = true
+                return }
+
+            if (!isInput(path)) { return }
+
+            /// New directories need to be watched too, which will happen when
+            /// the input files are collected again.
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                rescan = true
+                return }
+
+            /// A deleted directory may have held input files.
+            if (event.kind() == ENTRY_DELETE &&
+                watchedDirs.values().any { it.startsWith(path) }) {
+                rescan = true
+                return }
+
+            /// Otherwise we only care about files we know how to document.
+            if (!InputCollector.isSource(path)) { return }
+
+            changed << path
+            if (event.kind() != ENTRY_MODIFY) { rescan = true } }
+
+        /// Stop watching directories that no longer exist.
+        if (!key.reset()) { watchedDirs.remove(key) }
+
+        return rescan }
+
+    /**
+     * #### isInput
+     * A path is an input if it is one of the input paths or lies beneath one
+     * of them. The output directory and hidden files are excluded, the same
+     * as when the input files are collected.
+     */
+    protected boolean isInput(Path path) {
+        if (path.startsWith(normalize(outputDir))) { return false }
+        if (path.fileName.toString().startsWith('.')) { return false }
+
+        return inputPaths.any { path.startsWith(normalize(it)) } }
+
+    /**
+     * #### registerDir
+     * Watch the given directory, unless we already are.
+     */
+    protected void registerDir(Path dir) {
+        if (dir.startsWith(normalize(outputDir))) { return }
+        if (watchedDirs.values().contains(dir)) { return }
+
+        WatchKey key = dir.register(watchService,
+            ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE)
+        watchedDirs[key] = dir }
+
+    protected static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize() }
+
+    protected static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize() }
+}
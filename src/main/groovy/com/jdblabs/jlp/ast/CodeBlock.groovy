@@ -10,13 +10,61 @@ import java.util.Map
 
 /**
  * @api ASTNode for `CodeBlocks`.
+ * A code block does not hold its own copy of the code. It is always one
+ * contiguous piece of the source file, so we only keep the start and end
+ * offsets of that piece in the [`SourceFile`] source. The text (or the
+ * individual lines) are only materialized when they are asked for.
+ *
+ * [`SourceFile`]: jlp://jlp.jdb-labs.com/ast/SourceFile
  * @org jlp.jdb-labs.com/ast/CodeBlock
  */
 public class CodeBlock extends ASTNode {
 
-    public Map<Integer, String> lines = [:]
+    /// The source text this block is part of, and the offsets of the block
+    /// in it (`end` is exclusive). An empty block has no source.
+    public final CharSequence source
+    public final int start
+    public int end
 
-    public CodeBlock(int lineNumber) { super(lineNumber) }
+    /// Create an empty code block.
+    public CodeBlock(int lineNumber) { this(lineNumber, null, 0) }
+
+    /// Create a code block starting at the given offset in `source`. It is
+    /// empty until its end is extended.
+    public CodeBlock(int lineNumber, CharSequence source, int start) {
+        super(lineNumber)
+        this.source = source
+        this.start = start
+        this.end = start }
+
+    public boolean isEmpty() { end == start }
+
+    /// The code in this block, as one slice of the source.
+    public CharSequence getText() {
+        source == null ? "" : source.subSequence(start, end) }
+
+    /**
+     * @api The lines of code in this block (each including its line ending),
+     * by line number. This map is built each time it is asked for.
+     */
+    public Map<Integer, String> getLines() {
+        Map<Integer, String> lines = [:]
+        int lineNum = lineNumber
+        int lineStart = start
+
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i)
+            if (c == '\n' as char || c == '\r' as char) {
+                if (c == '\r' as char && i + 1 < end &&
+                    source.charAt(i + 1) == '\n' as char) { i++ }
+
+                lines[lineNum++] = source.subSequence(lineStart, i + 1).toString()
+                lineStart = i + 1 } }
+
+        if (lineStart < end) {
+            lines[lineNum] = source.subSequence(lineStart, end).toString() }
+
+        return lines }
 
     public String toString() {
         def linesVal = ""
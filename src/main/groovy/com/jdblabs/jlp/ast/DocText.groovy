@@ -7,15 +7,58 @@ package com.jdblabs.jlp.ast
 
 /**
  * @api ASTNode for `DocTexts`.
+ * The text is made up of the remainder of each documentation line after the
+ * comment delimiters. Rather than building up a string as the lines are
+ * parsed, we keep the start and end offsets of each line's text in the
+ * [`SourceFile`] source and only materialize the value when it is needed.
+ *
+ * [`SourceFile`]: jlp://jlp.jdb-labs.com/ast/SourceFile
  * @org jlp.jdb-labs.com/ast/DocText
  */
 public class DocText extends ASTNode {
 
-    public String value
+    /// The source text this doc text is part of, and the start and end
+    /// offset of each piece of it (stored in pairs).
+    protected final CharSequence source
+    protected int[] ranges
+    protected int rangeCount
 
-    public DocText(int lineNumber) {
+    /// A value set directly, for doc text that is not parsed from a source.
+    protected String value
+
+    public DocText(int lineNumber) { this(lineNumber, null) }
+
+    public DocText(int lineNumber, CharSequence source) {
         super(lineNumber)
-        value = "" }
+        this.source = source }
+
+    /// Add the text between `start` and `end` in the source.
+    public void add(int start, int end) {
+        if (ranges == null) { ranges = new int[4] }
+        else if (rangeCount * 2 == ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2) }
+
+        ranges[rangeCount * 2] = start
+        ranges[rangeCount * 2 + 1] = end
+        rangeCount++ }
+
+    public void setValue(String value) {
+        this.value = value
+        this.rangeCount = 0 }
+
+    /// The text, built each time it is asked for.
+    public String getValue() {
+        if (value != null || rangeCount == 0) { return value ?: "" }
+
+        StringBuilder sb = new StringBuilder()
+        appendTo(sb)
+        return sb.toString() }
+
+    /// Append the text to `out` without building it first.
+    public void appendTo(Appendable out) {
+        if (value != null) { out.append(value) }
+        for (int i = 0; i < rangeCount; i++) {
+            out.append(source, ranges[i * 2], ranges[i * 2 + 1]) } }
 
-    public String toString() { value }
+    public String toString() { getValue() }
 }
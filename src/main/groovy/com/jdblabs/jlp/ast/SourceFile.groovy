@@ -18,6 +18,10 @@ public class SourceFile {
       * awareness. In this case, we will keep a copy of the result of that
       * parsing here as well. */
 
+    /// The text of the source file. The code blocks and doc texts in the
+    /// AST refer to it by offset rather than holding copies of their text.
+    public CharSequence source
+
     /// A list of the blocks in this `SourceFile`.
     public List<ASTNode> blocks = []
 
@@ -14,4 +14,6 @@ appender("logfile", FileAppender) {
         pattern = "%date %level %logger{10} [%file:%line] %msg%n" }}
 
 root(WARN, ["stdout"])
+// The address `jlp --serve` is serving the documentation at.
+logger("com.jdblabs.jlp.DocServer", INFO)
 //logger("com.jdblabs.jlp", TRACE, ["file"])
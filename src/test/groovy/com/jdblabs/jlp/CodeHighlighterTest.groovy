@@ -0,0 +1,74 @@
+/**
+ * # CodeHighlighterTest
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests of [`CodeHighlighter`], mostly for code that is cut off in the
+ * middle of a token, which the highlighter has to cope with as it is given
+ * one code block at a time.
+ *
+ * [`CodeHighlighter`]: jlp://jlp.jdb-labs.com/CodeHighlighter
+ * @org jlp.jdb-labs.com/CodeHighlighterTest
+ */
+public class CodeHighlighterTest {
+
+    @Test
+    public void highlightsKeywordsStringsAndComments() {
+        String html = highlight('java', 'int a = "b"; // c')
+
+        assertTrue(html.contains('<code class="java keyword">int</code>'))
+        assertTrue(html.contains('<code class="java string">&quot;b&quot;</code>'))
+        assertTrue(html.contains('<code class="java comments">// c</code>')) }
+
+    /// An unterminated quote is plain text, and the rest of the line is
+    /// still highlighted.
+    @Test
+    public void unterminatedStringsArePlain() {
+        assertEquals(
+            '<div class="line number1 index0 alt2">' +
+            '<code class="java keyword">char</code>' +
+            '<code class="java plain"> c = \'</code></div>',
+            lines(highlight('java', "char c = '")))
+
+        String erlang = highlight('erlang', 'X = $".')
+        assertTrue(erlang.contains('<code class="erlang plain">X = $&quot;.</code>'))
+
+        String groovy = highlight('groovy', 'def s = "one\ntwo"\nreturn s')
+        assertFalse(groovy.contains('string'))
+        assertTrue(groovy.contains('<code class="groovy keyword">return</code>')) }
+
+    @Test
+    public void tripleQuotedStringsSpanLines() {
+        ['"""', "'''"].each { quote ->
+            String html = highlight('groovy',
+                "def s = ${quote}one\n'two\" x${quote}\nreturn s")
+
+            assertTrue(html, html.contains(
+                "<code class=\"groovy string\">${escape(quote)}one</code>"))
+            assertTrue(html, html.contains(
+                "<code class=\"groovy string\">'two&quot; x${escape(quote)}</code>"))
+            assertTrue(html.contains('<code class="groovy keyword">return</code>')) }
+
+        /// Unterminated, the string runs to the end of the code.
+        String html = highlight('groovy', "def s = '''one\ntwo")
+        assertTrue(html.contains('<code class="groovy string">two</code>')) }
+
+    static String highlight(String sourceType, String code) {
+        StringBuilder out = new StringBuilder()
+        CodeHighlighter.forSourceType(sourceType).highlight(code, out)
+        return out.toString() }
+
+    /// Just the lines of highlighted HTML, without the wrapping table.
+    static String lines(String html) {
+        return html.substring(html.indexOf('<div class="line'),
+            html.lastIndexOf('</div></td>')) }
+
+    static String escape(String quote) { quote.replace('"', '&quot;') }
+}
@@ -0,0 +1,156 @@
+/**
+ * # JLPScannerTest
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import com.jdblabs.jlp.ast.*
+import org.junit.Test
+import org.parboiled.Parboiled
+
+import static org.junit.Assert.*
+
+/**
+ * A differential test of [`JLPScanner`] against [`JLPPegParser`]. Both
+ * parsers are configured for each of the supported languages and must
+ * produce identical ASTs (or both reject the input) for the bundled sample
+ * files and for a large number of generated inputs.
+ *
+ * [`JLPScanner`]: jlp://jlp.jdb-labs.com/JLPScanner
+ * [`JLPPegParser`]: jlp://jlp.jdb-labs.com/JLPPegParser
+ * @org jlp.jdb-labs.com/JLPScannerTest
+ */
+public class JLPScannerTest {
+
+    /// One source type for each distinct parser configuration.
+    static final List SOURCE_TYPES = ['java', 'erlang', 'foxpro', 'xml', 'sql']
+
+    @Test
+    public void sampleFilesParseIdentically() {
+        def samples = []
+        TestProject.file('src').eachFileRecurse { file ->
+            if (file.isFile() &&
+                !['binary', 'unknown'].contains(Processor.sourceTypeForFile(file))) {
+                samples << file }}
+
+        assertFalse(samples.isEmpty())
+
+        SOURCE_TYPES.each { sourceType ->
+            samples.each { file ->
+                assertSameParse(sourceType, file.text, file.path) }}}
+
+    @Test
+    public void generatedInputsParseIdentically() {
+        Random random = new Random(20111201)
+
+        SOURCE_TYPES.each { sourceType ->
+            List lines = sampleLines(sourceType)
+
+            1000.times { i ->
+                StringBuilder input = new StringBuilder()
+                (1 + random.nextInt(12)).times {
+                    input.append(lines[random.nextInt(lines.size())])
+                    input.append(['\n', '\n', '\n', '\r\n', '\r', ''][
+                        random.nextInt(6)]) }
+
+                assertSameParse(sourceType, input.toString(),
+                    "generated input #${i}") }}}
+
+    @Test
+    public void edgeCasesParseIdentically() {
+        SOURCE_TYPES.each { sourceType ->
+            ['', '\n', 'x', '@', '@api', '/**', '*/', '///', '/// @api',
+             '/** @org a */', '/**\n * @return x\n */\nint a;\n',
+             'int a;\nint b; /** doc */\n', 'int a; /// doc\nint b;',
+             '/// a\n', '/// a', '%% a\n%% @org x\nfoo.\n', '** a\n&&& b\n',
+             '<!--! @api x\n  more\n-->\n<a/>', '--- @Author me\ncode\n'
+            ].each { input -> assertSameParse(sourceType, input, input) }}}
+
+    /// A collection of lines (without line endings) exercising the comment
+    /// delimiters for the given source type.
+    static List sampleLines(String sourceType) {
+        def args = Processor.parserArgumentsForSourceType(sourceType)
+
+        List mdocStarts = [], mdocEnds = [], sdocStarts = []
+        String lineStarts = ''
+        if (args.size() == 4) {
+            mdocStarts = [args[0]]; mdocEnds = [args[1]]
+            lineStarts = args[2]; sdocStarts = [args[3]] }
+        else if (args[0] instanceof List) { sdocStarts = args[0] }
+        else { sdocStarts = [args[0]] }
+
+        def directives = ['@api', '@Author', '@COPYRIGHT', '@example', '@include',
+            '@org', '@param', '@organization', '@return', '@', '@api x']
+        def texts = ['text', ' spaced text', '', '@', 'a * b']
+
+        def lines = ['int a = 1;', '', '    ', '\tfoo(bar);', 'x', '  ',
+            'code @org', 'a // b', '*', '-->', '%', '&']
+
+        sdocStarts.each { sdoc ->
+            lines << sdoc
+            texts.each { text -> lines << sdoc + ' ' + text }
+            directives.each { directive ->
+                lines << sdoc + ' ' + directive + ' value'
+                lines << '  ' + sdoc + directive
+                lines << sdoc + '  ' + directive + ' value' }
+            lines << 'int b; ' + sdoc + ' trailing'
+            lines << 'int c;\t' + sdoc }
+
+        mdocStarts.each { mdoc ->
+            lines << mdoc
+            lines << mdoc + ' one-line ' + mdocEnds[0]
+            lines << mdoc + ' @org one-line ' + mdocEnds[0]
+            lines << 'int d; ' + mdoc + ' trailing ' + mdocEnds[0] + ' int e;'
+            lines << mdoc + ' unterminated' }
+
+        mdocEnds.each { mend ->
+            lines << mend
+            lines << ' ' + mend
+            lines << 'text ' + mend + ' code' }
+
+        lineStarts.toList().take(4).each { lineStart ->
+            texts.each { text -> lines << ' ' + lineStart + ' ' + text }
+            directives.each { directive ->
+                lines << ' ' + lineStart + ' ' + directive + ' value' }}
+
+        return lines }
+
+    /// Parse the input with both parsers and check the results match.
+    static void assertSameParse(String sourceType, String input, String name) {
+        def args = Processor.parserArgumentsForSourceType(sourceType)
+        JLPParser peg = Parboiled.createParser(JLPPegParser, *args)
+        JLPParser scanner = new JLPScanner(*args)
+
+        String expected = parseToString(peg, input)
+        String actual = parseToString(scanner, input)
+
+        assertEquals("${sourceType}: ${name}".toString(), expected, actual) }
+
+    static String parseToString(JLPParser parser, String input) {
+        try { return dump(parser.parse(input)) }
+        catch (JLPParseException pe) { return "<no match>" } }
+
+    /// A complete textual representation of an AST.
+    static String dump(SourceFile sourceFile) {
+        StringBuilder sb = new StringBuilder()
+
+        sourceFile.blocks.each { Block block ->
+            sb.append("Block ${block.lineNumber}\n")
+            sb.append("  DocBlock ${block.docBlock.lineNumber}\n")
+
+            block.docBlock.directives.each { directive ->
+                assertSame(block.docBlock, directive.parentBlock)
+                sb.append("    Directive ${directive.lineNumber} " +
+                    "${directive.type} ${directive.value.inspect()}\n") }
+
+            block.docBlock.docTexts.each { docText ->
+                sb.append("    DocText ${docText.lineNumber} " +
+                    "${docText.value.inspect()}\n") }
+
+            sb.append("  CodeBlock ${block.codeBlock.lineNumber}\n")
+            block.codeBlock.lines.each { lineNum, line ->
+                sb.append("    ${lineNum}: ${line.inspect()}\n") }}
+
+        return sb.toString() }
+}
@@ -0,0 +1,69 @@
+/**
+ * # ProcessorTest
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import java.util.function.BiConsumer
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Tests of the [`Processor`], run on sources held in memory with
+ * [`Processor.build`] so that nothing is written to disk.
+ *
+ * [`Processor`]: jlp://jlp.jdb-labs.com/Processor
+ * [`Processor.build`]: jlp://jlp.jdb-labs.com/Processor/build
+ * @org jlp.jdb-labs.com/ProcessorTest
+ */
+public class ProcessorTest {
+
+    /// A generated source with no doc comments is one block of code. It is
+    /// still split over pages of `pageLines` lines.
+    @Test
+    public void commentFreeSourceIsPaginated() {
+        String text = (1..250).collect { "-define(C${it}, ${it})." }.join('\n') + '\n'
+
+        Map<String, String> pages = build([pageLines: 100],
+            new MemorySource(id: 'gen/big.hrl', text: text))
+
+        assertEquals(['gen/big.hrl.html', 'gen/big.hrl.2.html',
+            'gen/big.hrl.3.html'], pages.keySet().findAll {
+                it.startsWith('gen/') }.sort { it.length() })
+
+        [[1, 100], [101, 200], [201, 250]].eachWithIndex { range, page ->
+            String html = pages['gen/big.hrl' + Processor.pageSuffix(page)]
+            assertEquals(range[1] - range[0] + 1, html.count('-define('))
+            assertTrue(html.contains("-define(C${range[0]}, "))
+            assertTrue(html.contains("-define(C${range[1]}, ")) } }
+
+    /// Each page is given to the callback, encoded as UTF-8, with the
+    /// `jlp://` links between the documents resolved.
+    @Test
+    public void buildInMemoryLinksDocuments() {
+        Map<String, String> pages = build([:],
+            new MemorySource(id: 'a/A.java', text: '/** # A */\nclass A {\n' +
+                '    /**\n     * Run it.\n     * @org example.com/A/run\n' +
+                '     */\n    void run() {}\n}\n'),
+            new MemorySource(id: 'b/B.java', text: '/** Uses ' +
+                '[run](jlp://example.com/A/run), caf\u00e9. */\nclass B {}\n'))
+
+        assertEquals(['a/A.java.html', 'b/B.java.html'],
+            pages.keySet().findAll { !it.startsWith('.') }.sort())
+
+        assertTrue(pages['a/A.java.html'].contains("<tr id='example.com/A/run'>"))
+        assertTrue(pages['b/B.java.html'].contains(
+            '<a href="../a/A.java.html#example.com/A/run">run</a>'))
+        assertTrue(pages['b/B.java.html'].contains('caf\u00e9')) }
+
+    /// Build the given sources with a processor with the given options,
+    /// returning the text of each file by its path.
+    static Map<String, String> build(Map options, MemorySource... sources) {
+        Map<String, String> files = [:].asSynchronized()
+        Processor processor = new Processor(options)
+        processor.build(sources as List, { String path, byte[] bytes ->
+            files[path] = new String(bytes, 'UTF-8') } as BiConsumer)
+        return files }
+}
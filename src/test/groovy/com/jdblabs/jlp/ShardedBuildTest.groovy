@@ -0,0 +1,132 @@
+/**
+ * # ShardedBuildTest
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+/**
+ * Checks that a sharded build gives the same documentation as a build in one
+ * process. The repository's own sources are documented once by a single
+ * process, and again by two shards, each running both stages
+ * (`--export-anchors`, then `--import-anchors`) as separate JVMs against its
+ * own copy of the sources, as CI workers would. The output directories of
+ * the shards are merged and compared with the single build, file by file.
+ * Two shards are enough for links between documents in different shards,
+ * which the test checks there are.
+ *
+ * See [`Processor`](jlp://jlp.jdb-labs.com/Processor/sharding).
+ * @org jlp.jdb-labs.com/ShardedBuildTest
+ */
+public class ShardedBuildTest {
+
+    static final int SHARDS = 2
+
+    @Test
+    public void shardedBuildMatchesSingleBuild() {
+        File workDir = File.createTempDir('jlp-shards', '')
+        try {
+            File source = TestProject.file('src/main/groovy')
+
+            File singleIn = copyTree(source, new File(workDir, 'single-in'))
+            File singleOut = new File(workDir, 'single-out')
+            jlp(workDir, 'single', '-o', singleOut.path, singleIn.path)
+
+            /// Each shard has its own copy of the sources, at a different
+            /// absolute path.
+            def shards = (1..SHARDS).collect { i ->
+                [i: i,
+                 input: copyTree(source, new File(workDir, "shard${i}-in")),
+                 output: new File(workDir, "shard${i}-out"),
+                 anchors: new File(workDir, "shard${i}.anchors")] }
+
+            runAll(shards.collect { shard -> { ->
+                jlp(workDir, "export${shard.i}",
+                    '--shard', "${shard.i}/${SHARDS}",
+                    '--export-anchors', shard.anchors.path,
+                    shard.input.path) } })
+
+            def imports = shards.collectMany { shard ->
+                ['--import-anchors', shard.anchors.path] }
+
+            runAll(shards.collect { shard -> { ->
+                jlp(workDir, "import${shard.i}",
+                    '--shard', "${shard.i}/${SHARDS}", *imports,
+                    '-o', shard.output.path, shard.input.path) } })
+
+            Map<String, File> expected = files(singleOut)
+            Map<String, File> merged = [:]
+            shards.each { shard -> merged.putAll(files(shard.output)) }
+
+            assertFalse(expected.isEmpty())
+            assertTrue("No links between the shards.",
+                linksBetween(shards[0].output, shards[1].output))
+            assertEquals(expected.keySet().sort(), merged.keySet().sort())
+            expected.each { path, file ->
+                assertArrayEquals(path, file.bytes, merged[path].bytes) } }
+
+        finally { workDir.deleteDir() } }
+
+    /// Run JLP in a new JVM with the given arguments, failing with its
+    /// output if it does not succeed.
+    static void jlp(File workDir, String name, Object... args) {
+        File log = new File(workDir, "${name}.log")
+        List<String> command = [
+            new File(System.getProperty('java.home'), 'bin/java').path]
+
+        /// Groovy 2.4 needs reflective access to `java.lang` on Java 9+.
+        if (!System.getProperty('java.specification.version').startsWith('1.')) {
+            command += ['--add-opens', 'java.base/java.lang=ALL-UNNAMED'] }
+
+        command += ['-cp', System.getProperty('java.class.path'),
+            'com.jdblabs.jlp.JLPMain'] + args*.toString()
+
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(log)
+            .start()
+
+        assertEquals("jlp ${args.join(' ')} failed:\n${log.text}".toString(),
+            0, process.waitFor()) }
+
+    /// Run the given closures at once, as the shards of a build would be.
+    static void runAll(List<Closure> tasks) {
+        List<Throwable> failures = [].asSynchronized()
+        List<Thread> threads = tasks.collect { task ->
+            Thread.start {
+                try { task() }
+                catch (Throwable t) { failures << t } } }
+        threads*.join()
+        if (failures) { throw failures[0] } }
+
+    /// Does any page in `from` link to a page in `to`?
+    static boolean linksBetween(File from, File to) {
+        Set<String> targets = files(to).keySet()
+        return files(from).any { path, file ->
+            if (!path.endsWith('.html')) { return false }
+            String dir = new File(path).parent ?: ''
+            (file.text =~ /href="([^"#:]+\.html)#/).any { match ->
+                targets.contains(new File(dir, match[1]).toPath()
+                    .normalize().toString()) } } }
+
+    static File copyTree(File from, File to) {
+        from.eachFileRecurse { file ->
+            if (file.isFile()) {
+                File copy = new File(to, from.toPath().relativize(
+                    file.toPath()).toString())
+                copy.parentFile.mkdirs()
+                copy.bytes = file.bytes } }
+        return to }
+
+    /// The files under a directory by their path relative to it.
+    static Map<String, File> files(File dir) {
+        Map<String, File> result = [:]
+        dir.eachFileRecurse { file ->
+            if (file.isFile()) {
+                result[dir.toPath().relativize(file.toPath()).toString()] = file } }
+        return result }
+}
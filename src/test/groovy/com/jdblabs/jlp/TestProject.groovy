@@ -0,0 +1,33 @@
+/**
+ * # TestProject
+ * @author Jonathan Bernard (jdb@jdb-labs.com)
+ * @copyright 2011-2012 [JDB Labs LLC](http://jdb-labs.com)
+ */
+package com.jdblabs.jlp
+
+/**
+ * Finds the files of the project for the tests that use its own sources as
+ * input, whatever directory the tests are run from. The root of the project
+ * is given by the build as the `jlp.projectDir` system property. Failing
+ * that, it is the nearest directory above the test classes with a
+ * `build.gradle`, and failing that the working directory.
+ *
+ * @org jlp.jdb-labs.com/TestProject
+ */
+public class TestProject {
+
+    public static final File ROOT = findRoot()
+
+    /// @api A file of the project, by its path relative to the root.
+    public static File file(String path) { new File(ROOT, path) }
+
+    protected static File findRoot() {
+        String projectDir = System.getProperty('jlp.projectDir')
+        if (projectDir) { return new File(projectDir) }
+
+        File dir = new File(TestProject.protectionDomain.codeSource.location.toURI())
+        for (; dir != null; dir = dir.parentFile) {
+            if (new File(dir, 'build.gradle').isFile()) { return dir } }
+
+        return new File('.').canonicalFile }
+}